@@ -0,0 +1,56 @@
+package org.neo4j.index.memory.provider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link CombiningPrimitiveLongIterator} over postings of the given size, which picks their container:
+ * 1 inline, 100 int[], 100000 consecutive ids a bitmap. The time is per node-id.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IteratorBenchmark {
+    private static final int IDS = 1_000_000;
+
+    @Param({"1", "100", "100000"})
+    public int postings;
+
+    private List<Postings> values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        values = new ArrayList<>();
+        for (int start = 0; start < IDS; start += postings) {
+            long[] ids = new long[postings];
+            for (int i = 0; i < postings; i++) {
+                ids[i] = start + i;
+            }
+            values.add(Postings.of(ids));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IDS)
+    public long combine() {
+        return ReaderBenchmark.drain(new CombiningPrimitiveLongIterator(values.iterator()));
+    }
+}
@@ -0,0 +1,36 @@
+package org.neo4j.index.memory.provider;
+
+/**
+ * Property values of the benchmarks, the i-th value of each type sorts before the (i+1)-th.
+ */
+public enum KeyType {
+    LONG {
+        @Override
+        Object value(int i) {
+            return (long) i;
+        }
+    },
+    DOUBLE {
+        @Override
+        Object value(int i) {
+            return i + 0.5;
+        }
+    },
+    /**
+     * Strings with a long common prefix, like e-mail addresses or URLs
+     */
+    STRING {
+        @Override
+        Object value(int i) {
+            return String.format("user-%09d@example.com", i);
+        }
+    },
+    ARRAY {
+        @Override
+        Object value(int i) {
+            return new long[]{i >> 8, i & 0xFF};
+        }
+    };
+
+    abstract Object value(int i);
+}
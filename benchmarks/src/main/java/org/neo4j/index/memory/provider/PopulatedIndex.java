@@ -0,0 +1,47 @@
+package org.neo4j.index.memory.provider;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Index populated with {@link #keys} distinct values of the {@link #type}, each of them with {@link #postings}
+ * node-ids. Node n has value n % keys, so the node-ids of a value are spread over the whole id range.
+ */
+@State(Scope.Benchmark)
+public class PopulatedIndex {
+    @Param({"heap", "segments", "off_heap"})
+    public IndexStorage storage;
+
+    @Param({"LONG", "STRING"})
+    public KeyType type;
+
+    @Param({"1000", "100000"})
+    public int keys;
+
+    @Param({"1", "100"})
+    public int postings;
+
+    MemoryIndex index;
+    Object[] values;
+
+    @Setup(Level.Trial)
+    public void populate() throws Exception {
+        values = new Object[keys];
+        for (int i = 0; i < keys; i++) {
+            values[i] = type.value(i);
+        }
+        index = new MemoryIndex(storage);
+        index.create();
+        for (long node = 0, nodes = nodes(); node < nodes; node++) {
+            index.add(node, values[(int) (node % keys)]);
+        }
+        index.close(true);
+    }
+
+    long nodes() {
+        return (long) keys * postings;
+    }
+}
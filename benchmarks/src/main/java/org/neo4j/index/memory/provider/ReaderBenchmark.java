@@ -0,0 +1,107 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of {@link MemoryIndexReader}, each on a new reader of the current snapshot like a transaction would.
+ * Results are drained, the benchmarks return the number of node-ids found.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReaderBenchmark {
+    /**
+     * number of distinct values read by range and prefix seeks
+     */
+    private static final int RANGE = 100;
+
+    @Benchmark
+    public long seek(PopulatedIndex state) {
+        IndexReader reader = state.index.newReader();
+        return drain(reader.seek(state.values[random(state.keys)]));
+    }
+
+    /**
+     * IN list of {@link #RANGE} random values, looked up at once
+     */
+    @Benchmark
+    public long seekAll(PopulatedIndex state) {
+        List<Object> values = new ArrayList<>(RANGE);
+        for (int i = 0; i < RANGE; i++) {
+            values.add(state.values[random(state.keys)]);
+        }
+        return drain(state.index.newReader().seekAll(values, true));
+    }
+
+    /**
+     * the same IN list looked up value by value
+     */
+    @Benchmark
+    public long seekEach(PopulatedIndex state) {
+        IndexReader reader = state.index.newReader();
+        long count = 0;
+        for (int i = 0; i < RANGE; i++) {
+            count += drain(reader.seek(state.values[random(state.keys)]));
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int count(PopulatedIndex state) {
+        IndexReader reader = state.index.newReader();
+        return reader.countIndexedNodes(0, state.values[random(state.keys)]);
+    }
+
+    @Benchmark
+    public long range(PopulatedIndex state) {
+        IndexReader reader = state.index.newReader();
+        int from = random(state.keys - RANGE);
+        Object lower = state.values[from], upper = state.values[from + RANGE - 1];
+        if (lower instanceof Number) return drain(reader.rangeSeekByNumberInclusive((Number) lower, (Number) upper));
+        if (lower instanceof String) return drain(reader.rangeSeekByString((String) lower, true, (String) upper, true));
+        return 0;
+    }
+
+    /**
+     * prefix that matches {@link #RANGE} values of the STRING type
+     */
+    @Benchmark
+    public long prefix(PopulatedIndex state) {
+        IndexReader reader = state.index.newReader();
+        String value = String.valueOf(state.values[random(state.keys)]);
+        return drain(reader.rangeSeekByPrefix(value.substring(0, Math.max(0, value.indexOf('@') - 2))));
+    }
+
+    @Benchmark
+    public long scan(PopulatedIndex state) {
+        return drain(state.index.newReader().scan());
+    }
+
+    private static int random(int bound) {
+        return ThreadLocalRandom.current().nextInt(Math.max(1, bound));
+    }
+
+    static long drain(PrimitiveLongIterator it) {
+        long count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+}
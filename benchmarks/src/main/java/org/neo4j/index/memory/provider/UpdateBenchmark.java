@@ -0,0 +1,136 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates of {@link MemoryIndex}: population, changes of property values as online and batched updates,
+ * and removal of nodes. The index keeps its size, nodes are moved between values or removed and added again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBenchmark {
+    private static final long[] NO_LABELS = new long[0];
+    private static final int BATCH = 1_000;
+
+    /**
+     * Cycles through the nodes of the populated index, each node is updated once per cycle.
+     */
+    @State(Scope.Thread)
+    public static class Updates {
+        long node;
+        int cycle;
+
+        long next(PopulatedIndex state) {
+            if (++node == state.nodes()) {
+                node = 0;
+                cycle++;
+            }
+            return node;
+        }
+
+        /**
+         * @return the value of the node in the current cycle, each cycle moves all nodes to the next value
+         */
+        Object value(PopulatedIndex state, long node, int cycle) {
+            return state.values[(int) ((node + cycle) % state.keys)];
+        }
+    }
+
+    /**
+     * changes the value of a node as the updater of a committed transaction does
+     */
+    @Benchmark
+    public void change(PopulatedIndex state, Updates updates) throws Exception {
+        long node = updates.next(state);
+        Object before = updates.value(state, node, updates.cycle), after = updates.value(state, node, updates.cycle + 1);
+        state.index.process(NodePropertyUpdate.change(node, 0, before, NO_LABELS, after, NO_LABELS));
+    }
+
+    /**
+     * removes a node and adds it again with its value of the first cycle, only this benchmark runs on the index
+     */
+    @Benchmark
+    public void removeAndAdd(PopulatedIndex state, Updates updates) throws Exception {
+        long node = updates.next(state);
+        state.index.remove(PrimitiveLongCollections.setOf(node));
+        state.index.process(NodePropertyUpdate.add(node, 0, updates.value(state, node, 0), NO_LABELS));
+    }
+
+    /**
+     * applies batches of {@link #BATCH} changes through a batched updater, the time is per batch
+     */
+    @Benchmark
+    public void batchedChanges(PopulatedIndex state, Updates updates) throws Exception {
+        try (IndexUpdater updater = state.index.newUpdater(IndexUpdateMode.BATCHED)) {
+            for (int i = 0; i < BATCH; i++) {
+                long node = updates.next(state);
+                Object before = updates.value(state, node, updates.cycle), after = updates.value(state, node, updates.cycle + 1);
+                updater.process(NodePropertyUpdate.change(node, 0, before, NO_LABELS, after, NO_LABELS));
+            }
+        }
+    }
+
+    /**
+     * Values for a population from scratch, measured once per iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class Population {
+        @Param({"heap", "segments", "off_heap"})
+        public IndexStorage storage;
+
+        @Param({"LONG", "STRING"})
+        public KeyType type;
+
+        @Param({"1000", "100000"})
+        public int keys;
+
+        @Param({"1", "100"})
+        public int postings;
+
+        Object[] values;
+
+        @Setup(Level.Trial)
+        public void values() {
+            values = new Object[keys];
+            for (int i = 0; i < keys; i++) {
+                values[i] = type.value(i);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public MemoryIndex populate(Population population) throws Exception {
+        MemoryIndex index = new MemoryIndex(population.storage);
+        index.create();
+        long nodes = (long) population.keys * population.postings;
+        for (long node = 0; node < nodes; node++) {
+            index.add(node, population.values[(int) (node % population.keys)]);
+        }
+        index.close(true);
+        return index;
+    }
+}
@@ -5,7 +5,11 @@ import org.neo4j.kernel.api.index.SchemaIndexProvider;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.extension.KernelExtensionFactory;
 import org.neo4j.kernel.impl.spi.KernelContext;
+import org.neo4j.kernel.impl.transaction.state.NeoStoresSupplier;
 import org.neo4j.kernel.lifecycle.Lifecycle;
+import org.neo4j.kernel.monitoring.Monitors;
+
+import java.io.File;
 
 @Service.Implementation(KernelExtensionFactory.class)
 public class MemoryIndexProviderFactory extends KernelExtensionFactory<MemoryIndexProviderFactory.Dependencies> {
@@ -18,6 +22,10 @@ public class MemoryIndexProviderFactory extends KernelExtensionFactory<MemoryInd
 
     public interface Dependencies {
         Config getConfig();
+
+        Monitors getMonitors();
+
+        NeoStoresSupplier getNeoStoresSupplier();
     }
 
     public MemoryIndexProviderFactory() {
@@ -29,8 +37,17 @@ public class MemoryIndexProviderFactory extends KernelExtensionFactory<MemoryInd
         this.singleProvider = singleProvider;
     }
 
+    @Override
+    public Class getSettingsClass() {
+        return MemoryIndexSettings.class;
+    }
+
     @Override
     public Lifecycle newInstance(KernelContext context, Dependencies dependencies) throws Throwable {
-        return singleProvider != null ? singleProvider : new MemorySchemaIndexProvider(dependencies.getConfig());
+        if (singleProvider != null) return singleProvider;
+        File rootDirectory = SchemaIndexProvider.getRootDirectory(context.storeDir(), KEY);
+        // the stores are opened after the kernel extensions are created, so they are resolved when the indexes start
+        NeoStoresSupplier stores = () -> dependencies.getNeoStoresSupplier().get();
+        return new MemorySchemaIndexProvider(dependencies.getConfig(), context.fileSystem(), rootDirectory, dependencies.getMonitors(), stores);
     }
 }
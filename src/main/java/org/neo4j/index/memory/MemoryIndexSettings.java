@@ -0,0 +1,46 @@
+package org.neo4j.index.memory;
+
+import org.neo4j.graphdb.config.Setting;
+import org.neo4j.graphdb.factory.Description;
+import org.neo4j.index.memory.provider.IndexStorage;
+
+import static org.neo4j.kernel.configuration.Settings.BOOLEAN;
+import static org.neo4j.kernel.configuration.Settings.BYTES;
+import static org.neo4j.kernel.configuration.Settings.FALSE;
+import static org.neo4j.kernel.configuration.Settings.INTEGER;
+import static org.neo4j.kernel.configuration.Settings.TRUE;
+import static org.neo4j.kernel.configuration.Settings.min;
+import static org.neo4j.kernel.configuration.Settings.options;
+import static org.neo4j.kernel.configuration.Settings.setting;
+
+public class MemoryIndexSettings {
+    @Description("Where memory indexes keep their keys and node-ids, 'heap', 'segments' or 'off_heap'. Segments keep " +
+            "numbers and Strings in flat sorted arrays with recent updates merged in the background, off-heap storage " +
+            "keeps those segments outside of the java heap, so large indexes don't cause long garbage collection pauses.")
+    public static final Setting<IndexStorage> storage = setting("memory_index.storage", options(IndexStorage.class), IndexStorage.heap.name());
+
+    @Description("Whether memory indexes keep a map from node-ids to their values. Removing nodes then only touches " +
+            "their own entries instead of scanning the index. Turn it off to save memory on read-mostly databases.")
+    public static final Setting<Boolean> node_values = setting("memory_index.node_values", BOOLEAN, TRUE);
+
+    @Description("Estimated bytes each memory index may use, 0 for no limit. Populating an index beyond it fails " +
+            "the index, transactions that would exceed it are rejected.")
+    public static final Setting<Long> max_bytes = setting("memory_index.max_bytes", BYTES, "0");
+
+    @Description("Estimated bytes all memory indexes together may use, 0 for no limit.")
+    public static final Setting<Long> total_max_bytes = setting("memory_index.total_max_bytes", BYTES, "0");
+
+    @Description("Number of key ranges each value type of a memory index is split into once it holds enough entries, " +
+            "1 for none, then all updates of a value type are serialized. Updates of different ranges run concurrently, " +
+            "range seeks read them in parallel, and the ranges are rebalanced when one of them grows beyond twice its share.")
+    public static final Setting<Integer> shards = setting("memory_index.shards", INTEGER, "1", min(1));
+
+    @Description("Whether memory indexes keep a trigram index of their String values, to seek Strings containing " +
+            "or ending with a given one without checking all of them. Takes an entry per character of each distinct " +
+            "String and serializes writers of Strings.")
+    public static final Setting<Boolean> ngrams = setting("memory_index.ngrams", BOOLEAN, FALSE);
+
+    @Description("Whether memory indexes that can't be recovered from their snapshots are populated at startup " +
+            "in a single parallel scan of the node and property stores, instead of one population per index by the kernel.")
+    public static final Setting<Boolean> store_scan = setting("memory_index.store_scan", BOOLEAN, TRUE);
+}
@@ -1,23 +1,38 @@
 package org.neo4j.index.memory;
 
+import org.neo4j.index.memory.provider.IndexFiles;
+import org.neo4j.index.memory.provider.IndexOptions;
+import org.neo4j.index.memory.provider.IndexStorage;
+import org.neo4j.index.memory.provider.MemoryBudget;
 import org.neo4j.index.memory.provider.MemoryIndex;
+import org.neo4j.index.memory.provider.MemoryIndexMonitor;
 import org.neo4j.io.fs.FileSystemAbstraction;
 import org.neo4j.io.pagecache.PageCache;
+import org.neo4j.kernel.api.exceptions.KernelException;
 import org.neo4j.kernel.api.index.*;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.impl.api.index.sampling.IndexSamplingConfig;
+import org.neo4j.kernel.impl.store.NeoStores;
+import org.neo4j.kernel.impl.store.SchemaStorage;
 import org.neo4j.kernel.impl.store.SchemaStore;
 import org.neo4j.kernel.impl.store.StoreFactory;
 import org.neo4j.kernel.impl.storemigration.SchemaIndexMigrator;
 import org.neo4j.kernel.impl.storemigration.StoreMigrationParticipant;
+import org.neo4j.kernel.impl.store.record.IndexRule;
 import org.neo4j.kernel.impl.storemigration.UpgradableDatabase;
+import org.neo4j.kernel.impl.transaction.state.NeoStoresSupplier;
 import org.neo4j.kernel.impl.util.CopyOnWriteHashMap;
 import org.neo4j.kernel.monitoring.Monitors;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeMap;
 
 import static org.neo4j.index.memory.MemoryIndexProviderFactory.PROVIDER_DESCRIPTOR;
 
@@ -28,9 +43,82 @@ public class MemorySchemaIndexProvider extends SchemaIndexProvider {
     }
 
     private final Map<Long, MemoryIndex> indexes = new CopyOnWriteHashMap<>();
+    private final IndexStorage storage;
+    private final boolean nodeValues;
+    private final MemoryBudget budget;
+    private final long maxIndexBytes;
+    private final int shards;
+    private final boolean ngrams;
+    private final FileSystemAbstraction fs;
+    private final File rootDirectory;
+    private final Monitors monitors;
+    private final NeoStoresSupplier stores;
+    private boolean scanned;
+    private final MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
 
     public MemorySchemaIndexProvider(final Config config){
+        this(config, null, null);
+    }
+
+    /**
+     * @param rootDirectory directory for the snapshots and journals of the indexes, null to keep them in memory only
+     */
+    public MemorySchemaIndexProvider(final Config config, FileSystemAbstraction fs, File rootDirectory) {
+        this(config, fs, rootDirectory, new Monitors());
+    }
+
+    /**
+     * @param monitors creates a {@link MemoryIndexMonitor} per index, tagged with the index id
+     */
+    public MemorySchemaIndexProvider(final Config config, FileSystemAbstraction fs, File rootDirectory, Monitors monitors) {
+        this(config, fs, rootDirectory, monitors, null);
+    }
+
+    /**
+     * @param stores stores of the database to populate the indexes from at startup, in one pass for all of them,
+     *               null to leave the population to the kernel
+     */
+    public MemorySchemaIndexProvider(final Config config, FileSystemAbstraction fs, File rootDirectory, Monitors monitors, NeoStoresSupplier stores) {
         super(PROVIDER_DESCRIPTOR, PRIORITY);
+        this.storage = config.get(MemoryIndexSettings.storage);
+        this.nodeValues = config.get(MemoryIndexSettings.node_values);
+        this.budget = new MemoryBudget(config.get(MemoryIndexSettings.total_max_bytes));
+        this.maxIndexBytes = config.get(MemoryIndexSettings.max_bytes);
+        this.shards = config.get(MemoryIndexSettings.shards);
+        this.ngrams = config.get(MemoryIndexSettings.ngrams);
+        this.fs = fs;
+        this.rootDirectory = rootDirectory;
+        this.monitors = monitors;
+        this.stores = config.get(MemoryIndexSettings.store_scan) ? stores : null;
+    }
+
+    private IndexFiles files(long indexId) {
+        return rootDirectory == null ? null : new IndexFiles(fs, new File(rootDirectory, String.valueOf(indexId)));
+    }
+
+    private MemoryIndex newIndex(long indexId) {
+        MemoryIndexMonitor monitor = monitors.newMonitor(MemoryIndexMonitor.class, getClass(), String.valueOf(indexId));
+        return new MemoryIndex(new IndexOptions().storage(storage).files(files(indexId)).nodeValues(nodeValues).monitor(monitor)
+                .budget(budget.forIndex(maxIndexBytes)).shards(shards).ngrams(ngrams));
+    }
+
+    /**
+     * adds the index and registers its metrics as MBean, replacing a previous index with the same id
+     */
+    private void register(long indexId, MemoryIndex index) {
+        MemoryIndex previous = this.indexes.put(indexId, index);
+        try {
+            ObjectName name = objectName(indexId);
+            if (previous != null && mbeans.isRegistered(name)) mbeans.unregisterMBean(name);
+            mbeans.registerMBean(index.metrics(), name);
+        } catch (JMException e) {
+            // metrics are optional, e.g. when a second provider is opened on the same store
+        }
+    }
+
+    private ObjectName objectName(long indexId) throws JMException {
+        String store = rootDirectory == null ? "memory@" + Integer.toHexString(System.identityHashCode(this)) : rootDirectory.getPath();
+        return new ObjectName("org.neo4j.index.memory:type=MemoryIndex,store=" + ObjectName.quote(store) + ",index=" + indexId);
     }
 
     @Override
@@ -40,20 +128,19 @@ public class MemorySchemaIndexProvider extends SchemaIndexProvider {
 
     @Override
     public IndexPopulator getPopulator(long indexId, IndexDescriptor indexDescriptor, IndexConfiguration indexConfiguration, IndexSamplingConfig indexSamplingConfig) {
-        final MemoryIndex index = new MemoryIndex(createIndex());
-        this.indexes.put(indexId, index);
+        final MemoryIndex index = newIndex(indexId);
+        if (indexConfiguration.isUnique()) index.unique(indexDescriptor.getPropertyKeyId());
+        register(indexId, index);
         return index;
     }
 
-    private TreeMap<Object, long[]> createIndex() {
-        return new TreeMap<>();
-    }
-
     @Override
     public IndexAccessor getOnlineAccessor(final long indexId, IndexConfiguration indexConfiguration, IndexSamplingConfig indexSamplingConfig) throws IOException {
         final MemoryIndex index = this.indexes.get(indexId);
         if (index == null || index.getState() != InternalIndexState.ONLINE)
             throw new IllegalStateException("Index " + indexId + " not online yet");
+        // recovered indexes only learn here whether they back a constraint
+        if (indexConfiguration.isUnique()) index.unique();
         return index;
     }
 
@@ -65,14 +152,122 @@ public class MemorySchemaIndexProvider extends SchemaIndexProvider {
 
     @Override
     public InternalIndexState getInitialState(final long indexId) {
-        final MemoryIndex index = this.indexes.get(indexId);
-        return index != null ? index.getState() : InternalIndexState.POPULATING;
+        MemoryIndex index = this.indexes.get(indexId);
+        if (index != null) return index.getState();
+        if (populateFromStore()) {
+            index = this.indexes.get(indexId);
+            if (index != null) return index.getState();
+        }
+        index = newIndex(indexId);
+        if (recover(index)) {
+            register(indexId, index);
+            return InternalIndexState.ONLINE;
+        }
+        return InternalIndexState.POPULATING;
+    }
+
+    /**
+     * @return true if the index was loaded from its snapshot and journals
+     */
+    private static boolean recover(MemoryIndex index) {
+        try {
+            return index.recover();
+        } catch (IOException e) {
+            // unreadable snapshot, the index is populated again, what was recovered so far is released
+            close(index);
+            return false;
+        }
+    }
+
+    private static void close(MemoryIndex index) {
+        try {
+            index.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Brings all memory indexes of the database online on the first call, those that can't be recovered are
+     * populated in one scan of the stores.
+     *
+     * The scan runs at {@link #getInitialState}, before the kernel recovers its transaction log, so it reads the
+     * node and property records as the last shutdown left them: changes of transactions that were committed
+     * to the log but not yet to the stores are missing from the populated indexes. The scan relies on the kernel
+     * to repair them: once the log is recovered, IndexingService removes every node touched by a recovered
+     * transaction from all online indexes and adds the values it then reads from the recovered stores.
+     *
+     * Indexes that reject an entry of the scan, e.g. over their memory budget, unique indexes with duplicate values,
+     * and all indexes if the stores can't be read are left to the kernel's population, the others go online.
+     *
+     * @return false if the stores are not available, or were scanned before
+     */
+    private synchronized boolean populateFromStore() {
+        if (stores == null || scanned) return false;
+        scanned = true;
+        NeoStores neoStores;
+        try {
+            neoStores = stores.get();
+        } catch (RuntimeException e) {
+            return false;
+        }
+        if (neoStores == null) return false;
+        StoreScanPopulation scan = new StoreScanPopulation(neoStores);
+        Map<Long, MemoryIndex> populating = new HashMap<>();
+        for (Iterator<IndexRule> rules = new SchemaStorage(neoStores.getSchemaStore()).allIndexRules(); rules.hasNext(); ) {
+            IndexRule rule = rules.next();
+            // orphaned constraint indexes are dropped by the kernel
+            if (!PROVIDER_DESCRIPTOR.equals(rule.getProviderDescriptor()) || rule.isConstraintIndex() && rule.getOwningConstraint() == null) continue;
+            MemoryIndex index = newIndex(rule.getId());
+            if (recover(index)) {
+                register(rule.getId(), index);
+                continue;
+            }
+            try {
+                index.create();
+            } catch (IOException e) {
+                close(index);
+                continue;
+            }
+            if (rule.isConstraintIndex()) index.unique(rule.getPropertyKey());
+            scan.add(rule.getLabel(), rule.getPropertyKey(), index);
+            populating.put(rule.getId(), index);
+        }
+        if (scan.isEmpty()) return true;
+        try {
+            scan.run();
+        } catch (IOException e) {
+            populating.values().forEach(MemorySchemaIndexProvider::close);
+            return true;
+        }
+        Map<MemoryIndex, Exception> failures = scan.failures();
+        for (Map.Entry<Long, MemoryIndex> entry : populating.entrySet()) {
+            MemoryIndex index = entry.getValue();
+            if (failures.containsKey(index)) {
+                // releases the buffered entries
+                close(index);
+                continue;
+            }
+            try {
+                index.verifyDeferredConstraints(null);
+                index.close(true);
+                register(entry.getKey(), index);
+            } catch (IOException | KernelException | IndexEntryConflictException e) {
+                close(index);
+            }
+        }
+        return true;
     }
 
     @Override
     public void shutdown() throws Throwable {
-        for (MemoryIndex memoryIndex : indexes.values()) {
-            memoryIndex.shutdown();
+        for (Map.Entry<Long, MemoryIndex> entry : indexes.entrySet()) {
+            entry.getValue().shutdown();
+            try {
+                ObjectName name = objectName(entry.getKey());
+                if (mbeans.isRegistered(name)) mbeans.unregisterMBean(name);
+            } catch (JMException e) {
+                // already gone
+            }
         }
         super.shutdown();
     }
@@ -0,0 +1,163 @@
+package org.neo4j.index.memory;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveIntObjectMap;
+import org.neo4j.index.memory.provider.MemoryIndex;
+import org.neo4j.kernel.api.exceptions.KernelException;
+import org.neo4j.kernel.api.index.IndexEntryConflictException;
+import org.neo4j.kernel.impl.store.NeoStores;
+import org.neo4j.kernel.impl.store.NodeLabelsField;
+import org.neo4j.kernel.impl.store.NodeStore;
+import org.neo4j.kernel.impl.store.PropertyStore;
+import org.neo4j.kernel.impl.store.record.NodeRecord;
+import org.neo4j.kernel.impl.store.record.PropertyBlock;
+import org.neo4j.kernel.impl.store.record.PropertyRecord;
+import org.neo4j.kernel.impl.store.record.Record;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+/**
+ * Populates memory indexes straight from the node and property stores when the provider starts, in a single pass
+ * over all nodes for all of them, instead of a population per index through the kernel.
+ * The node-ids are split into ranges that are read in parallel on the fork/join pool through the page cache,
+ * each range in ascending order. Nodes without a label of an index are skipped without reading their properties.
+ *
+ * The indexes are created before and buffer their entries as during a population, which the caller completes.
+ * An index that rejects an entry, e.g. because it exceeds its memory budget, gets no further entries and is
+ * reported in {@link #failures()}, the others are populated as usual. Only a failure to read the stores fails the scan.
+ */
+final class StoreScanPopulation {
+    static final int RANGE = 1 << 16;
+
+    private final NodeStore nodeStore;
+    private final PropertyStore propertyStore;
+    /**
+     * indexes by label and property key
+     */
+    private final PrimitiveIntObjectMap<PrimitiveIntObjectMap<List<Target>>> indexes = Primitive.intObjectMap();
+    private final List<Target> targets = new ArrayList<>();
+
+    StoreScanPopulation(NeoStores stores) {
+        this.nodeStore = stores.getNodeStore();
+        this.propertyStore = stores.getPropertyStore();
+    }
+
+    void add(int label, int propertyKey, MemoryIndex index) {
+        PrimitiveIntObjectMap<List<Target>> byKey = indexes.get(label);
+        if (byKey == null) indexes.put(label, byKey = Primitive.intObjectMap());
+        List<Target> list = byKey.get(propertyKey);
+        if (list == null) byKey.put(propertyKey, list = new ArrayList<>(1));
+        Target target = new Target(index);
+        list.add(target);
+        targets.add(target);
+    }
+
+    boolean isEmpty() {
+        return targets.isEmpty();
+    }
+
+    /**
+     * @return the indexes that rejected an entry during {@link #run()}, with the reason
+     */
+    Map<MemoryIndex, Exception> failures() {
+        Map<MemoryIndex, Exception> failures = new HashMap<>();
+        for (Target target : targets) {
+            if (target.failure != null) failures.put(target.index, target.failure);
+        }
+        return failures;
+    }
+
+    /**
+     * adds the values of all nodes with the label and property of an index to the index
+     *
+     * @throws IOException if the stores could not be read
+     */
+    void run() throws IOException {
+        long highId = nodeStore.getHighestPossibleIdInUse() + 1;
+        try {
+            LongStream.range(0, (highId + RANGE - 1) / RANGE).parallel().forEach(range -> {
+                try {
+                    scan(range * RANGE, Math.min(highId, (range + 1) * RANGE));
+                } catch (IOException e) {
+                    throw new ScanFailed(e);
+                }
+            });
+        } catch (ScanFailed e) {
+            throw new IOException(e.getCause());
+        } catch (RuntimeException e) {
+            throw new IOException("Unable to scan the node store", e);
+        }
+    }
+
+    private void scan(long from, long to) throws IOException {
+        NodeRecord record = new NodeRecord(-1);
+        List<PrimitiveIntObjectMap<List<Target>>> matches = new ArrayList<>();
+        for (long nodeId = from; nodeId < to; nodeId++) {
+            NodeRecord node = nodeStore.loadRecord(nodeId, record);
+            if (node == null || !node.inUse() || Record.NO_NEXT_PROPERTY.is(node.getNextProp())) continue;
+            matches.clear();
+            for (long label : NodeLabelsField.get(node, nodeStore)) {
+                PrimitiveIntObjectMap<List<Target>> byKey = indexes.get((int) label);
+                if (byKey != null) matches.add(byKey);
+            }
+            if (matches.isEmpty()) continue;
+            long nextProp = node.getNextProp();
+            while (!Record.NO_NEXT_PROPERTY.is(nextProp)) {
+                PropertyRecord properties = propertyStore.getRecord(nextProp);
+                for (PropertyBlock block : properties) {
+                    add(nodeId, block, matches);
+                }
+                nextProp = properties.getNextProp();
+            }
+        }
+    }
+
+    /**
+     * decodes the value only if an index of one of the node's labels has its property key
+     */
+    private void add(long nodeId, PropertyBlock block, List<PrimitiveIntObjectMap<List<Target>>> matches) {
+        Object value = null;
+        for (PrimitiveIntObjectMap<List<Target>> byKey : matches) {
+            List<Target> targets = byKey.get(block.getKeyIndexId());
+            if (targets == null) continue;
+            if (value == null) value = propertyStore.getValue(block);
+            for (Target target : targets) {
+                if (target.failure == null) target.add(nodeId, value);
+            }
+        }
+    }
+
+    /**
+     * An index of the scan, which stops taking entries after the first one it rejects.
+     */
+    private static final class Target {
+        final MemoryIndex index;
+        volatile Exception failure;
+
+        Target(MemoryIndex index) {
+            this.index = index;
+        }
+
+        void add(long nodeId, Object value) {
+            try {
+                index.add(nodeId, value);
+            } catch (IOException | KernelException | IndexEntryConflictException | RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Carries a checked exception out of the parallel scan.
+     */
+    private static final class ScanFailed extends RuntimeException {
+        ScanFailed(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed bitmap of node-ids in the style of Roaring bitmaps. Ids are split into chunks by their upper 48 bits,
+ * each chunk stores the lower 16 bits either as a sorted char[] while sparse or as a 64k bit bitmap when dense.
+ *
+ * Copies share the chunk containers until either side updates a chunk, which then copies just that container.
+ */
+final class BitmapPostings extends Postings {
+    private static final int ARRAY_CONTAINER_MAX = 4096;
+    private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+    /**
+     * bytes per chunk for its key, container reference, cardinality and array header
+     */
+    private static final int CHUNK_OVERHEAD = 32;
+
+    private long[] highs = new long[4];
+    private Object[] containers = new Object[4];
+    private int[] cardinalities = new int[4];
+    /**
+     * false for containers that are shared with copies and must be copied before updates
+     */
+    private boolean[] owned = new boolean[4];
+    private int chunks;
+    private int size;
+
+    static BitmapPostings of(PrimitiveLongIterator sortedIds) {
+        BitmapPostings result = new BitmapPostings();
+        while (sortedIds.hasNext()) {
+            result.add(sortedIds.next());
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the sorted ids would take less memory in a bitmap than in an array with bytesPerId
+     */
+    static boolean isMoreCompact(PrimitiveLongIterator sortedIds, int size, int bytesPerId) {
+        long chunks = 0, lastHigh = -1;
+        while (sortedIds.hasNext()) {
+            long high = sortedIds.next() >>> 16;
+            if (high != lastHigh) {
+                chunks++;
+                lastHigh = high;
+            }
+        }
+        return chunks * CHUNK_OVERHEAD + size * 2L < (long) size * bytesPerId;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        int chunk = Arrays.binarySearch(highs, 0, chunks, id >>> 16);
+        if (chunk < 0) return false;
+        char low = (char) id;
+        Object container = containers[chunk];
+        if (container instanceof char[]) {
+            return Arrays.binarySearch((char[]) container, 0, cardinalities[chunk], low) >= 0;
+        }
+        return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    @Override
+    long next(long from) {
+        if (from < 0) from = 0;
+        int chunk = Arrays.binarySearch(highs, 0, chunks, from >>> 16);
+        int pos = chunk < 0 ? 0 : (char) from;
+        if (chunk < 0) chunk = -chunk - 1;
+        for (; chunk < chunks; chunk++, pos = 0) {
+            Object container = containers[chunk];
+            if (container instanceof char[]) {
+                int idx = Arrays.binarySearch((char[]) container, 0, cardinalities[chunk], (char) pos);
+                if (idx < 0) idx = -idx - 1;
+                if (idx < cardinalities[chunk]) return highs[chunk] << 16 | ((char[]) container)[idx];
+            } else {
+                long[] bits = (long[]) container;
+                int word = pos >>> 6;
+                long w = bits[word] & (-1L << pos);
+                while (w == 0 && ++word < bits.length) w = bits[word];
+                if (w != 0) return highs[chunk] << 16 | (word << 6) + Long.numberOfTrailingZeros(w);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * finds the chunk of from once, then copies the ids chunk by chunk like the iterator
+     */
+    @Override
+    int read(long from, long[] buffer) {
+        if (from < 0) from = 0;
+        int chunk = Arrays.binarySearch(highs, 0, chunks, from >>> 16);
+        int pos = 0;
+        if (chunk < 0) {
+            chunk = -chunk - 1;
+        } else if (containers[chunk] instanceof char[]) {
+            pos = Arrays.binarySearch((char[]) containers[chunk], 0, cardinalities[chunk], (char) from);
+            if (pos < 0) pos = -pos - 1;
+        } else {
+            pos = (char) from;
+        }
+        int count = 0;
+        for (; chunk < chunks && count < buffer.length; chunk++, pos = 0) {
+            long high = highs[chunk] << 16;
+            Object container = containers[chunk];
+            if (container instanceof char[]) {
+                char[] values = (char[]) container;
+                int end = Math.min(cardinalities[chunk], pos + buffer.length - count);
+                for (int i = pos; i < end; i++) {
+                    buffer[count++] = high | values[i];
+                }
+            } else {
+                long[] bits = (long[]) container;
+                int word = pos >>> 6;
+                long w = word < bits.length ? bits[word] & (-1L << pos) : 0;
+                while (count < buffer.length) {
+                    if (w == 0) {
+                        if (++word == bits.length) break;
+                        w = bits[word];
+                        continue;
+                    }
+                    buffer[count++] = high | (word << 6) + Long.numberOfTrailingZeros(w);
+                    w &= w - 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    Postings copy() {
+        BitmapPostings copy = new BitmapPostings();
+        copy.highs = Arrays.copyOf(highs, chunks);
+        copy.cardinalities = Arrays.copyOf(cardinalities, chunks);
+        copy.containers = Arrays.copyOf(containers, chunks);
+        copy.owned = new boolean[chunks];
+        Arrays.fill(owned, false);
+        copy.chunks = chunks;
+        copy.size = size;
+        return copy;
+    }
+
+    @Override
+    Postings add(long id) {
+        long high = id >>> 16;
+        char low = (char) id;
+        int chunk = Arrays.binarySearch(highs, 0, chunks, high);
+        if (chunk < 0) {
+            chunk = -chunk - 1;
+            insertChunk(chunk, high);
+        }
+        Object container = ownContainer(chunk);
+        if (container instanceof char[]) {
+            char[] values = (char[]) container;
+            int cardinality = cardinalities[chunk];
+            int idx = Arrays.binarySearch(values, 0, cardinality, low);
+            if (idx >= 0) return this;
+            if (cardinality == ARRAY_CONTAINER_MAX) {
+                containers[chunk] = toBitmap(values, cardinality);
+                return add(id);
+            }
+            idx = -idx - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(grow(cardinality), ARRAY_CONTAINER_MAX));
+                containers[chunk] = values;
+            }
+            System.arraycopy(values, idx, values, idx + 1, cardinality - idx);
+            values[idx] = low;
+        } else {
+            long[] bits = (long[]) container;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) != 0) return this;
+            bits[low >>> 6] |= mask;
+        }
+        cardinalities[chunk]++;
+        size++;
+        return this;
+    }
+
+    @Override
+    Postings remove(long id) {
+        if (!contains(id)) return this;
+        int chunk = Arrays.binarySearch(highs, 0, chunks, id >>> 16);
+        char low = (char) id;
+        Object container = ownContainer(chunk);
+        int cardinality = cardinalities[chunk];
+        if (container instanceof char[]) {
+            char[] values = (char[]) container;
+            int idx = Arrays.binarySearch(values, 0, cardinality, low);
+            System.arraycopy(values, idx + 1, values, idx, cardinality - idx - 1);
+        } else {
+            long[] bits = (long[]) container;
+            bits[low >>> 6] &= ~(1L << low);
+            if (cardinality - 1 < ARRAY_CONTAINER_MAX / 2) containers[chunk] = toArray(bits, cardinality - 1);
+        }
+        size--;
+        if (--cardinalities[chunk] == 0) removeChunk(chunk);
+        if (size == 0) return null;
+        return size <= ARRAY_LIMIT / 4 ? toArrayPostings() : this;
+    }
+
+    private void insertChunk(int idx, long high) {
+        if (chunks == highs.length) {
+            int capacity = grow(chunks);
+            highs = Arrays.copyOf(highs, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            cardinalities = Arrays.copyOf(cardinalities, capacity);
+            owned = Arrays.copyOf(owned, capacity);
+        }
+        int move = chunks - idx;
+        System.arraycopy(highs, idx, highs, idx + 1, move);
+        System.arraycopy(containers, idx, containers, idx + 1, move);
+        System.arraycopy(cardinalities, idx, cardinalities, idx + 1, move);
+        System.arraycopy(owned, idx, owned, idx + 1, move);
+        highs[idx] = high;
+        containers[idx] = new char[4];
+        cardinalities[idx] = 0;
+        owned[idx] = true;
+        chunks++;
+    }
+
+    private void removeChunk(int idx) {
+        int move = chunks - idx - 1;
+        System.arraycopy(highs, idx + 1, highs, idx, move);
+        System.arraycopy(containers, idx + 1, containers, idx, move);
+        System.arraycopy(cardinalities, idx + 1, cardinalities, idx, move);
+        System.arraycopy(owned, idx + 1, owned, idx, move);
+        chunks--;
+        containers[chunks] = null;
+    }
+
+    /**
+     * @return the container of the chunk, copied first if it is shared
+     */
+    private Object ownContainer(int chunk) {
+        if (!owned[chunk]) {
+            Object container = containers[chunk];
+            containers[chunk] = container instanceof char[] ? ((char[]) container).clone() : ((long[]) container).clone();
+            owned[chunk] = true;
+        }
+        return containers[chunk];
+    }
+
+    private static long[] toBitmap(char[] values, int cardinality) {
+        long[] bits = new long[BITMAP_WORDS];
+        for (int i = 0; i < cardinality; i++) {
+            char low = values[i];
+            bits[low >>> 6] |= 1L << low;
+        }
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits, int cardinality) {
+        char[] values = new char[cardinality];
+        int i = 0;
+        for (int word = 0; word < bits.length; word++) {
+            long w = bits[word];
+            while (w != 0) {
+                values[i++] = (char) ((word << 6) + Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+        return values;
+    }
+
+    private Postings toArrayPostings() {
+        PrimitiveLongIterator it = iterator();
+        if (IntArrayPostings.fits(highs[chunks - 1] << 16 | 0xFFFF)) {
+            int[] ids = new int[size];
+            for (int i = 0; i < size; i++) ids[i] = (int) it.next();
+            return new IntArrayPostings(ids, size);
+        }
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) ids[i] = it.next();
+        return new LongArrayPostings(ids, size);
+    }
+
+    @Override
+    public PrimitiveLongIterator iterator() {
+        return new PrimitiveLongIterator() {
+            int chunk = 0;
+            int pos = 0;
+            long next;
+            boolean ready = advance();
+
+            private boolean advance() {
+                while (chunk < chunks) {
+                    Object container = containers[chunk];
+                    if (container instanceof char[]) {
+                        if (pos < cardinalities[chunk]) {
+                            next = highs[chunk] << 16 | ((char[]) container)[pos++];
+                            return true;
+                        }
+                    } else {
+                        long[] bits = (long[]) container;
+                        int word = pos >>> 6;
+                        if (word < bits.length) {
+                            long w = bits[word] & (-1L << pos);
+                            while (w == 0 && ++word < bits.length) w = bits[word];
+                            if (w != 0) {
+                                int low = (word << 6) + Long.numberOfTrailingZeros(w);
+                                next = highs[chunk] << 16 | low;
+                                pos = low + 1;
+                                return true;
+                            }
+                        }
+                    }
+                    chunk++;
+                    pos = 0;
+                }
+                return false;
+            }
+
+            public boolean hasNext() {
+                return ready;
+            }
+
+            public long next() {
+                if (!ready) throw new NoSuchElementException();
+                long result = next;
+                ready = advance();
+                return result;
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.io.fs.StoreChannel;
+import org.neo4j.io.fs.StoreFileChannel;
+import org.neo4j.io.fs.StoreFileChannelUnwrapper;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.neo4j.index.memory.provider.ChannelOutput.*;
+
+/**
+ * Sequential reader of files written by {@link ChannelOutput}. Files on disk are memory mapped in windows of up to 1GB,
+ * so loading them does not copy the bytes through the heap. Other channels, e.g. of ephemeral file systems, are read
+ * into a buffer.
+ */
+final class ChannelInput implements Closeable {
+    private static final int MAP_WINDOW = 1 << 30;
+    private static final int READ_WINDOW = 1 << 16;
+
+    private final StoreChannel channel;
+    private FileChannel file;
+    private final long size;
+    private ByteBuffer buffer;
+    private long bufferStart;
+
+    ChannelInput(StoreChannel channel) throws IOException {
+        this.channel = channel;
+        this.file = channel instanceof StoreFileChannel ? StoreFileChannelUnwrapper.unwrap(channel) : null;
+        this.size = channel.size();
+        window(0);
+    }
+
+    private void window(long position) throws IOException {
+        bufferStart = position;
+        if (file != null) {
+            try {
+                buffer = file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                return;
+            } catch (IOException e) {
+                // channels that can't be mapped are read instead
+                file = null;
+            }
+        }
+        buffer = ByteBuffer.allocate((int) Math.min(READ_WINDOW, size - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        buffer.flip();
+    }
+
+    private ByteBuffer ensure(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return buffer;
+        long position = position();
+        if (size - position < bytes) throw new EOFException("Unexpected end of file at " + position);
+        window(position);
+        return buffer;
+    }
+
+    long position() {
+        return bufferStart + buffer.position();
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean hasRemaining() {
+        return position() < size;
+    }
+
+    byte getByte() throws IOException {
+        return ensure(1).get();
+    }
+
+    int getInt() throws IOException {
+        return ensure(Integer.BYTES).getInt();
+    }
+
+    long getLong() throws IOException {
+        return ensure(Long.BYTES).getLong();
+    }
+
+    long getVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = getByte();
+            value |= (b & 0x7FL) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    byte[] getBytes() throws IOException {
+        byte[] bytes = new byte[(int) getVarLong()];
+        for (int offset = 0; offset < bytes.length; ) {
+            int length = Math.min(bytes.length - offset, Math.max(1, buffer.remaining()));
+            ensure(length).get(bytes, offset, length);
+            offset += length;
+        }
+        return bytes;
+    }
+
+    String getString() throws IOException {
+        char[] chars = new char[(int) getVarLong()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) getVarLong();
+        }
+        return new String(chars);
+    }
+
+    Object getValue() throws IOException {
+        byte type = getByte();
+        switch (type) {
+            case STRING:
+                return getString();
+            case LONG:
+                return getLong();
+            case INT:
+                return getInt();
+            case SHORT:
+                return (short) getInt();
+            case BYTE:
+                return getByte();
+            case DOUBLE:
+                return Double.longBitsToDouble(getLong());
+            case FLOAT:
+                return Float.intBitsToFloat(getInt());
+            case BOOLEAN:
+                return getByte() != 0;
+            case CHAR:
+                return (char) getVarLong();
+            case KEY:
+                return new ValueKey(getBytes());
+            default:
+                throw new IOException("Unknown value type " + type + " at " + (position() - 1));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,123 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.io.fs.StoreChannel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffered sequential writer to a {@link StoreChannel} for the snapshot and journal files.
+ * Non-negative numbers like counts, node-ids and their deltas are written as var-longs of 7 bits per byte.
+ */
+final class ChannelOutput implements Closeable {
+    static final byte STRING = 1, LONG = 2, INT = 3, SHORT = 4, BYTE = 5, DOUBLE = 6, FLOAT = 7, BOOLEAN = 8, CHAR = 9, KEY = 10;
+
+    private final StoreChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private long written;
+
+    ChannelOutput(StoreChannel channel) {
+        this.channel = channel;
+    }
+
+    private ChannelOutput ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+        return this;
+    }
+
+    ChannelOutput putByte(int value) throws IOException {
+        ensure(1).buffer.put((byte) value);
+        return this;
+    }
+
+    ChannelOutput putInt(int value) throws IOException {
+        ensure(Integer.BYTES).buffer.putInt(value);
+        return this;
+    }
+
+    ChannelOutput putLong(long value) throws IOException {
+        ensure(Long.BYTES).buffer.putLong(value);
+        return this;
+    }
+
+    /**
+     * writes the value as unsigned var-long, negative values take 10 bytes
+     */
+    ChannelOutput putVarLong(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+        return this;
+    }
+
+    ChannelOutput putString(String value) throws IOException {
+        putVarLong(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            putVarLong(value.charAt(i));
+        }
+        return this;
+    }
+
+    ChannelOutput putBytes(byte[] value) throws IOException {
+        putVarLong(value.length);
+        for (int offset = 0; offset < value.length; ) {
+            int length = Math.min(value.length - offset, buffer.capacity());
+            ensure(length).buffer.put(value, offset, length);
+            offset += length;
+        }
+        return this;
+    }
+
+    /**
+     * writes a property value with a tag for its type, arrays are written as their {@link ValueKey}
+     */
+    ChannelOutput putValue(Object value) throws IOException {
+        if (value instanceof String) return putByte(STRING).putString((String) value);
+        if (value instanceof Long) return putByte(LONG).putLong((Long) value);
+        if (value instanceof Integer) return putByte(INT).putInt((Integer) value);
+        if (value instanceof Short) return putByte(SHORT).putInt((Short) value);
+        if (value instanceof Byte) return putByte(BYTE).putByte((Byte) value);
+        if (value instanceof Double) return putByte(DOUBLE).putLong(Double.doubleToRawLongBits((Double) value));
+        if (value instanceof Float) return putByte(FLOAT).putInt(Float.floatToRawIntBits((Float) value));
+        if (value instanceof Boolean) return putByte(BOOLEAN).putByte((Boolean) value ? 1 : 0);
+        if (value instanceof Character) return putByte(CHAR).putVarLong((Character) value);
+        if (value instanceof ValueKey) return putByte(KEY).putBytes(((ValueKey) value).bytes());
+        if (value.getClass().isArray()) return putByte(KEY).putBytes(ValueKey.of(value).bytes());
+        throw new IllegalArgumentException("Unsupported property value type " + value.getClass().getName());
+    }
+
+    /**
+     * @return number of bytes written so far, including the buffered ones
+     */
+    long position() {
+        return written + buffer.position();
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        written += buffer.remaining();
+        channel.writeAll(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * flushes and forces the written bytes to disk
+     */
+    void force() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package org.neo4j.index.memory.provider;
 
-import org.neo4j.collection.primitive.PrimitiveLongCollections;
 import org.neo4j.collection.primitive.PrimitiveLongIterator;
 
 import java.util.Iterator;
@@ -11,19 +10,19 @@ import java.util.NoSuchElementException;
  * @since 20.02.16
  */
 public class CombiningPrimitiveLongIterator implements PrimitiveLongIterator {
-    private final Iterator<long[]> it;
+    private final Iterator<Postings> it;
     PrimitiveLongIterator current;
 
-    public CombiningPrimitiveLongIterator(Iterator<long[]> it) {
+    public CombiningPrimitiveLongIterator(Iterator<Postings> it) {
         this.it = it;
         current = nextIt();
     }
 
     private PrimitiveLongIterator nextIt() {
-        long[] data;
+        Postings data;
         while (it.hasNext()) {
             data = it.next();
-            if (data != null && data.length > 0) return PrimitiveLongCollections.iterator(data);
+            if (data != null && data.size() > 0) return data.iterator();
         }
         return null;
     }
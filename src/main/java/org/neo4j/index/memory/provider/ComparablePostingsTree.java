@@ -0,0 +1,50 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.Arrays;
+
+/**
+ * {@link PostingsTree} with keys of a single Comparable type in their natural order, a null key is an open bound.
+ */
+final class ComparablePostingsTree extends PostingsTree {
+
+    @Override
+    Object newKeys() {
+        return new Object[NODE_SIZE + 1];
+    }
+
+    @Override
+    int search(Object keys, int count, long key, Object objectKey) {
+        return Arrays.binarySearch((Object[]) keys, 0, count, objectKey);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    int compare(Object keys, int idx, long key, Object objectKey) {
+        return ((Comparable<Object>) ((Object[]) keys)[idx]).compareTo(objectKey);
+    }
+
+    @Override
+    void setKey(Object keys, int idx, long key, Object objectKey) {
+        ((Object[]) keys)[idx] = objectKey;
+    }
+
+    @Override
+    long longKey(Object keys, int idx) {
+        return 0;
+    }
+
+    @Override
+    Object objectKey(Object keys, int idx) {
+        return ((Object[]) keys)[idx];
+    }
+
+    @Override
+    boolean open(Object objectKey) {
+        return objectKey == null;
+    }
+
+    @Override
+    void clearKeys(Object keys, int from, int to) {
+        Arrays.fill((Object[]) keys, from, to, null);
+    }
+}
@@ -0,0 +1,113 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sub-index for all values of a single non-numeric type, e.g. Strings or Booleans, in their natural order.
+ */
+class ComparableValueIndex extends ValueIndex {
+    ComparableValueIndex(PostingsStore store) {
+        super(store, true);
+    }
+
+    ComparableSnapshot snapshot() {
+        return new ComparableSnapshot(data());
+    }
+
+    @Override
+    Postings get(PostingsStore.Snapshot data, Object value) {
+        return data.get(0, value);
+    }
+
+    @Override
+    boolean get(PostingsStore.Snapshot data, Object value, PostingsCursor cursor) {
+        return data.get(0, value, cursor);
+    }
+
+    @Override
+    Object value(long key, Object objectKey) {
+        return objectKey;
+    }
+
+    @Override
+    List<Postings> getAll(PostingsStore.Snapshot data, List<Object> values) {
+        Object[] keys = values.toArray();
+        Arrays.sort(keys);
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || !keys[i].equals(keys[count - 1])) keys[count++] = keys[i];
+        }
+        return found(data.getAll(null, keys, count));
+    }
+
+    @Override
+    Object storeKey(Object value) {
+        return value;
+    }
+
+    @Override
+    long change(Object storeKey, long[] add, long[] remove) {
+        return store.update(0, storeKey, add, remove);
+    }
+
+    @Override
+    void buffer(Object value, long nodeId) {
+        population().add(0, value, nodeId);
+    }
+
+    @Override
+    boolean insert(Object value, long nodeId) {
+        return store.add(0, value, nodeId);
+    }
+
+    @Override
+    long insertUnique(Object value, long nodeId) {
+        return store.addUnique(0, value, nodeId);
+    }
+
+    @Override
+    boolean delete(Object value, long nodeId) {
+        return store.remove(0, value, nodeId);
+    }
+
+    class ComparableSnapshot extends Snapshot {
+        ComparableSnapshot(PostingsStore.Snapshot data) {
+            super(data);
+        }
+
+        /**
+         * @return postings for the values between lower and upper, null bounds are open,
+         * in key order unless the store is sharded
+         */
+        Iterator<Postings> range(Object lower, boolean includeLower, Object upper, boolean includeUpper) {
+            return data.parallelValues(0, lower, includeLower, 0, upper, includeUpper);
+        }
+
+        /**
+         * @return a cursor over the values between lower and upper in key order, null bounds are open
+         */
+        PostingsStore.Cursor cursor(Object lower, boolean includeLower, Object upper, boolean includeUpper, boolean descending) {
+            return descending ? data.descendingCursor(0, lower, includeLower, 0, upper, includeUpper)
+                    : data.cursor(0, lower, includeLower, 0, upper, includeUpper);
+        }
+
+        /**
+         * @return postings for the Strings containing the given one, found through the trigrams if the store keeps
+         * them, otherwise by checking every String
+         */
+        Iterator<Postings> containing(String part) {
+            if (data instanceof NgramPostingsStore.NgramSnapshot) return ((NgramPostingsStore.NgramSnapshot) data).containing(part);
+            return PostingsStore.values(data.unorderedCursor(), value -> ((String) value).contains(part));
+        }
+
+        /**
+         * @return postings for the Strings ending with the given one, see {@link #containing(String)}
+         */
+        Iterator<Postings> endingWith(String suffix) {
+            if (data instanceof NgramPostingsStore.NgramSnapshot) return ((NgramPostingsStore.NgramSnapshot) data).endingWith(suffix);
+            return PostingsStore.values(data.unorderedCursor(), value -> ((String) value).endsWith(suffix));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.neo4j.index.memory.provider;
+
+/**
+ * Floating point numbers with a fraction (or out of long range), keyed by their bits
+ * rearranged so that the signed long order matches the numeric order.
+ */
+class DoubleValueIndex extends NumberValueIndex {
+
+    DoubleValueIndex(PostingsStore store) {
+        super(store);
+    }
+
+    @Override
+    long key(Number value) {
+        return sortableBits(value.doubleValue());
+    }
+
+    @Override
+    Object value(long key, Object objectKey) {
+        return Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+    }
+
+    @Override
+    long[] keyRange(Number lower, Number upper) {
+        long from = lower == null ? Long.MIN_VALUE : sortableBits(lower.doubleValue());
+        long to = upper == null ? sortableBits(Double.POSITIVE_INFINITY) : sortableBits(upper.doubleValue());
+        return from > to ? null : new long[]{from, to};
+    }
+
+    static long sortableBits(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,67 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Postings of several cursors, read in parallel on the fork/join pool in rounds of up to {@link #BATCH} postings
+ * per cursor. The next round is read while the current one is consumed, so memory stays bounded by two rounds.
+ * Postings come in the order of the rounds, within a round in the order of the cursors.
+ */
+final class FanOutIterator implements Iterator<Postings> {
+    static final int BATCH = 1024;
+
+    private final List<PostingsStore.Cursor> cursors;
+    private CompletableFuture<List<Postings>> next;
+    private Iterator<Postings> current = Collections.emptyIterator();
+
+    FanOutIterator(List<PostingsStore.Cursor> cursors) {
+        this.cursors = new ArrayList<>(cursors);
+        this.next = CompletableFuture.supplyAsync(this::round);
+    }
+
+    /**
+     * reads a batch from every cursor in parallel, and drops the cursors that are done
+     */
+    private List<Postings> round() {
+        List<List<Postings>> batches = new ArrayList<>(cursors.size());
+        cursors.parallelStream().map(FanOutIterator::batch).forEachOrdered(batches::add);
+        List<Postings> round = new ArrayList<>();
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            if (batches.get(i).size() < BATCH) cursors.remove(i);
+        }
+        for (List<Postings> batch : batches) {
+            round.addAll(batch);
+        }
+        return round;
+    }
+
+    private static List<Postings> batch(PostingsStore.Cursor cursor) {
+        List<Postings> batch = new ArrayList<>(BATCH);
+        while (batch.size() < BATCH && cursor.next()) {
+            batch.add(cursor.postings());
+        }
+        return batch;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (next == null) return false;
+            List<Postings> round = next.join();
+            next = cursors.isEmpty() ? null : CompletableFuture.supplyAsync(this::round);
+            current = round.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Postings next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return current.next();
+    }
+}
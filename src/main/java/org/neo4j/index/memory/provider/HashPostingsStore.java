@@ -0,0 +1,890 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Store that answers point lookups by hashing instead of comparing keys. Keys are kept in a hash trie:
+ * inner nodes with 32 children indexed by 5 bits of the key's hash, and small buckets of up to 16 entries
+ * that are split when they overflow. A lookup follows a few array slots and compares hashes and keys
+ * for equality only, there are no compareTo chains.
+ *
+ * The key order is only built when it is needed: the first range query on a snapshot requests it, then the store
+ * sorts its keys into a {@link PostingsTree} of keys only and maintains it with every added or dropped key.
+ * Until the next snapshot that range query sorts the keys of its own snapshot. Full scans don't need the order.
+ *
+ * Nodes and postings are copied on write with versions like in {@link PostingsTree}, so snapshots are O(1).
+ * Updates and {@link #snapshot()} must not run concurrently, reading a snapshot needs no synchronization.
+ */
+abstract class HashPostingsStore implements PostingsStore {
+    private static final int BITS = 5, FANOUT = 1 << BITS, MASK = FANOUT - 1;
+    private static final int BUCKET_SIZE = 16, MIN_BUCKET = 2;
+    /**
+     * node-id of the entries of the key order
+     */
+    private static final Postings KEY_ONLY = Postings.of(0);
+
+    private Inner root;
+    private int size;
+    private long entries;
+    private long version = 1;
+    /**
+     * keys in order with a dummy node-id, null until the first range query
+     */
+    private PostingsTree order;
+    private volatile boolean orderRequested;
+    private volatile boolean dirty = true;
+    private volatile HashSnapshot snapshot;
+
+    HashPostingsStore() {
+        root = new Inner(version);
+    }
+
+    /**
+     * @return a key array for the given number of keys
+     */
+    abstract Object newKeys(int capacity);
+
+    abstract Object copyKeys(Object keys, int capacity);
+
+    abstract int hash(long key, Object objectKey);
+
+    abstract boolean equals(Object keys, int idx, long key, Object objectKey);
+
+    abstract void setKey(Object keys, int idx, long key, Object objectKey);
+
+    /**
+     * moves the key at from to idx and releases the slot at from
+     */
+    abstract void moveKey(Object keys, int from, int idx);
+
+    abstract long longKey(Object keys, int idx);
+
+    abstract Object objectKey(Object keys, int idx);
+
+    /**
+     * @return an empty tree of the same key type for the key order
+     */
+    abstract PostingsTree newOrder();
+
+    /**
+     * @return true for object keys, false for primitive long keys
+     */
+    abstract boolean objectKeys();
+
+    /**
+     * spreads the bits of a hash code, so that each 5 bit slice of it is well distributed
+     */
+    static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ hash >>> 16;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long entries() {
+        return entries;
+    }
+
+    @Override
+    public void clear() {
+        dirty = true;
+        root = new Inner(version);
+        size = 0;
+        entries = 0;
+        if (order != null) order.clear();
+    }
+
+    @Override
+    public void load(PostingsStore.Cursor entries) {
+        clear();
+        if (order == null) {
+            while (entries.next()) {
+                put(entries.key(), entries.objectKey(), entries.postings());
+            }
+            return;
+        }
+        order.load(new PostingsStore.Cursor() {
+            public boolean next() {
+                if (!entries.next()) return false;
+                put(entries.key(), entries.objectKey(), entries.postings());
+                return true;
+            }
+
+            public long key() {
+                return entries.key();
+            }
+
+            public Object objectKey() {
+                return entries.objectKey();
+            }
+
+            public Postings postings() {
+                return KEY_ONLY;
+            }
+        });
+    }
+
+    /**
+     * stores the postings of a new key without maintaining the order
+     */
+    private void put(long key, Object objectKey, Postings postings) {
+        int hash = hash(key, objectKey);
+        Bucket bucket = bucket(hash, key, objectKey, true);
+        int idx = bucket.append(hash, key, objectKey);
+        setPostings(bucket, idx, postings);
+        size++;
+        entries += postings.size();
+    }
+
+    @Override
+    public HashSnapshot snapshot() {
+        if (dirty) {
+            if (orderRequested && order == null) buildOrder();
+            snapshot = new HashSnapshot(root, order == null ? null : order.snapshot(), size, entries);
+            version++;
+            dirty = false;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return true once a range query requested the key order, which the store then maintains
+     */
+    boolean ordered() {
+        return orderRequested;
+    }
+
+    @Override
+    public HashSnapshot published() {
+        return dirty ? null : snapshot;
+    }
+
+    private void buildOrder() {
+        PostingsTree order = newOrder();
+        order.load(sortedKeys(root));
+        this.order = order;
+    }
+
+    /**
+     * @return the keys below the node in ascending order, with a dummy node-id
+     */
+    private PostingsStore.Cursor sortedKeys(Inner root) {
+        PopulationBuffer keys = new PopulationBuffer(objectKeys());
+        collectKeys(root, keys);
+        return keys.sorted();
+    }
+
+    private void collectKeys(Node node, PopulationBuffer keys) {
+        if (node instanceof Inner) {
+            for (Node child : ((Inner) node).children) {
+                if (child != null) collectKeys(child, keys);
+            }
+            return;
+        }
+        Bucket bucket = (Bucket) node;
+        for (int i = 0; i < bucket.count; i++) {
+            keys.add(longKey(bucket.keys, i), objectKey(bucket.keys, i), 0);
+        }
+    }
+
+    /**
+     * makes the path to the bucket of the key writable, splitting full buckets on the way if the key is to be added
+     *
+     * @return the bucket or null if there is none and create is false
+     */
+    private Bucket bucket(int hash, long key, Object objectKey, boolean create) {
+        Inner inner = root = writable(root);
+        for (int shift = 0; ; shift += BITS) {
+            int idx = (hash >>> shift) & MASK;
+            Node child = inner.children[idx];
+            if (child == null) {
+                if (!create) return null;
+                Bucket bucket = new Bucket(newKeys(MIN_BUCKET), version);
+                inner.children[idx] = bucket;
+                return bucket;
+            }
+            child = inner.children[idx] = writable(child);
+            if (child instanceof Bucket) {
+                Bucket bucket = (Bucket) child;
+                if (!create || bucket.count < BUCKET_SIZE || shift + BITS >= Integer.SIZE || bucket.indexOf(hash, key, objectKey) >= 0) {
+                    return bucket;
+                }
+                child = inner.children[idx] = split(bucket, shift + BITS);
+            }
+            inner = (Inner) child;
+        }
+    }
+
+    /**
+     * @return an inner node with the entries of the bucket distributed by the hash bits at shift
+     */
+    private Inner split(Bucket bucket, int shift) {
+        Inner inner = new Inner(version);
+        for (int i = 0; i < bucket.count; i++) {
+            int hash = bucket.hashes[i];
+            int idx = (hash >>> shift) & MASK;
+            Bucket target = (Bucket) inner.children[idx];
+            if (target == null) target = (Bucket) (inner.children[idx] = new Bucket(newKeys(MIN_BUCKET), version));
+            int pos = target.append(hash, longKey(bucket.keys, i), objectKey(bucket.keys, i));
+            target.ids[pos] = bucket.ids[i];
+            target.postings[pos] = bucket.postings[i];
+        }
+        return inner;
+    }
+
+    private Inner writable(Inner node) {
+        return node.version == version ? node : (Inner) node.copy(version);
+    }
+
+    private Node writable(Node node) {
+        return node.version == version ? node : node.copy(version);
+    }
+
+    private Postings writable(Postings postings) {
+        if (postings.version == version) return postings;
+        Postings copy = postings.copy();
+        copy.version = version;
+        return copy;
+    }
+
+    /**
+     * stores non-empty postings of the current version, inlining single node-ids
+     */
+    private void setPostings(Bucket bucket, int idx, Postings postings) {
+        if (postings instanceof SinglePosting) {
+            bucket.ids[idx] = ((SinglePosting) postings).id;
+            bucket.postings[idx] = null;
+        } else {
+            postings.version = version;
+            bucket.postings[idx] = postings;
+        }
+    }
+
+    private void addedKey(long key, Object objectKey) {
+        size++;
+        if (order != null) order.add(key, objectKey, 0);
+    }
+
+    private void droppedKey(Bucket bucket, int idx) {
+        if (order != null) order.remove(longKey(bucket.keys, idx), objectKey(bucket.keys, idx), 0);
+        bucket.removeAt(idx);
+        size--;
+    }
+
+    @Override
+    public boolean add(long key, Object objectKey, long id) {
+        dirty = true;
+        int hash = hash(key, objectKey);
+        Bucket bucket = bucket(hash, key, objectKey, true);
+        int idx = bucket.indexOf(hash, key, objectKey);
+        if (idx < 0) {
+            idx = bucket.append(hash, key, objectKey);
+            bucket.ids[idx] = id;
+            addedKey(key, objectKey);
+            entries++;
+            return true;
+        }
+        Postings postings = bucket.postings[idx];
+        if (postings == null) {
+            if (bucket.ids[idx] == id) return false;
+            postings = Postings.of(bucket.ids[idx], id);
+        } else {
+            if (postings.contains(id)) return false;
+            postings = writable(postings).add(id);
+        }
+        setPostings(bucket, idx, postings);
+        entries++;
+        return true;
+    }
+
+    @Override
+    public Postings get(long key, Object objectKey) {
+        return get(root, key, objectKey);
+    }
+
+    private Postings get(Node root, long key, Object objectKey) {
+        int hash = hash(key, objectKey);
+        Node node = root;
+        for (int shift = 0; node instanceof Inner; shift += BITS) {
+            node = ((Inner) node).children[(hash >>> shift) & MASK];
+        }
+        if (node == null) return null;
+        Bucket bucket = (Bucket) node;
+        int idx = bucket.indexOf(hash, key, objectKey);
+        return idx < 0 ? null : bucket.postings(idx);
+    }
+
+    private boolean get(Node root, long key, Object objectKey, PostingsCursor cursor) {
+        int hash = hash(key, objectKey);
+        Node node = root;
+        for (int shift = 0; node instanceof Inner; shift += BITS) {
+            node = ((Inner) node).children[(hash >>> shift) & MASK];
+        }
+        int idx = node == null ? -1 : ((Bucket) node).indexOf(hash, key, objectKey);
+        if (idx < 0) {
+            cursor.clear();
+            return false;
+        }
+        Bucket bucket = (Bucket) node;
+        if (bucket.postings[idx] == null) cursor.reset(bucket.ids[idx]);
+        else cursor.reset(bucket.postings[idx]);
+        return true;
+    }
+
+    /**
+     * finds or inserts the key with a single probe of the trie
+     */
+    @Override
+    public long addUnique(long key, Object objectKey, long id) {
+        dirty = true;
+        int hash = hash(key, objectKey);
+        Bucket bucket = bucket(hash, key, objectKey, true);
+        int idx = bucket.indexOf(hash, key, objectKey);
+        if (idx >= 0) return PostingsStore.other(bucket.postings(idx), id);
+        idx = bucket.append(hash, key, objectKey);
+        bucket.ids[idx] = id;
+        addedKey(key, objectKey);
+        entries++;
+        return -1;
+    }
+
+    @Override
+    public boolean remove(long key, Object objectKey, long id) {
+        dirty = true;
+        int hash = hash(key, objectKey);
+        Bucket bucket = bucket(hash, key, objectKey, false);
+        int idx = bucket == null ? -1 : bucket.indexOf(hash, key, objectKey);
+        if (idx < 0) return false;
+        Postings postings = bucket.postings[idx];
+        if (postings == null) {
+            if (bucket.ids[idx] != id) return false;
+            droppedKey(bucket, idx);
+        } else {
+            if (!postings.contains(id)) return false;
+            setPostings(bucket, idx, writable(postings).remove(id));
+        }
+        entries--;
+        return true;
+    }
+
+    @Override
+    public long update(long key, Object objectKey, long[] add, long[] remove) {
+        dirty = true;
+        int hash = hash(key, objectKey);
+        Bucket bucket = bucket(hash, key, objectKey, add.length > 0);
+        int idx = bucket == null ? -1 : bucket.indexOf(hash, key, objectKey);
+        if (idx < 0) {
+            if (add.length == 0) return 0;
+            idx = bucket.append(hash, key, objectKey);
+            setPostings(bucket, idx, Postings.of(add));
+            addedKey(key, objectKey);
+            entries += add.length;
+            return add.length;
+        }
+        Postings postings = bucket.postings[idx];
+        postings = postings == null ? Postings.of(bucket.ids[idx]) : writable(postings);
+        int before = postings.size();
+        postings = postings.update(add, remove);
+        long delta;
+        if (postings == null) {
+            droppedKey(bucket, idx);
+            delta = -before;
+        } else {
+            setPostings(bucket, idx, postings);
+            delta = postings.size() - before;
+        }
+        entries += delta;
+        return delta;
+    }
+
+    @Override
+    public void removeAll(PrimitiveLongSet nodeIds) {
+        dirty = true;
+        root = (Inner) deleteAll(root, nodeIds);
+    }
+
+    /**
+     * @return the node without the node-ids, a writable copy if it had to change, null for an empty bucket
+     */
+    private Node deleteAll(Node node, PrimitiveLongSet nodeIds) {
+        if (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            for (int i = 0; i < FANOUT; i++) {
+                Node child = inner.children[i];
+                if (child == null) continue;
+                Node updated = deleteAll(child, nodeIds);
+                if (updated == child) continue;
+                inner = writable(inner);
+                inner.children[i] = updated;
+            }
+            return inner;
+        }
+        Bucket bucket = (Bucket) node;
+        if (!bucket.containsAny(nodeIds)) return bucket;
+        bucket = (Bucket) writable(bucket);
+        for (int i = bucket.count - 1; i >= 0; i--) {
+            Postings postings = bucket.postings[i];
+            if (postings == null) {
+                if (!nodeIds.contains(bucket.ids[i])) continue;
+                droppedKey(bucket, i);
+                entries--;
+                continue;
+            }
+            if (!postings.containsAny(nodeIds)) continue;
+            int before = postings.size();
+            postings = writable(postings).removeAll(nodeIds);
+            if (postings == null) {
+                droppedKey(bucket, i);
+                entries -= before;
+            } else {
+                setPostings(bucket, i, postings);
+                entries -= before - postings.size();
+            }
+        }
+        return bucket.count == 0 ? null : bucket;
+    }
+
+    private abstract static class Node {
+        final long version;
+
+        Node(long version) {
+            this.version = version;
+        }
+
+        abstract Node copy(long version);
+    }
+
+    private static final class Inner extends Node {
+        final Node[] children;
+
+        Inner(long version) {
+            this(version, new Node[FANOUT]);
+        }
+
+        private Inner(long version, Node[] children) {
+            super(version);
+            this.children = children;
+        }
+
+        @Override
+        Node copy(long version) {
+            return new Inner(version, children.clone());
+        }
+    }
+
+    /**
+     * Entries in no particular order, the node-id is stored inline while it is the only one of a key.
+     */
+    private final class Bucket extends Node {
+        int[] hashes;
+        Object keys;
+        long[] ids;
+        Postings[] postings;
+        int count;
+
+        Bucket(Object keys, long version) {
+            super(version);
+            int capacity = MIN_BUCKET;
+            this.hashes = new int[capacity];
+            this.keys = keys;
+            this.ids = new long[capacity];
+            this.postings = new Postings[capacity];
+        }
+
+        private Bucket(Bucket bucket, long version) {
+            super(version);
+            this.hashes = bucket.hashes.clone();
+            this.keys = copyKeys(bucket.keys, bucket.hashes.length);
+            this.ids = bucket.ids.clone();
+            this.postings = bucket.postings.clone();
+            this.count = bucket.count;
+        }
+
+        @Override
+        Node copy(long version) {
+            return new Bucket(this, version);
+        }
+
+        int indexOf(int hash, long key, Object objectKey) {
+            for (int i = 0; i < count; i++) {
+                if (hashes[i] == hash && HashPostingsStore.this.equals(keys, i, key, objectKey)) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * @return the index of the new entry, its node-ids are not set yet
+         */
+        int append(int hash, long key, Object objectKey) {
+            if (count == hashes.length) {
+                int capacity = count * 2;
+                hashes = Arrays.copyOf(hashes, capacity);
+                keys = copyKeys(keys, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                postings = Arrays.copyOf(postings, capacity);
+            }
+            hashes[count] = hash;
+            setKey(keys, count, key, objectKey);
+            postings[count] = null;
+            return count++;
+        }
+
+        /**
+         * replaces the entry by the last one
+         */
+        void removeAt(int idx) {
+            int last = --count;
+            hashes[idx] = hashes[last];
+            moveKey(keys, last, idx);
+            ids[idx] = ids[last];
+            postings[idx] = postings[last];
+            postings[last] = null;
+        }
+
+        Postings postings(int idx) {
+            Postings postings = this.postings[idx];
+            return postings != null ? postings : Postings.of(ids[idx]);
+        }
+
+        boolean containsAny(PrimitiveLongSet nodeIds) {
+            for (int i = 0; i < count; i++) {
+                Postings postings = this.postings[i];
+                if (postings == null ? nodeIds.contains(ids[i]) : postings.containsAny(nodeIds)) return true;
+            }
+            return false;
+        }
+    }
+
+    final class HashSnapshot implements PostingsStore.Snapshot {
+        private final Inner root;
+        private final PostingsTree.TreeSnapshot order;
+        private final int size;
+        private final long entries;
+        /**
+         * key order sorted by the range queries of this snapshot, if it has none of the store
+         */
+        private volatile PostingsTree.TreeSnapshot sorted;
+
+        private HashSnapshot(Inner root, PostingsTree.TreeSnapshot order, int size, long entries) {
+            this.root = root;
+            this.order = order;
+            this.size = size;
+            this.entries = entries;
+        }
+
+        @Override
+        public Postings get(long key, Object objectKey) {
+            return HashPostingsStore.this.get(root, key, objectKey);
+        }
+
+        @Override
+        public boolean get(long key, Object objectKey, PostingsCursor cursor) {
+            return HashPostingsStore.this.get(root, key, objectKey, cursor);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long entries() {
+            return entries;
+        }
+
+        /**
+         * @return postings of all keys in hash order
+         */
+        @Override
+        public Iterator<Postings> values() {
+            return PostingsStore.values(new HashCursor(root));
+        }
+
+        /**
+         * walks the trie in hash order, without sorting the keys
+         */
+        @Override
+        public PostingsStore.Cursor unorderedCursor() {
+            return new HashCursor(root);
+        }
+
+        /**
+         * splits the trie into groups of subtrees in hash order, going one level deeper if the root has fewer
+         * children than partitions are wanted. Hashing spreads the keys evenly over the subtrees.
+         */
+        @Override
+        public List<Iterator<Postings>> partitions(int count) {
+            List<Node> level = new ArrayList<>(FANOUT);
+            for (Node child : root.children) {
+                if (child != null) level.add(child);
+            }
+            if (level.size() < count) {
+                List<Node> children = new ArrayList<>(level.size() * FANOUT);
+                for (Node node : level) {
+                    if (node instanceof Inner) {
+                        for (Node child : ((Inner) node).children) {
+                            if (child != null) children.add(child);
+                        }
+                    } else {
+                        children.add(node);
+                    }
+                }
+                level = children;
+            }
+            int partitions = Math.max(1, Math.min(count, level.size()));
+            List<Iterator<Postings>> result = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                List<Node> group = level.subList(i * level.size() / partitions, (i + 1) * level.size() / partitions);
+                Inner inner = new Inner(root.version, group.toArray(new Node[FANOUT]));
+                result.add(PostingsStore.values(new HashCursor(inner)));
+            }
+            return result;
+        }
+
+        @Override
+        public Iterator<Postings> values(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return PostingsStore.values(cursor(from, objectFrom, includeFrom, to, objectTo, includeTo));
+        }
+
+        /**
+         * the store builds the order with its next snapshot, which the next writer takes
+         */
+        private void requestOrder() {
+            if (order == null && !orderRequested) orderRequested = true;
+        }
+
+        /**
+         * requests the key order from the store, so that later snapshots don't have to sort
+         */
+        @Override
+        public PostingsStore.Cursor cursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            requestOrder();
+            return withPostings(order().cursor(from, objectFrom, includeFrom, to, objectTo, includeTo));
+        }
+
+        /**
+         * requests the key order from the store like {@link #cursor(long, Object, boolean, long, Object, boolean)}
+         */
+        @Override
+        public PostingsStore.Cursor descendingCursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            requestOrder();
+            return withPostings(order().descendingCursor(from, objectFrom, includeFrom, to, objectTo, includeTo));
+        }
+
+        /**
+         * @return cursor over the keys of the key order, with their postings looked up in the trie
+         */
+        private PostingsStore.Cursor withPostings(PostingsStore.Cursor keys) {
+            return new PostingsStore.Cursor() {
+                public boolean next() {
+                    return keys.next();
+                }
+
+                public long key() {
+                    return keys.key();
+                }
+
+                public Object objectKey() {
+                    return keys.objectKey();
+                }
+
+                public Postings postings() {
+                    return get(keys.key(), keys.objectKey());
+                }
+            };
+        }
+
+        /**
+         * @return true if the snapshot has the key order, the one of the store or one it sorted itself
+         */
+        boolean sorted() {
+            return order != null || sorted != null;
+        }
+
+        private PostingsTree.TreeSnapshot order() {
+            if (order != null) return order;
+            PostingsTree.TreeSnapshot sorted = this.sorted;
+            if (sorted == null) {
+                PostingsTree tree = newOrder();
+                tree.load(sortedKeys(root));
+                this.sorted = sorted = tree.snapshot();
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * Walk over all keys of a snapshot in hash order, depth first.
+     */
+    private final class HashCursor implements PostingsStore.Cursor {
+        private final Node[] path = new Node[Integer.SIZE / BITS + 1];
+        private final int[] positions = new int[path.length];
+        private int depth;
+        private Bucket bucket;
+        private int pos;
+
+        HashCursor(Inner root) {
+            path[0] = root;
+            positions[0] = -1;
+        }
+
+        @Override
+        public boolean next() {
+            if (bucket != null && ++pos < bucket.count) return true;
+            bucket = null;
+            while (depth >= 0) {
+                if (++positions[depth] >= FANOUT) {
+                    depth--;
+                    continue;
+                }
+                Node child = ((Inner) path[depth]).children[positions[depth]];
+                if (child instanceof Inner) {
+                    path[++depth] = child;
+                    positions[depth] = -1;
+                } else if (child != null && ((Bucket) child).count > 0) {
+                    bucket = (Bucket) child;
+                    pos = 0;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long key() {
+            return longKey(bucket.keys, pos);
+        }
+
+        @Override
+        public Object objectKey() {
+            return HashPostingsStore.this.objectKey(bucket.keys, pos);
+        }
+
+        @Override
+        public Postings postings() {
+            return bucket.postings(pos);
+        }
+    }
+
+    /**
+     * Hash store for primitive long keys.
+     */
+    static final class Longs extends HashPostingsStore {
+        @Override
+        Object newKeys(int capacity) {
+            return new long[capacity];
+        }
+
+        @Override
+        Object copyKeys(Object keys, int capacity) {
+            return Arrays.copyOf((long[]) keys, capacity);
+        }
+
+        @Override
+        int hash(long key, Object objectKey) {
+            return spread(Long.hashCode(key));
+        }
+
+        @Override
+        boolean equals(Object keys, int idx, long key, Object objectKey) {
+            return ((long[]) keys)[idx] == key;
+        }
+
+        @Override
+        void setKey(Object keys, int idx, long key, Object objectKey) {
+            ((long[]) keys)[idx] = key;
+        }
+
+        @Override
+        void moveKey(Object keys, int from, int idx) {
+            ((long[]) keys)[idx] = ((long[]) keys)[from];
+        }
+
+        @Override
+        long longKey(Object keys, int idx) {
+            return ((long[]) keys)[idx];
+        }
+
+        @Override
+        Object objectKey(Object keys, int idx) {
+            return null;
+        }
+
+        @Override
+        PostingsTree newOrder() {
+            return new LongPostingsTree();
+        }
+
+        @Override
+        boolean objectKeys() {
+            return false;
+        }
+    }
+
+    /**
+     * Hash store for Comparable keys, equal keys have to compare as equal as well.
+     */
+    static final class Comparables extends HashPostingsStore {
+        @Override
+        Object newKeys(int capacity) {
+            return new Object[capacity];
+        }
+
+        @Override
+        Object copyKeys(Object keys, int capacity) {
+            return Arrays.copyOf((Object[]) keys, capacity);
+        }
+
+        @Override
+        int hash(long key, Object objectKey) {
+            return spread(objectKey.hashCode());
+        }
+
+        @Override
+        boolean equals(Object keys, int idx, long key, Object objectKey) {
+            return objectKey.equals(((Object[]) keys)[idx]);
+        }
+
+        @Override
+        void setKey(Object keys, int idx, long key, Object objectKey) {
+            ((Object[]) keys)[idx] = objectKey;
+        }
+
+        @Override
+        void moveKey(Object keys, int from, int idx) {
+            Object[] objects = (Object[]) keys;
+            objects[idx] = objects[from];
+            objects[from] = null;
+        }
+
+        @Override
+        long longKey(Object keys, int idx) {
+            return 0;
+        }
+
+        @Override
+        Object objectKey(Object keys, int idx) {
+            return ((Object[]) keys)[idx];
+        }
+
+        @Override
+        PostingsTree newOrder() {
+            return new ComparablePostingsTree();
+        }
+
+        @Override
+        boolean objectKeys() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.io.fs.FileSystemAbstraction;
+import org.neo4j.io.fs.StoreChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Files of a persisted index in its own directory: snapshots named "snapshot.N" and journals named "journal.N".
+ * A snapshot contains all updates before journal N, so on startup the newest complete snapshot is loaded and
+ * the journals from its number on are replayed in order. Files are never renamed or overwritten, older ones are
+ * deleted once a newer snapshot is complete.
+ */
+public final class IndexFiles {
+    private static final String SNAPSHOT = "snapshot.", JOURNAL = "journal.";
+
+    private final FileSystemAbstraction fs;
+    private final File directory;
+
+    public IndexFiles(FileSystemAbstraction fs, File directory) {
+        this.fs = fs;
+        this.directory = directory;
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    private File snapshot(long number) {
+        return new File(directory, SNAPSHOT + number);
+    }
+
+    private File journal(long number) {
+        return new File(directory, JOURNAL + number);
+    }
+
+    /**
+     * @return numbers of the files with the prefix in ascending order
+     */
+    private long[] numbers(String prefix) {
+        File[] files = fs.listFiles(directory, (dir, name) -> name.startsWith(prefix));
+        if (files == null) return new long[0];
+        long[] numbers = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            try {
+                numbers[count] = Long.parseLong(file.getName().substring(prefix.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * @return the number of the newest complete snapshot, or -1 if there is none
+     */
+    long lastSnapshot() throws IOException {
+        long[] snapshots = numbers(SNAPSHOT);
+        for (int i = snapshots.length - 1; i >= 0; i--) {
+            try (StoreChannel channel = fs.open(snapshot(snapshots[i]), "r")) {
+                if (SnapshotFormat.journal(channel) == snapshots[i]) return snapshots[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of the newest journal, or -1 if there is none
+     */
+    long lastJournal() {
+        long[] journals = numbers(JOURNAL);
+        return journals.length == 0 ? -1 : journals[journals.length - 1];
+    }
+
+    /**
+     * loads the snapshot into the index data and replays the journals written after it
+     */
+    void recover(long snapshot, ValueIndexes data, Set<Class> types, MemoryIndex index) throws IOException {
+        try (ChannelInput in = new ChannelInput(fs.open(snapshot(snapshot), "r"))) {
+            SnapshotFormat.read(in, data, types);
+        }
+        for (long journal : numbers(JOURNAL)) {
+            if (journal < snapshot) continue;
+            try (ChannelInput in = new ChannelInput(fs.open(journal(journal), "r"))) {
+                Journal.replay(in, index);
+            }
+        }
+    }
+
+    long snapshotSize(long number) {
+        return fs.getFileSize(snapshot(number));
+    }
+
+    /**
+     * @return the size of the journals from the given number on
+     */
+    long journalSize(long from) {
+        long size = 0;
+        for (long journal : numbers(JOURNAL)) {
+            if (journal >= from) size += fs.getFileSize(journal(journal));
+        }
+        return size;
+    }
+
+    StoreChannel createJournal(long number) throws IOException {
+        return create(journal(number));
+    }
+
+    /**
+     * @return a channel to the new, empty file, leftovers of a crash are deleted first
+     */
+    private StoreChannel create(File file) throws IOException {
+        fs.mkdirs(directory);
+        fs.deleteFile(file);
+        return fs.create(file);
+    }
+
+    /**
+     * writes and forces a snapshot with the given number, then deletes the files it replaces
+     *
+     * @return the size of the snapshot file
+     */
+    long writeSnapshot(long number, ValueIndexes.Snapshot snapshot, Set<Class> types) throws IOException {
+        long size;
+        try (ChannelOutput out = new ChannelOutput(create(snapshot(number)))) {
+            SnapshotFormat.write(out, snapshot, types, number);
+            out.force();
+            size = out.position();
+        }
+        deleteBefore(number);
+        return size;
+    }
+
+    /**
+     * deletes snapshots and journals that are replaced by the snapshot with the given number
+     */
+    void deleteBefore(long number) {
+        for (long snapshot : numbers(SNAPSHOT)) {
+            if (snapshot < number) fs.deleteFile(snapshot(snapshot));
+        }
+        for (long journal : numbers(JOURNAL)) {
+            if (journal < number) fs.deleteFile(journal(journal));
+        }
+    }
+
+    /**
+     * @return the snapshot and journal files that make up the index
+     */
+    List<File> files() throws IOException {
+        List<File> files = new ArrayList<>();
+        long snapshot = lastSnapshot();
+        if (snapshot < 0) return files;
+        files.add(snapshot(snapshot));
+        for (long journal : numbers(JOURNAL)) {
+            if (journal >= snapshot) files.add(journal(journal));
+        }
+        return files;
+    }
+
+    public void delete() throws IOException {
+        if (fs.fileExists(directory)) fs.deleteRecursively(directory);
+    }
+}
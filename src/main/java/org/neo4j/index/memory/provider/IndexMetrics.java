@@ -0,0 +1,175 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of a memory index, cheap enough to be always on: counters are striped {@link LongAdder}s,
+ * and only one in {@link #SAMPLE} calls reads the clock. Latencies go into histograms of power of two buckets,
+ * so percentiles are reported as the upper bound of their bucket.
+ *
+ * The size of the index is read from a snapshot of its sub-indexes when asked for.
+ */
+public final class IndexMetrics implements MemoryIndexMXBean {
+    static final int SAMPLE = 64;
+    static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final MemoryIndex index;
+    final LongAdder seeks = new LongAdder();
+    final LongAdder rangeSeeks = new LongAdder();
+    final LongAdder scans = new LongAdder();
+    final LongAdder updates = new LongAdder();
+    final LongAdder removals = new LongAdder();
+    final Latency reads = new Latency();
+    final Latency writes = new Latency();
+
+    IndexMetrics(MemoryIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the start time if this call is timed, otherwise {@link #NOT_SAMPLED}
+     */
+    static long start() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE) == 0 ? System.nanoTime() : NOT_SAMPLED;
+    }
+
+    @Override
+    public String getState() {
+        return index.getState().name();
+    }
+
+    @Override
+    public String getStorage() {
+        return index.storage().name();
+    }
+
+    @Override
+    public long getKeys() {
+        return index.data().keys();
+    }
+
+    @Override
+    public long getEntries() {
+        return index.data().entries();
+    }
+
+    @Override
+    public long getHeapBytes() {
+        return index.data().heapBytes();
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return index.data().offHeapBytes();
+    }
+
+    @Override
+    public long getSeeks() {
+        return seeks.sum();
+    }
+
+    @Override
+    public long getRangeSeeks() {
+        return rangeSeeks.sum();
+    }
+
+    @Override
+    public long getScans() {
+        return scans.sum();
+    }
+
+    @Override
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    @Override
+    public long getRemovals() {
+        return removals.sum();
+    }
+
+    @Override
+    public double getReadLatencyMean() {
+        return reads.mean();
+    }
+
+    @Override
+    public long getReadLatency50() {
+        return reads.percentile(0.5);
+    }
+
+    @Override
+    public long getReadLatency99() {
+        return reads.percentile(0.99);
+    }
+
+    @Override
+    public double getUpdateLatencyMean() {
+        return writes.mean();
+    }
+
+    @Override
+    public long getUpdateLatency50() {
+        return writes.percentile(0.5);
+    }
+
+    @Override
+    public long getUpdateLatency99() {
+        return writes.percentile(0.99);
+    }
+
+    /**
+     * Histogram of sampled durations, bucket i counts durations below 2^i nanoseconds.
+     */
+    static final class Latency {
+        private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+        private final LongAdder total = new LongAdder();
+
+        Latency() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * records the duration since start, if the call was sampled
+         */
+        void record(long start) {
+            if (start == NOT_SAMPLED) return;
+            long nanos = Math.max(0, System.nanoTime() - start);
+            buckets[Math.min(Long.SIZE - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos))].increment();
+            total.add(nanos);
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        double mean() {
+            long count = count();
+            return count == 0 ? 0 : (double) total.sum() / count;
+        }
+
+        /**
+         * @return the upper bound of the bucket that holds the percentile, 0 if nothing was recorded
+         */
+        long percentile(double percentile) {
+            long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i] = buckets[i].sum();
+            }
+            long rank = (long) Math.ceil(count * percentile);
+            for (int i = 0; i < counts.length; i++) {
+                rank -= counts[i];
+                if (rank <= 0 && counts[i] > 0) return i == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+            return 0;
+        }
+    }
+}
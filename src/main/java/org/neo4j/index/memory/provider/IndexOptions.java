@@ -0,0 +1,77 @@
+package org.neo4j.index.memory.provider;
+
+/**
+ * Settings of a {@link MemoryIndex}, each with the default of an index that only exists in memory on the heap.
+ * The setters return the options, so they read like a builder: {@code new IndexOptions().storage(IndexStorage.segments).shards(4)}.
+ * An index copies the options when it is created, changing them later doesn't affect it.
+ */
+public final class IndexOptions {
+    IndexStorage storage = IndexStorage.heap;
+    IndexFiles files;
+    boolean nodeValues = true;
+    MemoryIndexMonitor monitor = MemoryIndexMonitor.NONE;
+    MemoryBudget budget = MemoryBudget.UNLIMITED;
+    int shards = 1;
+    boolean ngrams;
+
+    /**
+     * @param storage where the keys and node-ids are kept, on the heap, in segments or in segments off the heap
+     */
+    public IndexOptions storage(IndexStorage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * @param files where the index keeps its snapshots and journal, null for an index that only exists in memory
+     */
+    public IndexOptions files(IndexFiles files) {
+        this.files = files;
+        return this;
+    }
+
+    /**
+     * @param nodeValues true to keep a map from node-ids to their values, which makes removing nodes proportional
+     *                   to their number instead of the size of the index, at the cost of memory per indexed node
+     */
+    public IndexOptions nodeValues(boolean nodeValues) {
+        this.nodeValues = nodeValues;
+        return this;
+    }
+
+    /**
+     * @param monitor notified of population, recovery and snapshots of the index
+     */
+    public IndexOptions monitor(MemoryIndexMonitor monitor) {
+        this.monitor = monitor;
+        return this;
+    }
+
+    /**
+     * @param budget bytes the index may use, population fails and transactions are rejected when they are exceeded
+     */
+    public IndexOptions budget(MemoryBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    /**
+     * @param shards number of key ranges each value type is split into once it is large enough, with writers
+     *               of different shards running concurrently and range seeks reading the shards in parallel,
+     *               1 for none, then writers of the same value type are serialized
+     */
+    public IndexOptions shards(int shards) {
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * @param ngrams true to keep a trigram index of the Strings, which speeds up {@link MemoryIndexReader#containsString}
+     *               and {@link MemoryIndexReader#endsWith} from a check of every String to those sharing the rarest trigram,
+     *               at the cost of an entry per character of each String, and serializes writers of Strings
+     */
+    public IndexOptions ngrams(boolean ngrams) {
+        this.ngrams = ngrams;
+        return this;
+    }
+}
@@ -0,0 +1,20 @@
+package org.neo4j.index.memory.provider;
+
+/**
+ * Where a {@link MemoryIndex} keeps its keys and node-ids.
+ */
+public enum IndexStorage {
+    /**
+     * copy-on-write hash tries on the java heap, with the key order built on the first range query
+     */
+    heap,
+    /**
+     * numbers and Strings in flat sorted segments on the heap with small trees for recent updates,
+     * which are merged in the background, other types in hash tries
+     */
+    segments,
+    /**
+     * like segments, but the segments are kept outside of the java heap
+     */
+    off_heap
+}
@@ -0,0 +1,118 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted, growable int[] of node-ids, used as long as all ids are below Integer.MAX_VALUE.
+ */
+final class IntArrayPostings extends Postings {
+    private int[] ids;
+    private int size;
+
+    IntArrayPostings(int[] ids, int size) {
+        this.ids = ids;
+        this.size = size;
+    }
+
+    static boolean fits(long id) {
+        return id >= 0 && id <= Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return fits(id) && Arrays.binarySearch(ids, 0, size, (int) id) >= 0;
+    }
+
+    @Override
+    Postings copy() {
+        return new IntArrayPostings(Arrays.copyOf(ids, size), size);
+    }
+
+    @Override
+    Postings add(long id) {
+        if (!fits(id)) return toLongs().add(id);
+        int idx = Arrays.binarySearch(ids, 0, size, (int) id);
+        if (idx >= 0) return this;
+        idx = -idx - 1;
+        if (size == ids.length) {
+            if (size >= ARRAY_LIMIT && BitmapPostings.isMoreCompact(iterator(), size, Integer.BYTES)) {
+                return BitmapPostings.of(iterator()).add(id);
+            }
+            ids = Arrays.copyOf(ids, grow(size));
+        }
+        System.arraycopy(ids, idx, ids, idx + 1, size - idx);
+        ids[idx] = (int) id;
+        size++;
+        return this;
+    }
+
+    @Override
+    Postings remove(long id) {
+        if (!fits(id)) return this;
+        int idx = Arrays.binarySearch(ids, 0, size, (int) id);
+        if (idx < 0) return this;
+        if (size == 2) return of(ids[1 - idx]);
+        System.arraycopy(ids, idx + 1, ids, idx, size - idx - 1);
+        size--;
+        if (size < ids.length / 4) ids = Arrays.copyOf(ids, size * 2);
+        return this;
+    }
+
+    private Postings toLongs() {
+        long[] longs = new long[grow(size)];
+        for (int i = 0; i < size; i++) {
+            longs[i] = ids[i];
+        }
+        return new LongArrayPostings(longs, size);
+    }
+
+    /**
+     * @return the index of the first id that is at least from
+     */
+    private int indexOf(long from) {
+        if (from <= 0) return 0;
+        if (from > Integer.MAX_VALUE) return size;
+        int idx = Arrays.binarySearch(ids, 0, size, (int) from);
+        return idx < 0 ? -idx - 1 : idx;
+    }
+
+    @Override
+    long next(long from) {
+        int idx = indexOf(from);
+        return idx < size ? ids[idx] : -1;
+    }
+
+    @Override
+    int read(long from, long[] buffer) {
+        int idx = indexOf(from);
+        int count = Math.min(buffer.length, size - idx);
+        for (int i = 0; i < count; i++) {
+            buffer[i] = ids[idx + i];
+        }
+        return count;
+    }
+
+    @Override
+    public PrimitiveLongIterator iterator() {
+        return new PrimitiveLongIterator() {
+            int pos = 0;
+
+            public boolean hasNext() {
+                return pos < size;
+            }
+
+            public long next() {
+                if (pos >= size) throw new NoSuchElementException();
+                return ids[pos++];
+            }
+        };
+    }
+}
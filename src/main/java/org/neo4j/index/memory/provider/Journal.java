@@ -0,0 +1,117 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.io.fs.StoreChannel;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Append-only log of the updates of an online index since its last snapshot, replayed on top of it on startup.
+ * Appends are buffered and only forced to disk at checkpoints, updates that were lost in a crash after that are
+ * applied again by the recovery of the database. Replaying is idempotent, each record sets the presence of
+ * node-ids for a value, so records that are contained in the snapshot as well do no harm.
+ *
+ * Records are a type byte followed by the node-id and the tagged value, or by the node-ids for a removal
+ * of nodes. Replay stops at a zero byte or an incomplete record at the end of the file.
+ */
+final class Journal {
+    private static final byte END = 0, ADDED = 1, REMOVED = 2, REMOVED_NODES = 3;
+
+    private ChannelOutput output;
+
+    /**
+     * @return true while updates are written to a journal file
+     */
+    synchronized boolean isOpen() {
+        return output != null;
+    }
+
+    /**
+     * continues with a new journal file, the current one is forced and closed
+     */
+    synchronized void rotate(StoreChannel channel) throws IOException {
+        close();
+        output = new ChannelOutput(channel);
+    }
+
+    synchronized void added(long nodeId, Object value) throws IOException {
+        if (output != null) output.putByte(ADDED).putVarLong(nodeId).putValue(value);
+    }
+
+    synchronized void removed(long nodeId, Object value) throws IOException {
+        if (output != null) output.putByte(REMOVED).putVarLong(nodeId).putValue(value);
+    }
+
+    synchronized void removed(PrimitiveLongSet nodeIds) throws IOException {
+        if (output == null) return;
+        output.putByte(REMOVED_NODES).putVarLong(nodeIds.size());
+        for (PrimitiveLongIterator it = nodeIds.iterator(); it.hasNext(); ) {
+            output.putVarLong(it.next());
+        }
+    }
+
+    /**
+     * @return bytes written to the current journal file
+     */
+    synchronized long size() {
+        return output == null ? 0 : output.position();
+    }
+
+    synchronized void flush() throws IOException {
+        if (output != null) output.flush();
+    }
+
+    synchronized void force() throws IOException {
+        if (output != null) output.force();
+    }
+
+    synchronized void close() throws IOException {
+        if (output == null) return;
+        try {
+            output.force();
+            output.close();
+        } finally {
+            output = null;
+        }
+    }
+
+    /**
+     * applies the complete records of the journal file to the index
+     */
+    static void replay(ChannelInput in, MemoryIndex index) throws IOException {
+        try {
+            while (in.hasRemaining()) {
+                byte type = in.getByte();
+                switch (type) {
+                    case END:
+                        return;
+                    case ADDED: {
+                        long nodeId = in.getVarLong();
+                        index.added(nodeId, in.getValue());
+                        break;
+                    }
+                    case REMOVED: {
+                        long nodeId = in.getVarLong();
+                        index.removed(nodeId, in.getValue());
+                        break;
+                    }
+                    case REMOVED_NODES: {
+                        PrimitiveLongSet nodeIds = Primitive.longSet();
+                        for (long i = in.getVarLong(); i > 0; i--) {
+                            nodeIds.add(in.getVarLong());
+                        }
+                        index.removed(nodeIds);
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown journal record type " + type + " at " + (in.position() - 1));
+                }
+            }
+        } catch (EOFException e) {
+            // incomplete last record of a crash, its update is applied again by recovery
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted, growable long[] of node-ids.
+ */
+final class LongArrayPostings extends Postings {
+    private long[] ids;
+    private int size;
+
+    LongArrayPostings(long[] ids, int size) {
+        this.ids = ids;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    @Override
+    Postings copy() {
+        return new LongArrayPostings(Arrays.copyOf(ids, size), size);
+    }
+
+    @Override
+    Postings add(long id) {
+        int idx = Arrays.binarySearch(ids, 0, size, id);
+        if (idx >= 0) return this;
+        idx = -idx - 1;
+        if (size == ids.length) {
+            if (size >= ARRAY_LIMIT && BitmapPostings.isMoreCompact(iterator(), size, Long.BYTES)) {
+                return BitmapPostings.of(iterator()).add(id);
+            }
+            ids = Arrays.copyOf(ids, grow(size));
+        }
+        System.arraycopy(ids, idx, ids, idx + 1, size - idx);
+        ids[idx] = id;
+        size++;
+        return this;
+    }
+
+    @Override
+    Postings remove(long id) {
+        int idx = Arrays.binarySearch(ids, 0, size, id);
+        if (idx < 0) return this;
+        if (size == 2) return of(ids[1 - idx]);
+        System.arraycopy(ids, idx + 1, ids, idx, size - idx - 1);
+        size--;
+        if (size < ids.length / 4) ids = Arrays.copyOf(ids, size * 2);
+        return this;
+    }
+
+    @Override
+    long next(long from) {
+        int idx = Arrays.binarySearch(ids, 0, size, from);
+        if (idx < 0) idx = -idx - 1;
+        return idx < size ? ids[idx] : -1;
+    }
+
+    @Override
+    int read(long from, long[] buffer) {
+        int idx = Arrays.binarySearch(ids, 0, size, from);
+        if (idx < 0) idx = -idx - 1;
+        int count = Math.min(buffer.length, size - idx);
+        System.arraycopy(ids, idx, buffer, 0, count);
+        return count;
+    }
+
+    @Override
+    public PrimitiveLongIterator iterator() {
+        return new PrimitiveLongIterator() {
+            int pos = 0;
+
+            public boolean hasNext() {
+                return pos < size;
+            }
+
+            public long next() {
+                if (pos >= size) throw new NoSuchElementException();
+                return ids[pos++];
+            }
+        };
+    }
+}
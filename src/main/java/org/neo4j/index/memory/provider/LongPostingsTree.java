@@ -0,0 +1,45 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.Arrays;
+
+/**
+ * {@link PostingsTree} with primitive long keys, they are never boxed and lookups are
+ * binary searches over long[] instead of compareTo chains.
+ */
+final class LongPostingsTree extends PostingsTree {
+
+    @Override
+    Object newKeys() {
+        return new long[NODE_SIZE + 1];
+    }
+
+    @Override
+    int search(Object keys, int count, long key, Object objectKey) {
+        return Arrays.binarySearch((long[]) keys, 0, count, key);
+    }
+
+    @Override
+    int compare(Object keys, int idx, long key, Object objectKey) {
+        return Long.compare(((long[]) keys)[idx], key);
+    }
+
+    @Override
+    void setKey(Object keys, int idx, long key, Object objectKey) {
+        ((long[]) keys)[idx] = key;
+    }
+
+    @Override
+    long longKey(Object keys, int idx) {
+        return ((long[]) keys)[idx];
+    }
+
+    @Override
+    Object objectKey(Object keys, int idx) {
+        return null;
+    }
+
+    @Override
+    boolean open(Object objectKey) {
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+package org.neo4j.index.memory.provider;
+
+/**
+ * Integral numbers, including floating point values without fraction that fit into a long.
+ */
+class LongValueIndex extends NumberValueIndex {
+
+    LongValueIndex(PostingsStore store) {
+        super(store);
+    }
+
+    @Override
+    long key(Number value) {
+        return value instanceof Double || value instanceof Float ? (long) value.doubleValue() : value.longValue();
+    }
+
+    @Override
+    Object value(long key, Object objectKey) {
+        return key;
+    }
+
+    @Override
+    long[] keyRange(Number lower, Number upper) {
+        long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+        if (lower != null) {
+            if (isFloatingPoint(lower)) {
+                double value = Math.ceil(lower.doubleValue());
+                if (Double.isNaN(value) || value >= 0x1p63) return null;
+                if (value > -0x1p63) from = (long) value;
+            } else {
+                from = lower.longValue();
+            }
+        }
+        if (upper != null) {
+            if (isFloatingPoint(upper)) {
+                double value = Math.floor(upper.doubleValue());
+                if (Double.isNaN(value) || value < -0x1p63) return null;
+                if (value < 0x1p63) to = (long) value;
+            } else {
+                to = upper.longValue();
+            }
+        }
+        return from > to ? null : new long[]{from, to};
+    }
+
+    static boolean isFloatingPoint(Number value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    /**
+     * @return true if the value belongs into this index and not into the {@link DoubleValueIndex}
+     */
+    static boolean accepts(Number value) {
+        if (!isFloatingPoint(value)) return true;
+        double d = value.doubleValue();
+        return d >= -0x1p63 && d < 0x1p63 && d == (long) d;
+    }
+}
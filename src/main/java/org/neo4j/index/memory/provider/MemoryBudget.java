@@ -0,0 +1,89 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upper bound for the estimated bytes of an index, which also counts against a budget shared by all indexes
+ * of a provider if that one is limited.
+ *
+ * Indexes charge a pessimistic estimate for every entry they add, and reserve bytes for the additions of
+ * a transaction while it is validated. When a reservation does not fit, the index measures itself from a snapshot,
+ * which corrects the estimate downwards, and only fails if the reservation still does not fit.
+ */
+public final class MemoryBudget {
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(0);
+
+    private final long maxBytes;
+    private final MemoryBudget shared;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * @param maxBytes upper bound, 0 for no limit
+     */
+    public MemoryBudget(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    private MemoryBudget(long maxBytes, MemoryBudget shared) {
+        this.maxBytes = maxBytes;
+        this.shared = shared;
+    }
+
+    /**
+     * @param maxBytes upper bound of the index, 0 for no limit other than this budget
+     * @return budget of an index that also counts against this budget
+     */
+    public MemoryBudget forIndex(long maxBytes) {
+        return new MemoryBudget(maxBytes, limited() ? this : null);
+    }
+
+    boolean limited() {
+        return maxBytes > 0 || shared != null;
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    long used() {
+        return used.get();
+    }
+
+    void charge(long bytes) {
+        used.addAndGet(bytes);
+        if (shared != null) shared.charge(bytes);
+    }
+
+    /**
+     * sets the usage to the measured size of the index
+     */
+    void measured(long bytes) {
+        charge(bytes - used.get());
+    }
+
+    /**
+     * reserves the bytes if they fit into this and the shared budget
+     *
+     * @throws MemoryBudgetExceededException if they don't, then nothing is reserved
+     */
+    void reserve(long bytes) throws MemoryBudgetExceededException {
+        long total = reserved.addAndGet(bytes) + used.get();
+        if (maxBytes > 0 && total > maxBytes) {
+            reserved.addAndGet(-bytes);
+            throw new MemoryBudgetExceededException(bytes, total - bytes, maxBytes, false);
+        }
+        if (shared == null) return;
+        try {
+            shared.reserve(bytes);
+        } catch (MemoryBudgetExceededException e) {
+            reserved.addAndGet(-bytes);
+            throw new MemoryBudgetExceededException(bytes, e.used(), e.maxBytes(), true);
+        }
+    }
+
+    void release(long bytes) {
+        reserved.addAndGet(-bytes);
+        if (shared != null) shared.release(bytes);
+    }
+}
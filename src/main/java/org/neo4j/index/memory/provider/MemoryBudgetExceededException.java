@@ -0,0 +1,34 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.kernel.api.exceptions.index.IndexCapacityExceededException;
+
+/**
+ * Thrown when adding entries would exceed the {@link MemoryBudget} of an index or of all memory indexes.
+ * Reported in bytes, as the message of the kernel exception talks about a number of entries.
+ */
+public class MemoryBudgetExceededException extends IndexCapacityExceededException {
+    private final long requested, used, maxBytes;
+    private final boolean shared;
+
+    MemoryBudgetExceededException(long requested, long used, long maxBytes, boolean shared) {
+        super(requested, maxBytes, used);
+        this.requested = requested;
+        this.used = used;
+        this.maxBytes = maxBytes;
+        this.shared = shared;
+    }
+
+    long used() {
+        return used;
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Unable to reserve %d bytes in %s. It is limited to %d bytes and uses about %d bytes.",
+                requested, shared ? "the memory indexes" : "the memory index", maxBytes, used);
+    }
+}
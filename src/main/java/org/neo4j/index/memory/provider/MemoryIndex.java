@@ -1,89 +1,521 @@
 package org.neo4j.index.memory.provider;
 
+import org.neo4j.collection.primitive.Primitive;
 import org.neo4j.collection.primitive.PrimitiveLongIterator;
 import org.neo4j.collection.primitive.PrimitiveLongSet;
 import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.kernel.api.direct.BoundedIterable;
+import org.neo4j.kernel.api.exceptions.EntityNotFoundException;
+import org.neo4j.kernel.api.exceptions.PropertyNotFoundException;
 import org.neo4j.kernel.api.exceptions.index.IndexCapacityExceededException;
 import org.neo4j.kernel.api.index.*;
 import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
-import org.neo4j.kernel.impl.api.index.sampling.NonUniqueIndexSampler;
-import org.neo4j.kernel.impl.api.index.sampling.UniqueIndexSampler;
+import org.neo4j.kernel.impl.api.index.UpdateMode;
 import org.neo4j.register.Register;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MemoryIndex implements IndexAccessor, IndexPopulator, IndexUpdater {
+    /**
+     * journal size from which a checkpoint writes a new snapshot instead of only forcing the journal
+     */
+    private static final long MIN_CHECKPOINT_JOURNAL = 1 << 20;
+    /**
+     * number of updates after which a batched updater applies what it collected so far
+     */
+    private static final int MAX_BATCH = 1 << 20;
+    /**
+     * bytes charged against the budget for an added entry, as if its value was new, see {@link PostingsStore.Snapshot#heapBytes()}
+     */
+    private static final long ENTRY_BYTES = 56;
+    /**
+     * bytes of an entry of the {@link NodeValues} map
+     */
+    private static final long NODE_VALUE_BYTES = 32;
+
+    private final IndexStorage storage;
+    private final ValueIndexes indexData;
+    private final Set<Class> valueTypesInIndex = Collections.newSetFromMap(new ConcurrentHashMap<Class, Boolean>());
+
+    private volatile InternalIndexState state = InternalIndexState.POPULATING;
+    private volatile String failure;
+
+    private final IndexFiles files;
+    /**
+     * whether the index keeps a {@link NodeValues} map, which is null while it is rebuilt or when turned off
+     */
+    private final boolean keepNodeValues;
+    private volatile NodeValues nodeValues;
+    private final Journal journal = new Journal();
+    private final AtomicInteger backups = new AtomicInteger();
+    private long journalNumber = -1;
+    private long snapshotSize, replayedJournals;
+    /**
+     * updates of the populating updater, NodePropertyUpdates and removed node-id sets, applied after the bulk load
+     */
+    private final List<Object> populationUpdates = new ArrayList<>();
+    private final IndexMetrics metrics = new IndexMetrics(this);
+    private final MemoryIndexMonitor monitor;
+    private final MemoryBudget budget;
+    /**
+     * whether a value may only be indexed for one node, for indexes backing uniqueness constraints
+     */
+    private volatile boolean unique;
+    /**
+     * key of the indexed property, to report the values of conflicting nodes, -1 if unknown
+     */
+    private volatile int propertyKeyId = -1;
+    /**
+     * whether the buffered population is loaded, updates are then applied directly and checked for uniqueness
+     */
+    private volatile boolean loaded;
+    private long populationStart = System.nanoTime();
+
+    private final IndexUpdater updater = new IndexUpdater() {
+        public Reservation validate(Iterable<NodePropertyUpdate> updates) throws IOException, IndexCapacityExceededException {
+            return MemoryIndex.this.validate(updates);
+        }
+
+        public void process(NodePropertyUpdate update) throws IOException, IndexEntryConflictException, IndexCapacityExceededException {
+            MemoryIndex.this.process(update);
+        }
+
+        public void remove(PrimitiveLongSet nodeIds) throws IOException {
+            MemoryIndex.this.remove(nodeIds);
+        }
+
+        public void close() {
+            // closing an updater must not close the index
+        }
+    };
+
+    private final IndexUpdater populatingUpdater = new IndexUpdater() {
+        public Reservation validate(Iterable<NodePropertyUpdate> updates) throws IOException, IndexCapacityExceededException {
+            return MemoryIndex.this.validate(updates);
+        }
+
+        public void process(NodePropertyUpdate update) throws IOException, IndexEntryConflictException, IndexCapacityExceededException {
+            synchronized (populationUpdates) {
+                if (!loaded) {
+                    populationUpdates.add(update);
+                    return;
+                }
+            }
+            MemoryIndex.this.process(update);
+        }
+
+        public void remove(PrimitiveLongSet nodeIds) throws IOException {
+            PrimitiveLongSet copy = Primitive.longSet(nodeIds.size());
+            copy.addAll(nodeIds.iterator());
+            synchronized (populationUpdates) {
+                if (!loaded) {
+                    populationUpdates.add(copy);
+                    return;
+                }
+            }
+            MemoryIndex.this.remove(nodeIds);
+        }
+
+        public void close() {
+        }
+    };
+
+    /**
+     * Updater for BATCHED mode, which the database uses for recovery and large transactions. Collects the updates
+     * until it is closed and applies the net change of each key once, see {@link UpdateBatch}.
+     */
+    private final class BatchedUpdater implements IndexUpdater, UpdateBatch.Listener {
+        private final UpdateBatch batch = new UpdateBatch();
+
+        /**
+         * batched updates come from recovery of committed transactions, they are charged but never rejected,
+         * nor checked for uniqueness
+         */
+        public Reservation validate(Iterable<NodePropertyUpdate> updates) {
+            return Reservation.EMPTY;
+        }
+
+        public void process(NodePropertyUpdate update) throws IOException {
+            metrics.updates.increment();
+            switch (update.getUpdateMode()) {
+                case ADDED:
+                    added(update.getNodeId(), update.getValueAfter());
+                    break;
+                case CHANGED:
+                    removed(update.getNodeId(), update.getValueBefore());
+                    added(update.getNodeId(), update.getValueAfter());
+                    break;
+                case REMOVED:
+                    removed(update.getNodeId(), update.getValueBefore());
+                    break;
+                default:
+                    throw new UnsupportedOperationException();
+            }
+            if (batch.size() >= MAX_BATCH) batch.apply(this);
+        }
+
+        private void added(long nodeId, Object propertyValue) {
+            Object value = ValueKey.indexed(propertyValue);
+            batch.added(indexData.getOrCreate(value), value, nodeId);
+        }
+
+        private void removed(long nodeId, Object propertyValue) {
+            Object value = ValueKey.indexed(propertyValue);
+            ValueIndex index = indexData.get(value);
+            if (index != null) batch.removed(index, value, nodeId);
+        }
+
+        /**
+         * applies the collected updates first, as the removal affects all of them
+         */
+        public void remove(PrimitiveLongSet nodeIds) throws IOException {
+            batch.apply(this);
+            MemoryIndex.this.remove(nodeIds);
+        }
+
+        public void close() throws IOException {
+            batch.apply(this);
+        }
+
+        @Override
+        public void applied(Object value, long[] added, long[] removed, long delta) throws IOException {
+            if (added.length > 0) valueTypesInIndex.add(type(value));
+            charge(added.length);
+            NodeValues nodeValues = MemoryIndex.this.nodeValues;
+            for (long nodeId : removed) {
+                if (nodeValues != null) nodeValues.removed(nodeId, value);
+                journal.removed(nodeId, value);
+            }
+            for (long nodeId : added) {
+                if (nodeValues != null) nodeValues.added(nodeId, value);
+                journal.added(nodeId, value);
+            }
+        }
+    }
+
+    public MemoryIndex() {
+        this(new IndexOptions());
+    }
 
-    private final SortedMap<Object, long[]> indexData;
-    private final Set<Class> valueTypesInIndex = new HashSet<>();
+    public MemoryIndex(IndexOptions options) {
+        this.storage = options.storage;
+        this.indexData = new ValueIndexes(options.storage, options.shards, options.ngrams);
+        this.files = options.files;
+        this.keepNodeValues = options.nodeValues;
+        this.monitor = options.monitor;
+        this.budget = options.budget;
+    }
 
-    private InternalIndexState state = InternalIndexState.POPULATING;
-    private NonUniqueIndexSampler nonUniqueIndexSampler = new NonUniqueIndexSampler(1000);
-    private UniqueIndexSampler uniqueIndexSampler = new UniqueIndexSampler();
-    private long maxCount = 0;
-    private String failure;
+    /**
+     * Makes the index back a uniqueness constraint: adding a value that is indexed for another node then fails
+     * with an {@link IndexEntryConflictException}, checked with a single lookup under the lock of the sub-index,
+     * so of concurrent adds of a value only one succeeds.
+     */
+    public void unique() {
+        this.unique = true;
+    }
+
+    /**
+     * Makes the index back a uniqueness constraint, see {@link #unique()}.
+     *
+     * @param propertyKeyId key of the indexed property, to report the property values of nodes that conflict
+     *                      in the population instead of the values they are indexed by
+     */
+    public void unique(int propertyKeyId) {
+        this.propertyKeyId = propertyKeyId;
+        unique();
+    }
 
-    public MemoryIndex(final SortedMap<Object, long[]> map){
-        this.indexData = map;
+    public boolean isUnique() {
+        return unique;
     }
 
     @Override
     public void create() throws IOException {
+        populationStart = System.nanoTime();
         clear();
+        if (files != null) {
+            journal.close();
+            files.delete();
+        }
+    }
+
+    /**
+     * Loads the newest snapshot of the index and replays the journals written after it,
+     * so the index is online again without being populated.
+     *
+     * @return false if there is no complete snapshot, then the index has to be populated
+     */
+    public synchronized boolean recover() throws IOException {
+        if (files == null) return false;
+        long snapshot = files.lastSnapshot();
+        if (snapshot < 0) return false;
+        long start = System.nanoTime();
+        files.recover(snapshot, indexData, valueTypesInIndex, this);
+        indexNodeValues();
+        measure();
+        loaded = true;
+        snapshotSize = files.snapshotSize(snapshot);
+        replayedJournals = files.journalSize(snapshot);
+        journalNumber = Math.max(snapshot, files.lastJournal()) + 1;
+        journal.rotate(files.createJournal(journalNumber));
+        this.state = InternalIndexState.ONLINE;
+        ValueIndexes.Snapshot data = indexData.snapshot();
+        monitor.recovered(data.keys(), data.entries(), System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * starts a new journal and writes a snapshot as of that moment, which replaces the older files.
+     * Updates applied concurrently may end up in both, replaying them again does no harm.
+     */
+    private synchronized void checkpoint() throws IOException {
+        journalNumber++;
+        journal.rotate(files.createJournal(journalNumber));
+        long start = System.nanoTime();
+        snapshotSize = files.writeSnapshot(journalNumber, indexData.snapshot(), valueTypesInIndex);
+        replayedJournals = 0;
+        monitor.snapshotWritten(snapshotSize, System.nanoTime() - start);
+    }
+
+    /**
+     * rebuilds the map of node values from the index contents, if it is kept
+     */
+    private void indexNodeValues() {
+        if (!keepNodeValues) return;
+        NodeValues nodeValues = new NodeValues();
+        for (ValueIndex.Snapshot snapshot : indexData.snapshot().all()) {
+            PostingsStore.Cursor cursor = snapshot.unorderedCursor();
+            while (cursor.next()) {
+                Object value = snapshot.value(cursor);
+                for (PrimitiveLongIterator it = cursor.postings().iterator(); it.hasNext(); ) {
+                    nodeValues.added(it.next(), value);
+                }
+            }
+        }
+        this.nodeValues = nodeValues;
     }
 
     private void clear() {
         this.indexData.clear();
-        maxCount = 0;
+        this.nodeValues = null;
+        synchronized (populationUpdates) {
+            populationUpdates.clear();
+            loaded = false;
+        }
+        budget.measured(0);
+    }
+
+    /**
+     * @return estimated bytes of the sub-indexes and the node values map
+     */
+    long footprint() {
+        ValueIndexes.Snapshot data = indexData.snapshot();
+        NodeValues nodeValues = this.nodeValues;
+        return data.heapBytes() + data.offHeapBytes() + (nodeValues == null ? 0 : nodeValues.size() * NODE_VALUE_BYTES);
+    }
+
+    /**
+     * replaces the estimate charged per entry with the measured footprint
+     */
+    private void measure() {
+        if (budget.limited()) budget.measured(footprint());
+    }
+
+    private void charge(long entries) {
+        if (budget.limited()) budget.charge(entries * entryBytes());
+    }
+
+    private long entryBytes() {
+        return keepNodeValues ? ENTRY_BYTES + NODE_VALUE_BYTES : ENTRY_BYTES;
+    }
+
+    /**
+     * reserves the bytes of the entries, measuring the index once if the estimate does not leave room for them
+     */
+    private Reservation reserve(long entries) throws MemoryBudgetExceededException {
+        if (entries == 0 || !budget.limited()) return Reservation.EMPTY;
+        final long bytes = entries * entryBytes();
+        try {
+            budget.reserve(bytes);
+        } catch (MemoryBudgetExceededException e) {
+            if (state == InternalIndexState.POPULATING) throw e;
+            measure();
+            budget.reserve(bytes);
+        }
+        return () -> budget.release(bytes);
     }
 
     public InternalIndexState getState() {
         return this.state;
     }
 
+    /**
+     * @return counters and latencies of this index, also registered as MBean by the index provider
+     */
+    public IndexMetrics metrics() {
+        return metrics;
+    }
+
+    IndexStorage storage() {
+        return storage;
+    }
+
+    ValueIndexes.Snapshot data() {
+        return indexData.snapshot();
+    }
+
+    /**
+     * While populating, entries are only buffered and loaded in one pass when the population completes.
+     */
     @Override
     public void add(final long nodeId, final Object propertyValue) throws IndexEntryConflictException, IOException, IndexCapacityExceededException {
-        long[] nodes = this.indexData.get(propertyValue);
-        if (nodes==null || nodes.length==0) {
-            sample(propertyValue);
-            this.indexData.put(propertyValue, new long[]{nodeId});
-            maxCount++;
+        if (state != InternalIndexState.POPULATING) {
+            put(nodeId, propertyValue);
             return;
         }
-        final int idx=this.indexOf(nodes,nodeId);
-        if (idx!=-1) return;
-        sample(propertyValue);
-        nodes = Arrays.copyOfRange(nodes, 0, nodes.length + 1);
-        nodes[nodes.length-1]=nodeId;
-        maxCount++;
-        this.indexData.put(propertyValue, nodes);
+        final Object value = ValueKey.indexed(propertyValue);
+        reserve(1).release();
+        charge(1);
+        valueTypesInIndex.add(type(value));
+        this.indexData.getOrCreate(value).buffer(value, nodeId);
     }
 
-    private void sample(Object propertyValue) {
-        nonUniqueIndexSampler.include(propertyValue.toString());
-        valueTypesInIndex.add(propertyValue.getClass());
-        uniqueIndexSampler.increment(1);
+    /**
+     * @return the type of an indexed value, the array type for values keyed by a {@link ValueKey}
+     */
+    private static Class<?> type(Object value) {
+        return value instanceof ValueKey ? ((ValueKey) value).type() : value.getClass();
     }
 
+    void added(final long nodeId, final Object propertyValue) {
+        final Object value = ValueKey.indexed(propertyValue);
+        if (this.indexData.getOrCreate(value).add(value, nodeId)) {
+            charge(1);
+            valueTypesInIndex.add(type(value));
+            NodeValues nodeValues = this.nodeValues;
+            if (nodeValues != null) nodeValues.added(nodeId, value);
+        }
+    }
+
+    /**
+     * adds the entry, failing if the index is unique and the value is indexed for another node
+     */
+    private void put(long nodeId, Object propertyValue) throws IndexEntryConflictException {
+        if (!unique || !loaded) {
+            added(nodeId, propertyValue);
+            return;
+        }
+        final Object value = ValueKey.indexed(propertyValue);
+        long other = this.indexData.getOrCreate(value).addUnique(value, nodeId);
+        if (other != -1) throw new PreexistingIndexEntryConflictException(propertyValue, other, nodeId);
+        charge(1);
+        valueTypesInIndex.add(type(value));
+        NodeValues nodeValues = this.nodeValues;
+        if (nodeValues != null) nodeValues.added(nodeId, value);
+    }
+
+    /**
+     * Loads the population of a unique index and fails if a value is indexed for several nodes.
+     * The scan may have read nodes before and after concurrent updates, but those are applied in their order
+     * as part of the load, so the loaded index holds the current values and duplicates are real conflicts.
+     * Later updates of the population are checked as they are applied.
+     *
+     * @param propertyAccessor reads the property value of a conflicting node for the exception, null to report
+     *                         the value it is indexed by, e.g. 1 for 1.0
+     */
     @Override
-    public void verifyDeferredConstraints(PropertyAccessor propertyAccessor)  {
-//        System.out.println("verifyDeferredConstraints" +propertyAccessor);
+    public void verifyDeferredConstraints(PropertyAccessor propertyAccessor) throws IndexEntryConflictException, IOException {
+        if (!unique) return;
+        loadPopulation();
+        for (ValueIndex.Snapshot snapshot : indexData.snapshot().all()) {
+            PostingsStore.Cursor cursor = snapshot.unorderedCursor();
+            while (cursor.next()) {
+                Postings postings = cursor.postings();
+                if (postings.size() < 2) continue;
+                PrimitiveLongIterator it = postings.iterator();
+                long existing = it.next();
+                Object value = propertyValue(propertyAccessor, existing, snapshot.value(cursor));
+                throw new PreexistingIndexEntryConflictException(value, existing, it.next());
+            }
+        }
+    }
+
+    /**
+     * @return the value of the indexed property of the node, or the given indexed value if it can't be read
+     */
+    private Object propertyValue(PropertyAccessor propertyAccessor, long nodeId, Object indexed) {
+        if (propertyAccessor == null || propertyKeyId == -1) return indexed;
+        try {
+            return propertyAccessor.getProperty(nodeId, propertyKeyId).value();
+        } catch (EntityNotFoundException | PropertyNotFoundException e) {
+            return indexed;
+        }
     }
 
     @Override
     public IndexUpdater newPopulatingUpdater(PropertyAccessor propertyAccessor) throws IOException {
-        return this;
+        return populatingUpdater;
+    }
+
+    /**
+     * Builds the sub-indexes from the buffered entries, then applies the updates that were made concurrently
+     * to the population in their order. Each of them sets the presence of a node-id for a value,
+     * so the last one wins regardless of whether the scan saw the node before or after it.
+     */
+    private void completePopulation() throws IOException {
+        loadPopulation();
+        indexNodeValues();
+        measure();
+    }
+
+    /**
+     * loads the buffered entries and applies the updates collected meanwhile, until none are left,
+     * then the populating updater applies further updates directly
+     */
+    private void loadPopulation() throws IOException {
+        if (loaded) return;
+        indexData.loadPopulation();
+        while (true) {
+            List<Object> updates;
+            synchronized (populationUpdates) {
+                if (populationUpdates.isEmpty()) {
+                    loaded = true;
+                    return;
+                }
+                updates = new ArrayList<>(populationUpdates);
+                populationUpdates.clear();
+            }
+            for (Object update : updates) {
+                if (update instanceof PrimitiveLongSet) {
+                    removed((PrimitiveLongSet) update);
+                } else {
+                    try {
+                        process((NodePropertyUpdate) update);
+                    } catch (IndexEntryConflictException | IndexCapacityExceededException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        }
     }
 
     @Override
     public void close(boolean populationCompletedSuccessfully) throws IOException, IndexCapacityExceededException {
         if (populationCompletedSuccessfully) {
+            completePopulation();
+            if (files != null) checkpoint();
             this.state = InternalIndexState.ONLINE;
             this.failure = null;
+            ValueIndexes.Snapshot data = indexData.snapshot();
+            monitor.populated(data.keys(), data.entries(), System.nanoTime() - populationStart);
         } else {
+            clear();
             this.state = InternalIndexState.FAILED;
         }
     }
@@ -93,133 +525,159 @@ public class MemoryIndex implements IndexAccessor, IndexPopulator, IndexUpdater
         this.failure = s;
     }
 
+    /**
+     * the sample is exact, the sub-indexes count their distinct values and entries with every update
+     */
     @Override
     public long sampleResult(Register.DoubleLong.Out out) {
-        return uniqueIndexSampler.result(out);
+        return indexData.snapshot().sample(out);
     }
 
+    /**
+     * reserves memory for the entries the updates add, so a transaction that would exceed the budget is rejected
+     * before it is committed
+     */
     @Override
-    public Reservation validate(Iterable<NodePropertyUpdate> iterable) throws IOException, IndexCapacityExceededException {
-        return Reservation.EMPTY;
+    public Reservation validate(Iterable<NodePropertyUpdate> updates) throws IOException, IndexCapacityExceededException {
+        if (!budget.limited()) return Reservation.EMPTY;
+        long additions = 0;
+        for (NodePropertyUpdate update : updates) {
+            if (update.getUpdateMode() != UpdateMode.REMOVED) additions++;
+        }
+        return reserve(additions);
     }
 
     @Override
     public void process(final NodePropertyUpdate update) throws IOException, IndexEntryConflictException, IndexCapacityExceededException {
+        long start = IndexMetrics.start();
+        metrics.updates.increment();
         switch (update.getUpdateMode()) {
             case ADDED:
-                this.add(update.getNodeId(), update.getValueAfter());
+                this.put(update.getNodeId(), update.getValueAfter());
+                journal.added(update.getNodeId(), update.getValueAfter());
                 break;
             case CHANGED:
                 this.removed(update.getNodeId(), update.getValueBefore());
-                this.add(update.getNodeId(), update.getValueAfter());
+                try {
+                    this.put(update.getNodeId(), update.getValueAfter());
+                } catch (IndexEntryConflictException e) {
+                    this.added(update.getNodeId(), update.getValueBefore());
+                    throw e;
+                }
+                journal.removed(update.getNodeId(), update.getValueBefore());
+                journal.added(update.getNodeId(), update.getValueAfter());
                 break;
             case REMOVED:
                 this.removed(update.getNodeId(), update.getValueBefore());
+                journal.removed(update.getNodeId(), update.getValueBefore());
                 break;
             default:
                 throw new UnsupportedOperationException();
         }
+        metrics.writes.record(start);
     }
 
     @Override
     public void remove(PrimitiveLongSet nodeIds) throws IOException {
-        final Iterator<Map.Entry<Object,long[]>> entries = this.indexData.entrySet().iterator();
-        while (entries.hasNext()) {
-            final Map.Entry<Object, long[]> entry = entries.next();
-            long[] nodes = entry.getValue();
-            int existingCount = nodes.length;
-
-            final PrimitiveLongIterator nodeIdIter = nodeIds.iterator();
-
-            while(nodeIdIter.hasNext()) {
-
-                final long nodeId = nodeIdIter.next();
-
-                final int idx = this.indexOf(nodes, nodeId);
-                if (idx != -1) {
-                    if (existingCount == 1) {
-                        entries.remove();
-                        break;
-                    } else {
-                        System.arraycopy(nodes,idx,nodes,idx-1, existingCount-idx-1);
-                        nodes = Arrays.copyOfRange(nodes, 0, existingCount - 1);
-                        entry.setValue(nodes);
-                        existingCount--;
-                    }
-                }
-            }
-        }
+        long start = IndexMetrics.start();
+        metrics.removals.add(nodeIds.size());
+        removed(nodeIds);
+        journal.removed(nodeIds);
+        metrics.writes.record(start);
     }
 
-    private void removed(final long nodeId, final Object propertyValue) {
-        long[] nodes = this.indexData.get(propertyValue);
-        if (nodes==null || nodes.length ==0) return;
-        final int idx=this.indexOf(nodes,nodeId);
-        if (idx==-1) return;
-        final int existingCount = nodes.length;
-        nonUniqueIndexSampler.exclude(propertyValue.toString());
-        if (existingCount == 1) {
-            maxCount--;
-            this.indexData.remove(propertyValue);
+    /**
+     * removes the nodes from the entries of their values if they are known, otherwise from all entries of the index
+     */
+    void removed(PrimitiveLongSet nodeIds) {
+        NodeValues nodeValues = this.nodeValues;
+        if (nodeValues == null) {
+            this.indexData.removeAll(nodeIds);
             return;
         }
-        System.arraycopy(nodes,idx,nodes,idx-1, existingCount-idx-1);
-        nodes = Arrays.copyOfRange(nodes, 0, existingCount - 1);
-        maxCount--;
-        this.indexData.put(propertyValue, nodes);
+        for (PrimitiveLongIterator it = nodeIds.iterator(); it.hasNext(); ) {
+            long nodeId = it.next();
+            for (Object value : nodeValues.remove(nodeId)) {
+                delete(nodeId, value);
+            }
+        }
     }
 
-    private int indexOf(final long[] nodes, final long nodeId) {
-//        if (nodes.length > 256) return Arrays.binarySearch(nodes,nodeId);
-        int end = nodes.length - 1;
-        for (int i = 0; i != end; i++) {
-            if (nodes[i]==nodeId) return i;
-        }
-        return -1;
+    void removed(final long nodeId, final Object propertyValue) {
+        final Object value = ValueKey.indexed(propertyValue);
+        if (!delete(nodeId, value)) return;
+        NodeValues nodeValues = this.nodeValues;
+        if (nodeValues != null) nodeValues.removed(nodeId, value);
+    }
+
+    private boolean delete(final long nodeId, final Object propertyValue) {
+        final ValueIndex index = this.indexData.get(propertyValue);
+        return index != null && index.remove(propertyValue, nodeId);
     }
 
     @Override
     public IndexUpdater newUpdater(IndexUpdateMode mode) {
-        return this;
+        return mode == IndexUpdateMode.BATCHED ? new BatchedUpdater() : updater;
     }
 
     @Override
     public void flush() throws IOException {
+        journal.flush();
     }
 
     @Override
-    public IndexReader newReader() {
-        return new MemoryIndexReader(this.indexData,nonUniqueIndexSampler,valueTypesInIndex);
+    public MemoryIndexReader newReader() {
+        return new MemoryIndexReader(this.indexData.snapshot(), valueTypesInIndex, metrics);
     }
 
     @Override
     public void drop() throws IOException {
         clear();
+        journal.close();
+        if (files != null) files.delete();
     }
 
+    /**
+     * Forces the journal to disk. When it grew beyond a quarter of the snapshot a new snapshot is written instead,
+     * unless a backup is copying the current files.
+     */
     @Override
     public void force() throws IOException {
+        if (!journal.isOpen()) return;
+        if (backups.get() == 0 && journal.size() + replayedJournals > Math.max(MIN_CHECKPOINT_JOURNAL, snapshotSize / 4)) {
+            checkpoint();
+        } else {
+            journal.force();
+        }
     }
 
     @Override
     public void close() throws IOException {
+        journal.close();
         clear();
     }
 
-    // todo snapshot
     @Override
     public BoundedIterable<Long> newAllEntriesReader() {
+        return newAllEntriesReader(false);
+    }
+
+    /**
+     * @param nodeIdOrder true for each node-id once in ascending order, e.g. to merge with the node store,
+     *                    collected into a compressed bitmap of about 2 bytes per node-id when iterated,
+     *                    false for a node-id per entry, grouped by value in key order without extra memory
+     */
+    public BoundedIterable<Long> newAllEntriesReader(boolean nodeIdOrder) {
+        final ValueIndexes.Snapshot snapshot = indexData.snapshot();
         return new BoundedIterable<Long>() {
-            final long max = maxCount;
+            final long max = snapshot.entries();
             public long maxCount() { return max; }
 
             public void close() throws Exception { }
 
             @Override
             public Iterator<Long> iterator() {
-                // todo snapshot
-                Iterator<long[]> values = indexData.values().iterator();
-                CombiningPrimitiveLongIterator it = new CombiningPrimitiveLongIterator(values);
+                PrimitiveLongIterator it = allEntries(snapshot, nodeIdOrder, new PostingsCursor());
                 return new Iterator<Long>() {
                     public boolean hasNext() { return it.hasNext(); }
                     public Long next() { return it.next(); }
@@ -228,12 +686,35 @@ public class MemoryIndex implements IndexAccessor, IndexPopulator, IndexUpdater
         };
     }
 
+    /**
+     * the node-ids of {@link #newAllEntriesReader(boolean)} without boxing them
+     *
+     * @return the cursor, reset to the node-ids of all entries of the current state of the index
+     */
+    public PostingsCursor allEntries(boolean nodeIdOrder, PostingsCursor cursor) {
+        return allEntries(indexData.snapshot(), nodeIdOrder, cursor);
+    }
+
+    private static PostingsCursor allEntries(ValueIndexes.Snapshot snapshot, boolean nodeIdOrder, PostingsCursor cursor) {
+        cursor.reset(snapshot.values());
+        return nodeIdOrder ? cursor.reset(BitmapPostings.of(cursor)) : cursor;
+    }
+
     @Override
     public ResourceIterator<File> snapshotFiles() throws IOException {
-        return (ResourceIterator<File>) ResourceIterator.EMPTY;
+        if (files == null || !journal.isOpen()) return IteratorUtil.emptyIterator();
+        backups.incrementAndGet();
+        try {
+            journal.force();
+            return IteratorUtil.resourceIterator(files.files().iterator(), backups::decrementAndGet);
+        } catch (IOException | RuntimeException e) {
+            backups.decrementAndGet();
+            throw e;
+        }
     }
 
-    public void shutdown() {
+    public void shutdown() throws IOException {
+        journal.close();
         clear();
     }
 
@@ -0,0 +1,65 @@
+package org.neo4j.index.memory.provider;
+
+/**
+ * Management interface of a memory index, registered with the platform MBean server by the index provider.
+ * Counts are totals since the index was opened, latencies are in nanoseconds and measured for a sample of the calls.
+ */
+public interface MemoryIndexMXBean {
+    String getState();
+
+    String getStorage();
+
+    /**
+     * @return number of distinct values
+     */
+    long getKeys();
+
+    /**
+     * @return number of node-ids over all values
+     */
+    long getEntries();
+
+    /**
+     * @return estimated bytes used on the java heap, values that are objects are only counted as references
+     */
+    long getHeapBytes();
+
+    /**
+     * @return bytes of the segments kept outside of the java heap
+     */
+    long getOffHeapBytes();
+
+    /**
+     * @return number of exact value lookups, seeks and counts
+     */
+    long getSeeks();
+
+    /**
+     * @return number of range and prefix seeks
+     */
+    long getRangeSeeks();
+
+    long getScans();
+
+    /**
+     * @return number of processed property updates
+     */
+    long getUpdates();
+
+    /**
+     * @return number of nodes removed from the index
+     */
+    long getRemovals();
+
+    double getReadLatencyMean();
+
+    long getReadLatency50();
+
+    long getReadLatency99();
+
+    double getUpdateLatencyMean();
+
+    long getUpdateLatency50();
+
+    long getUpdateLatency99();
+}
@@ -0,0 +1,30 @@
+package org.neo4j.index.memory.provider;
+
+/**
+ * Events of the life of a memory index, created by the index provider through Neo4j's Monitors,
+ * tagged with the id of the index. Only rare events are reported, per call metrics are in {@link IndexMetrics}.
+ */
+public interface MemoryIndexMonitor {
+    MemoryIndexMonitor NONE = new MemoryIndexMonitor() {
+        public void populated(long keys, long entries, long nanos) {
+        }
+
+        public void recovered(long keys, long entries, long nanos) {
+        }
+
+        public void snapshotWritten(long bytes, long nanos) {
+        }
+    };
+
+    /**
+     * @param nanos time since the population started
+     */
+    void populated(long keys, long entries, long nanos);
+
+    /**
+     * @param nanos time to load the snapshot and replay the journals
+     */
+    void recovered(long keys, long entries, long nanos);
+
+    void snapshotWritten(long bytes, long nanos);
+}
@@ -4,65 +4,290 @@ import org.neo4j.collection.primitive.PrimitiveLongCollections;
 import org.neo4j.collection.primitive.PrimitiveLongIterator;
 import org.neo4j.kernel.api.exceptions.index.IndexNotFoundKernelException;
 import org.neo4j.kernel.api.index.IndexReader;
-import org.neo4j.kernel.impl.api.index.sampling.NonUniqueIndexSampler;
 import org.neo4j.register.Register;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Reads from a snapshot of the index. Lookups are counted in the {@link IndexMetrics} of the index,
+ * their sampled latency covers finding the entries, not iterating over the node-ids.
+ *
+ * Besides the iterators of the {@link IndexReader} API, lookups can reset a {@link PostingsCursor} kept by the caller,
+ * which makes seeks of numbers and Strings on heap storage free of allocations.
+ */
 public class MemoryIndexReader implements IndexReader {
 
-    private static final long[] EMPTY_LONGS = new long[0];
-    private SortedMap<Object, long[]> snapshot;
-    private final NonUniqueIndexSampler nonUniqueIndexSampler;
+    private ValueIndexes.Snapshot snapshot;
     private final Set<Class> valueTypesInIndex;
+    private final IndexMetrics metrics;
 
-    MemoryIndexReader(final SortedMap<Object, long[]> snapshot, NonUniqueIndexSampler nonUniqueIndexSampler, Set<Class> valueTypesInIndex) {
+    MemoryIndexReader(final ValueIndexes.Snapshot snapshot, Set<Class> valueTypesInIndex, IndexMetrics metrics) {
         this.snapshot = snapshot;
-        this.nonUniqueIndexSampler = nonUniqueIndexSampler;
         this.valueTypesInIndex = valueTypesInIndex;
+        this.metrics = metrics;
     }
 
     @Override
     public PrimitiveLongIterator seek(Object value) {
-        final long[] result = snapshot.get(value);
-        return PrimitiveLongCollections.iterator(result == null || result.length == 0 ? EMPTY_LONGS : result);
+        final Postings result = get(value);
+        return result == null ? PrimitiveLongCollections.emptyIterator() : result.iterator();
+    }
+
+    /**
+     * @return the cursor, reset to the node-ids of the value
+     */
+    public PostingsCursor seek(Object value, PostingsCursor cursor) {
+        long start = IndexMetrics.start();
+        metrics.seeks.increment();
+        final Object indexed = ValueKey.indexed(value);
+        final ValueIndex.Snapshot index = snapshot.get(indexed);
+        if (index == null) cursor.clear();
+        else index.get(indexed, cursor);
+        metrics.reads.record(start);
+        return cursor;
+    }
+
+    /**
+     * Looks up many values at once, e.g. for an IN list. The values are grouped by sub-index and sorted, so each
+     * sub-index is searched once in key order, for segments in a single forward pass.
+     *
+     * @param sorted true for the node-ids in ascending order without duplicates,
+     *               false for the node-ids grouped by value in key order
+     */
+    public PrimitiveLongIterator seekAll(Iterable<?> values, boolean sorted) {
+        long start = IndexMetrics.start();
+        List<Object> keys = new ArrayList<>();
+        for (Object value : values) {
+            keys.add(ValueKey.indexed(value));
+        }
+        metrics.seeks.add(keys.size());
+        List<Postings> postings = snapshot.getAll(keys);
+        metrics.reads.record(start);
+        if (!sorted) return new CombiningPrimitiveLongIterator(postings.iterator());
+        int size = 0;
+        for (Postings p : postings) {
+            size += p.size();
+        }
+        long[] ids = new long[size];
+        int count = 0;
+        for (Postings p : postings) {
+            for (PrimitiveLongIterator it = p.iterator(); it.hasNext(); ) {
+                ids[count++] = it.next();
+            }
+        }
+        Arrays.sort(ids);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || ids[i] != ids[distinct - 1]) ids[distinct++] = ids[i];
+        }
+        return PrimitiveLongCollections.iterator(distinct == count ? ids : Arrays.copyOf(ids, distinct));
     }
 
     @Override
     public PrimitiveLongIterator rangeSeekByNumberInclusive(Number lower, Number upper) {
-        return new CombiningPrimitiveLongIterator(snapshot.subMap(lower, upper).values().iterator());
+        return rangeSeekByNumberInclusive(lower, upper, new PostingsCursor());
+    }
+
+    public PostingsCursor rangeSeekByNumberInclusive(Number lower, Number upper, PostingsCursor cursor) {
+        long start = IndexMetrics.start();
+        metrics.rangeSeeks.increment();
+        cursor.reset(snapshot.numberRange(lower, upper));
+        metrics.reads.record(start);
+        return cursor;
     }
 
     @Override
     public PrimitiveLongIterator rangeSeekByString(String lower, boolean includeLower, String upper, boolean includeUpper) {
-        if (includeUpper) upper = successorString(upper);
-        if (!includeLower) lower = lower + (char)0;
-        return new CombiningPrimitiveLongIterator(snapshot.subMap(lower, upper).values().iterator());
+        return rangeSeekByString(lower, includeLower, upper, includeUpper, new PostingsCursor());
+    }
+
+    public PostingsCursor rangeSeekByString(String lower, boolean includeLower, String upper, boolean includeUpper, PostingsCursor cursor) {
+        long start = IndexMetrics.start();
+        metrics.rangeSeeks.increment();
+        final ComparableValueIndex.ComparableSnapshot strings = snapshot.strings();
+        if (strings == null) cursor.clear();
+        else cursor.reset(strings.range(lower, includeLower, upper, includeUpper));
+        metrics.reads.record(start);
+        return cursor;
     }
 
     @Override
     public PrimitiveLongIterator rangeSeekByPrefix(String prefix) {
-        return new CombiningPrimitiveLongIterator(snapshot.subMap(prefix, successorString(prefix)).values().iterator());
+        return rangeSeekByPrefix(prefix, new PostingsCursor());
+    }
+
+    public PostingsCursor rangeSeekByPrefix(String prefix, PostingsCursor cursor) {
+        return rangeSeekByString(prefix, true, successorString(prefix), false, cursor);
+    }
+
+    /**
+     * @return the first node-ids of the numbers between lower and upper, both inclusive, in the order of their values
+     */
+    public OrderedCursor rangeSeekByNumberOrdered(Number lower, Number upper, boolean descending, int limit) {
+        return rangeSeekByNumberOrdered(lower, upper, descending, limit, null, -1);
+    }
+
+    /**
+     * Seeks the numbers between lower and upper, both inclusive, in the order of their values, for top-k queries and
+     * sorted pages. Only the values up to the last returned node-id are read, see {@link OrderedCursor}.
+     *
+     * @param descending  true for the greatest values first, node-ids of the same value are still ascending
+     * @param limit       maximum number of node-ids to return
+     * @param startAfter  value of the last entry of the previous page, null for the first page
+     * @param afterNodeId node-id of the last entry of the previous page, {@link Long#MAX_VALUE} to skip all of startAfter
+     */
+    public OrderedCursor rangeSeekByNumberOrdered(Number lower, Number upper, boolean descending, int limit,
+                                                  Number startAfter, long afterNodeId) {
+        long start = IndexMetrics.start();
+        metrics.rangeSeeks.increment();
+        if (startAfter != null) {
+            if (!descending && (lower == null || NumberValueIndex.compare(startAfter, lower) > 0)) lower = startAfter;
+            if (descending && (upper == null || NumberValueIndex.compare(startAfter, upper) < 0)) upper = startAfter;
+        }
+        NumberValueIndex.NumberSnapshot[] indexes = {snapshot.longs(), snapshot.doubles()};
+        PostingsStore.Cursor[] cursors = new PostingsStore.Cursor[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i] != null) cursors[i] = indexes[i].cursor(lower, upper, descending);
+        }
+        Comparator<Object> order = (a, b) -> NumberValueIndex.compare((Number) a, (Number) b);
+        OrderedCursor result = new OrderedCursor(indexes, cursors, descending ? order.reversed() : order, limit, startAfter, afterNodeId);
+        metrics.reads.record(start);
+        return result;
+    }
+
+    /**
+     * @return the first node-ids of the Strings in the range in the order of the Strings
+     */
+    public OrderedCursor rangeSeekByStringOrdered(String lower, boolean includeLower, String upper, boolean includeUpper,
+                                                  boolean descending, int limit) {
+        return rangeSeekByStringOrdered(lower, includeLower, upper, includeUpper, descending, limit, null, -1);
+    }
+
+    /**
+     * Seeks the Strings in the range in their order, see {@link #rangeSeekByNumberOrdered(Number, Number, boolean, int, Number, long)}.
+     */
+    public OrderedCursor rangeSeekByStringOrdered(String lower, boolean includeLower, String upper, boolean includeUpper,
+                                                  boolean descending, int limit, String startAfter, long afterNodeId) {
+        long start = IndexMetrics.start();
+        metrics.rangeSeeks.increment();
+        if (startAfter != null) {
+            if (!descending && (lower == null || startAfter.compareTo(lower) > 0)) {
+                lower = startAfter;
+                includeLower = true;
+            }
+            if (descending && (upper == null || startAfter.compareTo(upper) < 0)) {
+                upper = startAfter;
+                includeUpper = true;
+            }
+        }
+        final ComparableValueIndex.ComparableSnapshot strings = snapshot.strings();
+        ValueIndex.Snapshot[] indexes = {strings};
+        PostingsStore.Cursor[] cursors = {strings == null ? null : strings.cursor(lower, includeLower, upper, includeUpper, descending)};
+        Comparator<Object> order = (a, b) -> ((String) a).compareTo((String) b);
+        OrderedCursor result = new OrderedCursor(indexes, cursors, descending ? order.reversed() : order, limit, startAfter, afterNodeId);
+        metrics.reads.record(start);
+        return result;
     }
 
-    private String successorString(String str) {
-        StringBuilder sb = new StringBuilder(str);
-        int last = sb.length() - 1;
-        sb.setCharAt(last,(char)(sb.charAt(last)+1));
-        return sb.toString();
+    /**
+     * Seeks the Strings containing the given one, like Cypher's CONTAINS. Indexes created with n-grams only check the
+     * Strings sharing the rarest trigram of it, others check every String, which still spares reading the nodes.
+     *
+     * @return node-ids grouped by String in no particular order
+     */
+    public PrimitiveLongIterator containsString(String part) {
+        return containsString(part, new PostingsCursor());
+    }
+
+    public PostingsCursor containsString(String part, PostingsCursor cursor) {
+        long start = IndexMetrics.start();
+        metrics.rangeSeeks.increment();
+        final ComparableValueIndex.ComparableSnapshot strings = snapshot.strings();
+        if (strings == null) cursor.clear();
+        else cursor.reset(strings.containing(part));
+        metrics.reads.record(start);
+        return cursor;
+    }
+
+    /**
+     * Seeks the Strings ending with the given one, like Cypher's ENDS WITH, see {@link #containsString(String)}.
+     */
+    public PrimitiveLongIterator endsWith(String suffix) {
+        return endsWith(suffix, new PostingsCursor());
+    }
+
+    public PostingsCursor endsWith(String suffix, PostingsCursor cursor) {
+        long start = IndexMetrics.start();
+        metrics.rangeSeeks.increment();
+        final ComparableValueIndex.ComparableSnapshot strings = snapshot.strings();
+        if (strings == null) cursor.clear();
+        else cursor.reset(strings.endingWith(suffix));
+        metrics.reads.record(start);
+        return cursor;
+    }
+
+    /**
+     * @return the smallest String greater than all Strings starting with the prefix, or null if there is none
+     * because the prefix is empty or only consists of '\uffff'
+     */
+    static String successorString(String prefix) {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) last--;
+        if (last < 0) return null;
+        char[] successor = prefix.substring(0, last + 1).toCharArray();
+        successor[last]++;
+        return new String(successor);
     }
 
     @Override
     public PrimitiveLongIterator scan() {
-        Iterator<long[]> it = snapshot.values().iterator();
-        return new CombiningPrimitiveLongIterator(it);
+        return scan(new PostingsCursor());
+    }
+
+    public PostingsCursor scan(PostingsCursor cursor) {
+        metrics.scans.increment();
+        return cursor.reset(snapshot.values());
+    }
+
+    /**
+     * Splits all entries into about count partitions of keys, each with a similar number of keys, to be scanned
+     * in parallel. Together the partitions return the node-ids of {@link #scan()}.
+     */
+    public List<PrimitiveLongIterator> partitions(int count) {
+        metrics.scans.increment();
+        List<PrimitiveLongIterator> partitions = new ArrayList<>();
+        for (Iterator<Postings> partition : snapshot.partitions(count)) {
+            partitions.add(new PostingsCursor().reset(partition));
+        }
+        return partitions;
+    }
+
+    /**
+     * @return the node-ids of all entries, split along partitions for parallel streams, e.g.
+     * {@code StreamSupport.longStream(reader.spliterator(), true)}
+     */
+    public Spliterator.OfLong spliterator() {
+        metrics.scans.increment();
+        int count = 4 * ForkJoinPool.getCommonPoolParallelism();
+        return new PartitionSpliterator(snapshot.partitions(count), snapshot.entries());
     }
 
     // TODO why nodeId ???
     @Override
     public int countIndexedNodes(long nodeId, Object propertyValue) {
-        final long[] result = snapshot.get(propertyValue);
-        return result == null ? 0 : result.length;
+        final Postings result = get(propertyValue);
+        return result == null ? 0 : result.size();
+    }
+
+    private Postings get(Object propertyValue) {
+        long start = IndexMetrics.start();
+        metrics.seeks.increment();
+        final Object value = ValueKey.indexed(propertyValue);
+        final ValueIndex.Snapshot index = snapshot.get(value);
+        final Postings result = index == null ? null : index.get(value);
+        metrics.reads.record(start);
+        return result;
     }
 
     @Override
@@ -70,12 +295,17 @@ public class MemoryIndexReader implements IndexReader {
         return valueTypesInIndex;
     }
 
+    /**
+     * the sample is exact, the distinct values and entries are counted by the snapshot of the reader
+     */
     @Override
     public long sampleIndex(Register.DoubleLong.Out out) throws IndexNotFoundKernelException {
-        return nonUniqueIndexSampler.result(out);
+        return snapshot.sample(out);
     }
 
     @Override
-    public void close() {}
+    public void close() {
+        snapshot = null;
+    }
 
 }
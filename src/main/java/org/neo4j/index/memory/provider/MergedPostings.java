@@ -0,0 +1,117 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view of base postings without the removed and with the added node-ids, all of them may be null.
+ * Relies on the removed ids being contained in the base and the added ones not.
+ */
+final class MergedPostings extends Postings {
+    private final Postings base, added, removed;
+    private final int size;
+
+    private MergedPostings(Postings base, Postings added, Postings removed, int size) {
+        this.base = base;
+        this.added = added;
+        this.removed = removed;
+        this.size = size;
+    }
+
+    /**
+     * @return the merged postings or null if no node-ids remain
+     */
+    static Postings of(Postings base, Postings added, Postings removed) {
+        if (added == null && removed == null) return base;
+        int size = size(base) + size(added) - size(removed);
+        if (size == 0) return null;
+        if (removed == null && base == null) return added;
+        return new MergedPostings(base, added, removed, size);
+    }
+
+    private static int size(Postings postings) {
+        return postings == null ? 0 : postings.size();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        if (added != null && added.contains(id)) return true;
+        return base != null && base.contains(id) && (removed == null || !removed.contains(id));
+    }
+
+    @Override
+    long next(long from) {
+        long next = base == null ? -1 : base.next(from);
+        while (next >= 0 && removed != null && removed.contains(next)) {
+            next = base.next(next + 1);
+        }
+        long nextAdded = added == null ? -1 : added.next(from);
+        if (next < 0) return nextAdded;
+        return nextAdded < 0 ? next : Math.min(next, nextAdded);
+    }
+
+    @Override
+    public PrimitiveLongIterator iterator() {
+        final PrimitiveLongIterator bases = base == null ? PrimitiveLongCollections.emptyIterator() : base.iterator();
+        final PrimitiveLongIterator adds = added == null ? PrimitiveLongCollections.emptyIterator() : added.iterator();
+        return new PrimitiveLongIterator() {
+            // the remaining count tells when to stop, so Long.MAX_VALUE only marks an exhausted side
+            long nextBase = nextBase(), nextAdded = adds.hasNext() ? adds.next() : Long.MAX_VALUE;
+            int remaining = size;
+
+            private long nextBase() {
+                while (bases.hasNext()) {
+                    long id = bases.next();
+                    if (removed == null || !removed.contains(id)) return id;
+                }
+                return Long.MAX_VALUE;
+            }
+
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            public long next() {
+                if (remaining == 0) throw new NoSuchElementException();
+                remaining--;
+                long result;
+                if (nextBase <= nextAdded) {
+                    result = nextBase;
+                    nextBase = nextBase();
+                } else {
+                    result = nextAdded;
+                    nextAdded = adds.hasNext() ? adds.next() : Long.MAX_VALUE;
+                }
+                return result;
+            }
+        };
+    }
+
+    @Override
+    Postings copy() {
+        if (size == 1) return of(iterator().next());
+        long[] ids = new long[size];
+        PrimitiveLongIterator it = iterator();
+        for (int i = 0; i < size; i++) {
+            ids[i] = it.next();
+        }
+        return new LongArrayPostings(ids, size);
+    }
+
+    @Override
+    Postings add(long id) {
+        return copy().add(id);
+    }
+
+    @Override
+    Postings remove(long id) {
+        return copy().remove(id);
+    }
+}
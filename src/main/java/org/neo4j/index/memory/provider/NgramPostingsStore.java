@@ -0,0 +1,376 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * String store that keeps a trigram index of its keys alongside, to find the keys containing or ending with a String
+ * without going over all of them. Each key is indexed under every three characters of itself followed by two
+ * {@link #END} characters, so that suffixes of one or two characters have trigrams too.
+ *
+ * The trigrams are a {@link ComparablePostingsTree} of (trigram, key) pairs, copied on write like the keys themselves,
+ * and updated by the same writer when a key gets its first node-id or loses its last one. A snapshot takes both
+ * at once, so they always agree. Writers are not {@link #concurrent()}, even if the wrapped store would allow it.
+ *
+ * Lookups walk the entries of the trigrams of the searched String in lockstep until the first of them ends,
+ * and check the keys of that rarest trigram, so they only read as many keys as the rarest trigram has.
+ */
+final class NgramPostingsStore implements PostingsStore {
+    static final int GRAM = 3;
+    /**
+     * pads the end of keys, a key ending with it matches in the trigrams but not when it is checked
+     */
+    static final char END = '\uffff';
+    private static final Postings INDEXED = Postings.of(0);
+
+    private final PostingsStore store;
+    private final PostingsTree grams = new ComparablePostingsTree();
+    private volatile NgramSnapshot snapshot;
+
+    NgramPostingsStore(PostingsStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Trigram and key, ordered by trigram first, so the keys of a trigram form a range.
+     */
+    static final class GramKey implements Comparable<GramKey> {
+        final long gram;
+        final String value;
+
+        GramKey(long gram, String value) {
+            this.gram = gram;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(GramKey other) {
+            int cmp = Long.compare(gram, other.gram);
+            return cmp != 0 ? cmp : value.compareTo(other.value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GramKey && compareTo((GramKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(gram) * 31 + value.hashCode();
+        }
+    }
+
+    /**
+     * @return the distinct trigrams of the String, each packed into the lower 48 bits of a long, in ascending order
+     */
+    static long[] grams(String value) {
+        int count = Math.max(0, value.length() - GRAM + 1);
+        long[] grams = new long[count];
+        for (int i = 0; i < count; i++) {
+            grams[i] = (long) value.charAt(i) << 32 | (long) value.charAt(i + 1) << 16 | value.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || grams[i] != grams[distinct - 1]) grams[distinct++] = grams[i];
+        }
+        return distinct == count ? grams : Arrays.copyOf(grams, distinct);
+    }
+
+    private static long[] keyGrams(Object key) {
+        return grams(key + String.valueOf(END) + END);
+    }
+
+    private void indexed(Object key) {
+        for (long gram : keyGrams(key)) {
+            grams.add(0, new GramKey(gram, (String) key), 0);
+        }
+    }
+
+    private void dropped(Object key) {
+        for (long gram : keyGrams(key)) {
+            grams.remove(0, new GramKey(gram, (String) key), 0);
+        }
+    }
+
+    @Override
+    public boolean add(long key, Object objectKey, long id) {
+        boolean added = store.add(key, objectKey, id);
+        if (added && store.get(key, objectKey).size() == 1) indexed(objectKey);
+        return added;
+    }
+
+    @Override
+    public boolean remove(long key, Object objectKey, long id) {
+        boolean removed = store.remove(key, objectKey, id);
+        if (removed && store.get(key, objectKey) == null) dropped(objectKey);
+        return removed;
+    }
+
+    @Override
+    public Postings get(long key, Object objectKey) {
+        return store.get(key, objectKey);
+    }
+
+    @Override
+    public long addUnique(long key, Object objectKey, long id) {
+        boolean known = store.get(key, objectKey) != null;
+        long other = store.addUnique(key, objectKey, id);
+        if (!known && other == -1) indexed(objectKey);
+        return other;
+    }
+
+    @Override
+    public long update(long key, Object objectKey, long[] add, long[] remove) {
+        boolean known = store.get(key, objectKey) != null;
+        long delta = store.update(key, objectKey, add, remove);
+        boolean stored = store.get(key, objectKey) != null;
+        if (!known && stored) indexed(objectKey);
+        else if (known && !stored) dropped(objectKey);
+        return delta;
+    }
+
+    @Override
+    public boolean unbalanced() {
+        return store.unbalanced();
+    }
+
+    @Override
+    public void rebalance() {
+        store.rebalance();
+    }
+
+    /**
+     * drops the trigrams of the keys that lose all their node-ids
+     */
+    @Override
+    public void removeAll(PrimitiveLongSet nodeIds) {
+        List<Object> affected = new ArrayList<>();
+        for (Cursor cursor = store.snapshot().unorderedCursor(); cursor.next(); ) {
+            if (cursor.postings().containsAny(nodeIds)) affected.add(cursor.objectKey());
+        }
+        store.removeAll(nodeIds);
+        for (Object key : affected) {
+            if (store.get(0, key) == null) dropped(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+        grams.clear();
+    }
+
+    /**
+     * loads the store and builds the trigrams of all its keys in bulk
+     */
+    @Override
+    public void load(Cursor entries) {
+        store.load(entries);
+        List<GramKey> keys = new ArrayList<>();
+        for (Cursor cursor = store.snapshot().unorderedCursor(); cursor.next(); ) {
+            String key = (String) cursor.objectKey();
+            for (long gram : keyGrams(key)) {
+                keys.add(new GramKey(gram, key));
+            }
+        }
+        GramKey[] sorted = keys.toArray(new GramKey[keys.size()]);
+        Arrays.parallelSort(sorted);
+        grams.load(new Cursor() {
+            int pos = -1;
+
+            public boolean next() {
+                return ++pos < sorted.length;
+            }
+
+            public long key() {
+                return 0;
+            }
+
+            public Object objectKey() {
+                return sorted[pos];
+            }
+
+            public Postings postings() {
+                return INDEXED;
+            }
+        });
+    }
+
+    @Override
+    public NgramSnapshot snapshot() {
+        NgramSnapshot published = published();
+        if (published != null) return published;
+        NgramSnapshot snapshot = new NgramSnapshot(store.snapshot(), grams.snapshot());
+        this.snapshot = snapshot;
+        return snapshot;
+    }
+
+    @Override
+    public NgramSnapshot published() {
+        NgramSnapshot snapshot = this.snapshot;
+        if (snapshot == null || store.published() != snapshot.data || grams.published() != snapshot.grams) return null;
+        return snapshot;
+    }
+
+    final class NgramSnapshot implements PostingsStore.Snapshot {
+        private final PostingsStore.Snapshot data;
+        private final PostingsStore.Snapshot grams;
+
+        private NgramSnapshot(PostingsStore.Snapshot data, PostingsStore.Snapshot grams) {
+            this.data = data;
+            this.grams = grams;
+        }
+
+        /**
+         * @return postings of the keys containing the String, in no particular order
+         */
+        Iterator<Postings> containing(String part) {
+            if (part.length() < GRAM) return PostingsStore.values(data.unorderedCursor(), key -> ((String) key).contains(part));
+            return matching(grams(part), key -> key.contains(part));
+        }
+
+        /**
+         * @return postings of the keys ending with the String, in no particular order
+         */
+        Iterator<Postings> endingWith(String suffix) {
+            if (suffix.isEmpty()) return data.values();
+            return matching(keyGrams(suffix), key -> key.endsWith(suffix));
+        }
+
+        /**
+         * @return postings of the keys of the rarest trigram that pass the check
+         */
+        private Iterator<Postings> matching(long[] candidates, Predicate<String> check) {
+            Cursor keys = cursor(candidates[rarest(candidates)]);
+            return new Iterator<Postings>() {
+                Postings next = advance();
+
+                private Postings advance() {
+                    while (keys.next()) {
+                        String key = ((GramKey) keys.objectKey()).value;
+                        if (!check.test(key)) continue;
+                        Postings postings = data.get(0, key);
+                        if (postings != null) return postings;
+                    }
+                    return null;
+                }
+
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                public Postings next() {
+                    if (next == null) throw new NoSuchElementException();
+                    Postings result = next;
+                    next = advance();
+                    return result;
+                }
+            };
+        }
+
+        /**
+         * @return index of the trigram with the fewest keys, found by stepping through all of them until one ends
+         */
+        private int rarest(long[] candidates) {
+            if (candidates.length == 1) return 0;
+            Cursor[] cursors = new Cursor[candidates.length];
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i] = cursor(candidates[i]);
+            }
+            while (true) {
+                for (int i = 0; i < cursors.length; i++) {
+                    if (!cursors[i].next()) return i;
+                }
+            }
+        }
+
+        private Cursor cursor(long gram) {
+            return grams.cursor(0, new GramKey(gram, ""), true, 0, new GramKey(gram + 1, ""), false);
+        }
+
+        @Override
+        public Postings get(long key, Object objectKey) {
+            return data.get(key, objectKey);
+        }
+
+        @Override
+        public boolean get(long key, Object objectKey, PostingsCursor cursor) {
+            return data.get(key, objectKey, cursor);
+        }
+
+        @Override
+        public Postings[] getAll(long[] keys, Object[] objectKeys, int count) {
+            return data.getAll(keys, objectKeys, count);
+        }
+
+        @Override
+        public Iterator<Postings> values(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return data.values(from, objectFrom, includeFrom, to, objectTo, includeTo);
+        }
+
+        @Override
+        public Iterator<Postings> parallelValues(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return data.parallelValues(from, objectFrom, includeFrom, to, objectTo, includeTo);
+        }
+
+        @Override
+        public Iterator<Postings> values() {
+            return data.values();
+        }
+
+        @Override
+        public List<Iterator<Postings>> partitions(int count) {
+            return data.partitions(count);
+        }
+
+        @Override
+        public Cursor cursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return data.cursor(from, objectFrom, includeFrom, to, objectTo, includeTo);
+        }
+
+        @Override
+        public Cursor descendingCursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return data.descendingCursor(from, objectFrom, includeFrom, to, objectTo, includeTo);
+        }
+
+        @Override
+        public Cursor cursor() {
+            return data.cursor();
+        }
+
+        @Override
+        public Cursor unorderedCursor() {
+            return data.unorderedCursor();
+        }
+
+        @Override
+        public int size() {
+            return data.size();
+        }
+
+        @Override
+        public long entries() {
+            return data.entries();
+        }
+
+        /**
+         * adds the trigram entries, each with a key object of about 24 bytes
+         */
+        @Override
+        public long heapBytes() {
+            return data.heapBytes() + grams.heapBytes() + grams.size() * 24L;
+        }
+
+        @Override
+        public long offHeapBytes() {
+            return data.offHeapBytes();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Reverse map from node-ids to the values they are indexed with, so removing a node only touches its own entries
+ * instead of scanning the whole index. A node usually has a single value, which is stored directly in a primitive
+ * open addressing map, only nodes with several values get a list.
+ *
+ * Methods are synchronized, as writers of different sub-indexes update the map concurrently.
+ */
+final class NodeValues {
+    private final PrimitiveLongObjectMap<Object> values = Primitive.longObjectMap();
+
+    synchronized void added(long nodeId, Object value) {
+        Object current = values.get(nodeId);
+        if (current == null) {
+            values.put(nodeId, value);
+        } else if (current instanceof Several) {
+            if (!((Several) current).contains(value)) ((Several) current).add(value);
+        } else if (!current.equals(value)) {
+            Several several = new Several();
+            several.add(current);
+            several.add(value);
+            values.put(nodeId, several);
+        }
+    }
+
+    synchronized void removed(long nodeId, Object value) {
+        Object current = values.get(nodeId);
+        if (current == null) return;
+        if (current instanceof Several) {
+            Several several = (Several) current;
+            several.remove(value);
+            if (several.size() == 1) values.put(nodeId, several.get(0));
+        } else if (current.equals(value)) {
+            values.remove(nodeId);
+        }
+    }
+
+    /**
+     * @return the values of the node, which is no longer mapped afterwards
+     */
+    synchronized Collection<Object> remove(long nodeId) {
+        Object current = values.remove(nodeId);
+        if (current == null) return Collections.emptyList();
+        if (current instanceof Several) return (Several) current;
+        return Collections.singletonList(current);
+    }
+
+    synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * Values of a node with more than one, distinguished from property values by its type.
+     */
+    private static final class Several extends ArrayList<Object> {
+        Several() {
+            super(2);
+        }
+    }
+}
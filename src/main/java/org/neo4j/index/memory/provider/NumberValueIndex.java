@@ -0,0 +1,132 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sub-index for numbers whose keys are encoded into primitive longs that sort like the values.
+ */
+abstract class NumberValueIndex extends ValueIndex {
+    NumberValueIndex(PostingsStore store) {
+        super(store, false);
+    }
+
+    abstract long key(Number value);
+
+    /**
+     * @return the first and last key of the values between lower and upper, both inclusive, null bounds are open,
+     * or null if no value of this index is in between
+     */
+    abstract long[] keyRange(Number lower, Number upper);
+
+    /**
+     * @return postings in the snapshot for all values between lower and upper, both inclusive, null bounds are open,
+     * in key order unless the store is sharded
+     */
+    Iterator<Postings> range(PostingsStore.Snapshot data, Number lower, Number upper) {
+        long[] keys = keyRange(lower, upper);
+        if (keys == null) return Collections.emptyIterator();
+        return data.parallelValues(keys[0], null, true, keys[1], null, true);
+    }
+
+    /**
+     * compares numbers of any type by their exact value, a long and a double are equal only if the double has no fraction,
+     * NaN is greater than all other numbers like in {@link Double#compare}
+     */
+    static int compare(Number a, Number b) {
+        boolean floatA = LongValueIndex.isFloatingPoint(a), floatB = LongValueIndex.isFloatingPoint(b);
+        if (!floatA && !floatB) return Long.compare(a.longValue(), b.longValue());
+        if (floatA && floatB) return Double.compare(a.doubleValue(), b.doubleValue());
+        return floatA ? -compare(b.longValue(), a.doubleValue()) : compare(a.longValue(), b.doubleValue());
+    }
+
+    private static int compare(long l, double d) {
+        if (Double.isNaN(d) || d >= 0x1p63) return -1;
+        if (d < -0x1p63) return 1;
+        long integral = (long) d;
+        if (l != integral) return Long.compare(l, integral);
+        double fraction = d - integral;
+        return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+    }
+
+    NumberSnapshot snapshot() {
+        return new NumberSnapshot(data());
+    }
+
+    @Override
+    Postings get(PostingsStore.Snapshot data, Object value) {
+        return data.get(key((Number) value), null);
+    }
+
+    @Override
+    boolean get(PostingsStore.Snapshot data, Object value, PostingsCursor cursor) {
+        return data.get(key((Number) value), null, cursor);
+    }
+
+    @Override
+    List<Postings> getAll(PostingsStore.Snapshot data, List<Object> values) {
+        long[] keys = new long[values.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key((Number) values.get(i));
+        }
+        Arrays.sort(keys);
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[count - 1]) keys[count++] = keys[i];
+        }
+        return found(data.getAll(keys, null, count));
+    }
+
+    @Override
+    Object storeKey(Object value) {
+        return key((Number) value);
+    }
+
+    @Override
+    long change(Object storeKey, long[] add, long[] remove) {
+        return store.update((Long) storeKey, null, add, remove);
+    }
+
+    @Override
+    void buffer(Object value, long nodeId) {
+        population().add(key((Number) value), null, nodeId);
+    }
+
+    @Override
+    boolean insert(Object value, long nodeId) {
+        return store.add(key((Number) value), null, nodeId);
+    }
+
+    @Override
+    long insertUnique(Object value, long nodeId) {
+        return store.addUnique(key((Number) value), null, nodeId);
+    }
+
+    @Override
+    boolean delete(Object value, long nodeId) {
+        return store.remove(key((Number) value), null, nodeId);
+    }
+
+    class NumberSnapshot extends Snapshot {
+        NumberSnapshot(PostingsStore.Snapshot data) {
+            super(data);
+        }
+
+        Iterator<Postings> range(Number lower, Number upper) {
+            return NumberValueIndex.this.range(data, lower, upper);
+        }
+
+        /**
+         * @return a cursor over the values between lower and upper in key order, which is their numeric order,
+         * or null if no value of this index is in between
+         */
+        PostingsStore.Cursor cursor(Number lower, Number upper, boolean descending) {
+            long[] keys = keyRange(lower, upper);
+            if (keys == null) return null;
+            return descending ? data.descendingCursor(keys[0], null, true, keys[1], null, true)
+                    : data.cursor(keys[0], null, true, keys[1], null, true);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * Node-ids of a range in the order of their values, ascending or descending, stopping after a limit, e.g. for top-k
+ * queries or pages of a sorted result. Node-ids of the same value are returned in ascending order.
+ *
+ * It walks the key ordered cursors of the sub-indexes of the range, longs and doubles merged by their numeric value,
+ * and only reads the keys up to the last node-id it returns. A page continues after the value and node-id of the last
+ * entry of the previous one, see {@link #value()}.
+ */
+public final class OrderedCursor implements PrimitiveLongIterator {
+    private final ValueIndex.Snapshot[] indexes;
+    private final PostingsStore.Cursor[] cursors;
+    /**
+     * the values of the current keys of the cursors, null once a cursor is exhausted
+     */
+    private final Object[] values;
+    private final Comparator<Object> order;
+    private final Object startAfter;
+    private final long afterNodeId;
+    private final PostingsCursor ids = new PostingsCursor();
+    private int remaining;
+    private Object value, returned;
+
+    /**
+     * @param order       order of the values, reversed for descending cursors
+     * @param limit       maximum number of node-ids to return
+     * @param startAfter  value to skip the node-ids up to afterNodeId of, null to skip none
+     * @param afterNodeId last node-id of startAfter to skip, {@link Long#MAX_VALUE} to skip all of them
+     */
+    OrderedCursor(ValueIndex.Snapshot[] indexes, PostingsStore.Cursor[] cursors, Comparator<Object> order,
+                  int limit, Object startAfter, long afterNodeId) {
+        this.indexes = indexes;
+        this.cursors = cursors;
+        this.values = new Object[cursors.length];
+        this.order = order;
+        this.remaining = limit;
+        this.startAfter = startAfter;
+        this.afterNodeId = afterNodeId;
+        for (int i = 0; i < cursors.length; i++) {
+            advance(i);
+        }
+    }
+
+    private void advance(int i) {
+        values[i] = cursors[i] != null && cursors[i].next() ? indexes[i].value(cursors[i]) : null;
+    }
+
+    /**
+     * moves to the node-ids of the next value of all cursors in order
+     */
+    private boolean nextValue() {
+        int next = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && (next == -1 || order.compare(values[i], values[next]) < 0)) next = i;
+        }
+        if (next == -1) return false;
+        value = values[next];
+        Postings postings = cursors[next].postings();
+        if (startAfter == null || order.compare(value, startAfter) != 0) ids.reset(postings);
+        else if (afterNodeId == Long.MAX_VALUE) ids.clear();
+        else ids.reset(postings, afterNodeId + 1);
+        advance(next);
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (remaining <= 0) return false;
+        while (!ids.hasNext()) {
+            if (!nextValue()) {
+                remaining = 0;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        remaining--;
+        returned = value;
+        return ids.next();
+    }
+
+    /**
+     * @return the value of the node-id last returned by {@link #next()}, numbers in the type they are indexed by
+     */
+    public Object value() {
+        return returned;
+    }
+}
@@ -0,0 +1,150 @@
+package org.neo4j.index.memory.provider;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Append-only array of bytes made of ByteBuffer pages and addressed by long offsets, so it can grow beyond 2GB.
+ * Direct pages keep the bytes outside of the java heap, heap pages are plain byte[] that the garbage collector
+ * never has to trace. Values are aligned to their size and never cross a page. The last page grows
+ * by doubling until it reaches the page size. The memory is released when the array is garbage collected.
+ */
+final class PagedArray {
+    private static final int PAGE_SHIFT = 30;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int MIN_PAGE = 1 << 12;
+
+    private final boolean direct;
+    private ByteBuffer[] pages = new ByteBuffer[0];
+    private long length;
+
+    /**
+     * @param direct true for pages outside of the java heap
+     */
+    PagedArray(boolean direct) {
+        this.direct = direct;
+    }
+
+    private ByteBuffer allocatePage(int capacity) {
+        ByteBuffer page = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return page.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return number of bytes allocated so far
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return number of bytes of the pages, including the space reserved for growth
+     */
+    long capacity() {
+        long capacity = 0;
+        for (ByteBuffer page : pages) {
+            capacity += page.capacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * @return the offset of newly allocated bytes, aligned to align which must be a power of two up to 8
+     */
+    long allocate(long bytes, int align) {
+        if (bytes == 0) return length;
+        long offset = (length + align - 1) & -align;
+        long end = offset + bytes;
+        ensureCapacity(end);
+        length = end;
+        return offset;
+    }
+
+    private void ensureCapacity(long end) {
+        int page = (int) ((end - 1) >>> PAGE_SHIFT);
+        if (page < pages.length && pages[page].capacity() >= pageOffset(end - 1) + 1) return;
+        int last = pages.length - 1;
+        if (last >= 0 && last < page && pages[last].capacity() < PAGE_SIZE) {
+            pages[last] = grow(pages[last], PAGE_SIZE);
+        }
+        if (page >= pages.length) {
+            int from = pages.length;
+            pages = Arrays.copyOf(pages, page + 1);
+            for (int i = from; i < page; i++) {
+                pages[i] = allocatePage(PAGE_SIZE);
+            }
+            pages[page] = allocatePage(MIN_PAGE);
+        }
+        int needed = pageOffset(end - 1) + 1;
+        int capacity = pages[page].capacity();
+        while (capacity < needed) capacity = (int) Math.min((long) capacity << 1, PAGE_SIZE);
+        if (capacity != pages[page].capacity()) pages[page] = grow(pages[page], capacity);
+    }
+
+    private ByteBuffer grow(ByteBuffer page, int capacity) {
+        ByteBuffer grown = allocatePage(capacity);
+        ByteBuffer source = page.duplicate();
+        source.clear();
+        grown.put(source);
+        grown.clear();
+        return grown;
+    }
+
+    /**
+     * shrinks the last page to the allocated length, after the array is complete
+     */
+    void trim() {
+        if (pages.length == 0) return;
+        int last = pages.length - 1;
+        int used = pageOffset(length - 1) + 1;
+        if (used < pages[last].capacity()) {
+            ByteBuffer trimmed = allocatePage(used);
+            ByteBuffer source = pages[last].duplicate();
+            source.clear().limit(used);
+            trimmed.put(source);
+            pages[last] = trimmed;
+        }
+    }
+
+    private static int pageOffset(long offset) {
+        return (int) (offset & PAGE_MASK);
+    }
+
+    private ByteBuffer page(long offset) {
+        return pages[(int) (offset >>> PAGE_SHIFT)];
+    }
+
+    long getLong(long offset) {
+        return page(offset).getLong(pageOffset(offset));
+    }
+
+    void putLong(long offset, long value) {
+        page(offset).putLong(pageOffset(offset), value);
+    }
+
+    int getInt(long offset) {
+        return page(offset).getInt(pageOffset(offset));
+    }
+
+    void putInt(long offset, int value) {
+        page(offset).putInt(pageOffset(offset), value);
+    }
+
+    byte getByte(long offset) {
+        return page(offset).get(pageOffset(offset));
+    }
+
+    void putByte(long offset, byte value) {
+        page(offset).put(pageOffset(offset), value);
+    }
+
+    char getChar(long offset) {
+        return page(offset).getChar(pageOffset(offset));
+    }
+
+    void putChar(long offset, char value) {
+        page(offset).putChar(pageOffset(offset), value);
+    }
+}
@@ -0,0 +1,61 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Node-ids of the partitions of a snapshot, splits off the first half of its remaining partitions, so that a
+ * parallel stream reads every partition in a single task. The size is estimated from the entries of the snapshot.
+ */
+final class PartitionSpliterator implements Spliterator.OfLong {
+    private final List<Iterator<Postings>> partitions;
+    private int from;
+    private final int to;
+    private long estimate;
+    private PostingsCursor current;
+
+    PartitionSpliterator(List<Iterator<Postings>> partitions, long entries) {
+        this(partitions, 0, partitions.size(), entries);
+    }
+
+    private PartitionSpliterator(List<Iterator<Postings>> partitions, int from, int to, long estimate) {
+        this.partitions = partitions;
+        this.from = from;
+        this.to = to;
+        this.estimate = estimate;
+    }
+
+    @Override
+    public OfLong trySplit() {
+        if (current != null || to - from < 2) return null;
+        int mid = (from + to) >>> 1;
+        long half = estimate * (mid - from) / (to - from);
+        PartitionSpliterator prefix = new PartitionSpliterator(partitions, from, mid, half);
+        from = mid;
+        estimate -= half;
+        return prefix;
+    }
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+        while (current == null || !current.hasNext()) {
+            if (from >= to) return false;
+            if (current == null) current = new PostingsCursor();
+            current.reset(partitions.get(from++));
+        }
+        action.accept(current.next());
+        return true;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL | IMMUTABLE;
+    }
+}
@@ -0,0 +1,220 @@
+package org.neo4j.index.memory.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the (key, node-id) pairs of a sub-index during population, so that the store is built in one pass
+ * instead of by single inserts. Each thread appends to its own chunk of primitive arrays without synchronization.
+ * At the end the chunks are sorted in parallel on the fork/join pool and merged into a cursor of keys
+ * in ascending order with their distinct node-ids.
+ */
+final class PopulationBuffer {
+    private static final int MIN_CHUNK = 1 << 10;
+    private static final int MAX_CHUNK = 1 << 20;
+
+    private final boolean objectKeys;
+    private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Chunk> current = new ThreadLocal<>();
+
+    /**
+     * @param objectKeys true if the keys are Comparable objects, false for primitive long keys
+     */
+    PopulationBuffer(boolean objectKeys) {
+        this.objectKeys = objectKeys;
+    }
+
+    void add(long key, Object objectKey, long id) {
+        Chunk chunk = current.get();
+        if (chunk == null || chunk.size == MAX_CHUNK) {
+            chunk = new Chunk(objectKeys);
+            chunks.add(chunk);
+            current.set(chunk);
+        }
+        chunk.add(key, objectKey, id);
+    }
+
+    /**
+     * sorts the buffered pairs, must not be called concurrently with add()
+     *
+     * @return cursor over the keys in ascending order with their node-ids
+     */
+    PostingsStore.Cursor sorted() {
+        List<Chunk> sorted = new ArrayList<>(chunks);
+        sorted.parallelStream().forEach(Chunk::sort);
+        return new MergeCursor(sorted);
+    }
+
+    /**
+     * Parallel arrays of keys and node-ids, of which only the long or the object keys are used.
+     */
+    private static final class Chunk {
+        private static final int INSERTION_SORT = 16;
+
+        long[] keys;
+        Object[] objectKeys;
+        long[] ids = new long[MIN_CHUNK];
+        int size;
+
+        Chunk(boolean objectKeys) {
+            if (objectKeys) this.objectKeys = new Object[MIN_CHUNK];
+            else this.keys = new long[MIN_CHUNK];
+        }
+
+        void add(long key, Object objectKey, long id) {
+            if (size == ids.length) {
+                int capacity = Math.min(MAX_CHUNK, size * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                if (keys != null) keys = Arrays.copyOf(keys, capacity);
+                else objectKeys = Arrays.copyOf(objectKeys, capacity);
+            }
+            if (keys != null) keys[size] = key;
+            else objectKeys[size] = objectKey;
+            ids[size++] = id;
+        }
+
+        /**
+         * @return a negative, zero or positive value if the pair at i is less, equal or greater than the one at j of other
+         */
+        @SuppressWarnings("unchecked")
+        int compare(int i, Chunk other, int j) {
+            int cmp = keys != null ? Long.compare(keys[i], other.keys[j])
+                    : ((Comparable<Object>) objectKeys[i]).compareTo(other.objectKeys[j]);
+            return cmp != 0 ? cmp : Long.compare(ids[i], other.ids[j]);
+        }
+
+        private int compare(int i, int j) {
+            return compare(i, this, j);
+        }
+
+        private void swap(int i, int j) {
+            if (keys != null) {
+                long key = keys[i];
+                keys[i] = keys[j];
+                keys[j] = key;
+            } else {
+                Object key = objectKeys[i];
+                objectKeys[i] = objectKeys[j];
+                objectKeys[j] = key;
+            }
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+
+        void sort() {
+            sort(0, size - 1);
+        }
+
+        /**
+         * quicksort with median of three pivots, recursing into the smaller part only
+         */
+        private void sort(int low, int high) {
+            while (high - low > INSERTION_SORT) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, low) < 0) swap(mid, low);
+                if (compare(high, low) < 0) swap(high, low);
+                if (compare(high, mid) < 0) swap(high, mid);
+                int pivot = high - 1;
+                swap(mid, pivot);
+                int i = low, j = pivot;
+                while (true) {
+                    while (compare(++i, pivot) < 0) ;
+                    while (compare(--j, pivot) > 0) ;
+                    if (i >= j) break;
+                    swap(i, j);
+                }
+                swap(i, pivot);
+                if (i - low < high - i) {
+                    sort(low, i - 1);
+                    low = i + 1;
+                } else {
+                    sort(i + 1, high);
+                    high = i - 1;
+                }
+            }
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compare(j, j - 1) < 0; j--) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Position in a sorted chunk.
+     */
+    private static final class Head {
+        final Chunk chunk;
+        int pos;
+
+        Head(Chunk chunk) {
+            this.chunk = chunk;
+        }
+    }
+
+    /**
+     * Merges the sorted chunks with a heap of their heads, the node-ids of a key come out in ascending order.
+     */
+    private static final class MergeCursor implements PostingsStore.Cursor {
+        private final PriorityQueue<Head> heads;
+        private long[] ids = new long[16];
+        private long key;
+        private Object objectKey;
+        private Postings postings;
+
+        MergeCursor(List<Chunk> chunks) {
+            heads = new PriorityQueue<>(Math.max(1, chunks.size()), (a, b) -> a.chunk.compare(a.pos, b.chunk, b.pos));
+            for (Chunk chunk : chunks) {
+                if (chunk.size > 0) heads.add(new Head(chunk));
+            }
+        }
+
+        @Override
+        public boolean next() {
+            Head head = heads.peek();
+            if (head == null) return false;
+            Chunk first = head.chunk;
+            int firstPos = head.pos;
+            key = first.keys != null ? first.keys[firstPos] : 0;
+            objectKey = first.objectKeys != null ? first.objectKeys[firstPos] : null;
+            int count = 0;
+            while ((head = heads.peek()) != null && sameKey(head, first, firstPos)) {
+                heads.poll();
+                long id = head.chunk.ids[head.pos];
+                if (count == 0 || ids[count - 1] != id) {
+                    if (count == ids.length) ids = Arrays.copyOf(ids, Postings.grow(count));
+                    ids[count++] = id;
+                }
+                if (++head.pos < head.chunk.size) heads.add(head);
+            }
+            postings = Postings.of(Arrays.copyOf(ids, count));
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static boolean sameKey(Head head, Chunk chunk, int pos) {
+            if (chunk.keys != null) return head.chunk.keys[head.pos] == chunk.keys[pos];
+            return ((Comparable<Object>) head.chunk.objectKeys[head.pos]).compareTo(chunk.objectKeys[pos]) == 0;
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+
+        @Override
+        public Object objectKey() {
+            return objectKey;
+        }
+
+        @Override
+        public Postings postings() {
+            return postings;
+        }
+    }
+}
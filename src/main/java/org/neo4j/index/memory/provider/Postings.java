@@ -0,0 +1,173 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongIterable;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of node-ids stored for one property value. The container picks its representation
+ * by size and density: a single id, a sorted int[] while all ids fit into an int, a sorted long[],
+ * or a compressed bitmap for large, dense sets.
+ *
+ * Updates return the container to keep, which is either this one or a converted one.
+ * Containers are only updated in place by the {@link PostingsTree} write version that created them.
+ */
+public abstract class Postings implements PrimitiveLongIterable {
+    /**
+     * size from which the arrays check if a bitmap would be more compact
+     */
+    static final int ARRAY_LIMIT = 4096;
+
+    /**
+     * number of changes from which update() merges into a new container instead of changing ids one by one
+     */
+    private static final int BULK_UPDATE = 16;
+
+    /**
+     * write version of the {@link PostingsTree} that may update this container in place
+     */
+    long version;
+
+    public abstract int size();
+
+    public abstract boolean contains(long id);
+
+    /**
+     * @return ids in ascending order
+     */
+    @Override
+    public abstract PrimitiveLongIterator iterator();
+
+    /**
+     * @return the smallest id that is at least from, or -1 if there is none
+     */
+    abstract long next(long from);
+
+    /**
+     * Copies the ids that are at least from into the buffer in ascending order, as many as fit.
+     * Lets a {@link PostingsCursor} continue after the last id it read without keeping an iterator.
+     *
+     * @return the number of ids copied, 0 if there are none left
+     */
+    int read(long from, long[] buffer) {
+        int count = 0;
+        long id;
+        while (count < buffer.length && (id = next(from)) >= 0) {
+            buffer[count++] = id;
+            from = id + 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return a copy that is not affected by later updates of this container
+     */
+    abstract Postings copy();
+
+    /**
+     * @return the container holding the ids plus the given one, check size() to see if it was added
+     */
+    abstract Postings add(long id);
+
+    /**
+     * @return the container holding the ids without the given one, or null if none remain
+     */
+    abstract Postings remove(long id);
+
+    /**
+     * @return true if any of the ids is contained, probes the larger of both sets
+     */
+    boolean containsAny(PrimitiveLongSet ids) {
+        if (ids.size() < size()) {
+            for (PrimitiveLongIterator it = ids.iterator(); it.hasNext(); ) {
+                if (contains(it.next())) return true;
+            }
+        } else {
+            for (PrimitiveLongIterator it = iterator(); it.hasNext(); ) {
+                if (ids.contains(it.next())) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param add    ids to add in ascending order
+     * @param remove ids to remove in ascending order, none of them in add
+     * @return the container holding the ids with the changes applied, or null if none remain
+     */
+    Postings update(long[] add, long[] remove) {
+        if (add.length + remove.length <= BULK_UPDATE) {
+            Postings result = this;
+            for (int i = 0; i < remove.length && result != null; i++) {
+                result = result.remove(remove[i]);
+            }
+            for (long id : add) {
+                result = result == null ? of(id) : result.add(id);
+            }
+            return result;
+        }
+        long[] merged = new long[size() + add.length];
+        int count = 0, a = 0, r = 0;
+        for (PrimitiveLongIterator it = iterator(); it.hasNext(); ) {
+            long id = it.next();
+            while (a < add.length && add[a] < id) merged[count++] = add[a++];
+            if (a < add.length && add[a] == id) a++;
+            while (r < remove.length && remove[r] < id) r++;
+            if (r < remove.length && remove[r] == id) continue;
+            merged[count++] = id;
+        }
+        while (a < add.length) merged[count++] = add[a++];
+        if (count == 0) return null;
+        return of(count == merged.length ? merged : Arrays.copyOf(merged, count));
+    }
+
+    Postings removeAll(PrimitiveLongSet ids) {
+        Postings result = this;
+        PrimitiveLongIterator it = ids.iterator();
+        while (result != null && it.hasNext()) {
+            result = result.remove(it.next());
+        }
+        return result;
+    }
+
+    static Postings of(long id) {
+        return new SinglePosting(id);
+    }
+
+    static Postings of(long first, long second) {
+        if (first == second) return of(first);
+        long low = Math.min(first, second), high = Math.max(first, second);
+        if (IntArrayPostings.fits(low) && IntArrayPostings.fits(high)) {
+            return new IntArrayPostings(new int[]{(int) low, (int) high}, 2);
+        }
+        return new LongArrayPostings(new long[]{low, high}, 2);
+    }
+
+    /**
+     * @return the most compact container for the sorted, distinct ids, keeps the array if it uses a long[]
+     */
+    static Postings of(long[] ids) {
+        int size = ids.length;
+        if (size == 1) return of(ids[0]);
+        boolean ints = IntArrayPostings.fits(ids[0]) && IntArrayPostings.fits(ids[size - 1]);
+        if (size >= ARRAY_LIMIT && BitmapPostings.isMoreCompact(PrimitiveLongCollections.iterator(ids), size, ints ? Integer.BYTES : Long.BYTES)) {
+            return BitmapPostings.of(PrimitiveLongCollections.iterator(ids));
+        }
+        if (!ints) return new LongArrayPostings(ids, size);
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = (int) ids[i];
+        }
+        return new IntArrayPostings(values, size);
+    }
+
+    /**
+     * grows arrays by half their size, at least by one
+     */
+    static int grow(int capacity) {
+        return capacity + (capacity >> 1) + 1;
+    }
+}
@@ -0,0 +1,103 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reusable iterator over the node-ids of one or many {@link Postings}, reset for each lookup instead of allocating
+ * a new iterator. It copies the ids of the containers in batches into its own buffer and continues after the last id
+ * it read, so going through the postings allocates nothing, and a seek on a reused cursor allocates nothing either.
+ *
+ * Node-ids of different postings are returned one container after the other, those of each container in ascending order.
+ * A cursor is not thread-safe, it is meant to be kept by the thread doing the lookups.
+ */
+public final class PostingsCursor implements PrimitiveLongIterator {
+    static final int BATCH = 64;
+
+    private final long[] buffer = new long[BATCH];
+    private int pos, count;
+    private Postings postings;
+    /**
+     * smallest node-id of the current postings that is not in the buffer yet
+     */
+    private long from;
+    private Iterator<Postings> more;
+
+    /**
+     * @param postings node-ids to iterate over, null for none
+     */
+    PostingsCursor reset(Postings postings) {
+        clear();
+        this.postings = postings;
+        return this;
+    }
+
+    /**
+     * @param from smallest node-id of the postings to iterate over
+     */
+    PostingsCursor reset(Postings postings, long from) {
+        reset(postings);
+        this.from = from;
+        return this;
+    }
+
+    /**
+     * iterates over a single node-id, for stores that keep it inline without a {@link Postings} container
+     */
+    PostingsCursor reset(long id) {
+        clear();
+        buffer[0] = id;
+        count = 1;
+        return this;
+    }
+
+    /**
+     * iterates over the node-ids of all postings, skipping nulls
+     */
+    PostingsCursor reset(Iterator<Postings> postings) {
+        clear();
+        more = postings;
+        return this;
+    }
+
+    /**
+     * releases the postings, e.g. to not keep an old snapshot reachable from a cursor that is kept around
+     */
+    public PostingsCursor clear() {
+        pos = count = 0;
+        postings = null;
+        more = null;
+        from = 0;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (pos == count) {
+            if (postings != null) {
+                count = postings.read(from, buffer);
+                pos = 0;
+                if (count > 0) {
+                    from = buffer[count - 1] + 1;
+                    return true;
+                }
+                postings = null;
+            }
+            if (more == null || !more.hasNext()) {
+                more = null;
+                return false;
+            }
+            postings = more.next();
+            from = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public long next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return buffer[pos++];
+    }
+}
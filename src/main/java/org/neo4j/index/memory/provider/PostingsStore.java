@@ -0,0 +1,309 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Storage of the keys of a sub-index and the node-ids having them. Keys are passed as a (long, Object) pair
+ * of which each store only uses its own half, see {@link PostingsTree}.
+ *
+ * Updates and {@link #snapshot()} are called by one thread at a time, unless the store is {@link #concurrent()},
+ * snapshots are read concurrently.
+ */
+interface PostingsStore {
+    /**
+     * @return true if the node-id was not yet stored for the key
+     */
+    boolean add(long key, Object objectKey, long id);
+
+    /**
+     * @return true if the node-id was stored for the key
+     */
+    boolean remove(long key, Object objectKey, long id);
+
+    /**
+     * @return the node-ids of the key in the current state or null, called by the writer
+     */
+    Postings get(long key, Object objectKey);
+
+    /**
+     * adds the node-id unless another node-id is stored for the key
+     *
+     * @return the id of another node having the key, then nothing was added, otherwise -1
+     */
+    default long addUnique(long key, Object objectKey, long id) {
+        long other = other(get(key, objectKey), id);
+        if (other == -1) add(key, objectKey, id);
+        return other;
+    }
+
+    /**
+     * @return the first node-id of the postings other than id, or -1 if there is none
+     */
+    static long other(Postings postings, long id) {
+        if (postings == null) return -1;
+        for (PrimitiveLongIterator it = postings.iterator(); it.hasNext(); ) {
+            long next = it.next();
+            if (next != id) return next;
+        }
+        return -1;
+    }
+
+    /**
+     * applies the net change of a key at once
+     *
+     * @param add    node-ids to add in ascending order
+     * @param remove node-ids to remove in ascending order, none of them in add
+     * @return the change of the number of node-ids
+     */
+    default long update(long key, Object objectKey, long[] add, long[] remove) {
+        long delta = 0;
+        for (long id : remove) {
+            if (remove(key, objectKey, id)) delta--;
+        }
+        for (long id : add) {
+            if (add(key, objectKey, id)) delta++;
+        }
+        return delta;
+    }
+
+    /**
+     * @return true if add, remove, addUnique, update, get and snapshot may be called concurrently,
+     * the other methods are still called by one thread at a time with no other calls running
+     */
+    default boolean concurrent() {
+        return false;
+    }
+
+    /**
+     * @return true if {@link #rebalance()} should be called, safe to call concurrently with updates
+     */
+    default boolean unbalanced() {
+        return false;
+    }
+
+    /**
+     * restructures the store after updates made it uneven, called with no other calls running
+     */
+    default void rebalance() {
+    }
+
+    /**
+     * removes the given node-ids from all keys, drops keys that have none left
+     */
+    void removeAll(PrimitiveLongSet nodeIds);
+
+    void clear();
+
+    /**
+     * replaces the contents of the store by the entries of the cursor, which come in ascending key order
+     */
+    void load(Cursor entries);
+
+    /**
+     * @return the current state of the store, unchanged by later updates
+     */
+    Snapshot snapshot();
+
+    /**
+     * @return the last snapshot if there were no updates since, otherwise null, safe to call concurrently with updates
+     */
+    Snapshot published();
+
+    /**
+     * @return iterator over the postings of the cursor's entries
+     */
+    static Iterator<Postings> values(Cursor cursor) {
+        return new Iterator<Postings>() {
+            boolean ready = cursor.next();
+
+            public boolean hasNext() {
+                return ready;
+            }
+
+            public Postings next() {
+                if (!ready) throw new NoSuchElementException();
+                Postings value = cursor.postings();
+                ready = cursor.next();
+                return value;
+            }
+        };
+    }
+
+    /**
+     * @return iterator over the postings of the cursor's entries whose object key passes the filter
+     */
+    static Iterator<Postings> values(Cursor cursor, Predicate<Object> filter) {
+        return new Iterator<Postings>() {
+            boolean ready = advance();
+
+            private boolean advance() {
+                while (cursor.next()) {
+                    if (filter.test(cursor.objectKey())) return true;
+                }
+                return false;
+            }
+
+            public boolean hasNext() {
+                return ready;
+            }
+
+            public Postings next() {
+                if (!ready) throw new NoSuchElementException();
+                Postings value = cursor.postings();
+                ready = advance();
+                return value;
+            }
+        };
+    }
+
+    /**
+     * splits the snapshot's keys at the given bounds into ranges, from the first key to the first bound,
+     * between each two bounds and from the last bound to the last key, each including its lower bound
+     *
+     * @param count number of bounds, which are distinct and in ascending order
+     */
+    static List<Iterator<Postings>> partitions(Snapshot snapshot, long[] keys, Object[] objectKeys, int count) {
+        List<Iterator<Postings>> partitions = new ArrayList<>(count + 1);
+        long from = Long.MIN_VALUE;
+        Object objectFrom = null;
+        for (int i = 0; i < count; i++) {
+            partitions.add(snapshot.values(from, objectFrom, true, keys[i], objectKeys[i], false));
+            from = keys[i];
+            objectFrom = objectKeys[i];
+        }
+        partitions.add(snapshot.values(from, objectFrom, true, Long.MAX_VALUE, null, true));
+        return partitions;
+    }
+
+    /**
+     * Immutable view of a store, safe to read concurrently with updates.
+     */
+    interface Snapshot {
+        Postings get(long key, Object objectKey);
+
+        /**
+         * resets the cursor to the node-ids of the key, stores that keep single node-ids inline do so without allocating
+         *
+         * @return false if the key is not stored
+         */
+        default boolean get(long key, Object objectKey, PostingsCursor cursor) {
+            Postings postings = get(key, objectKey);
+            cursor.reset(postings);
+            return postings != null;
+        }
+
+        /**
+         * looks up several keys, of which the store only uses its own half, the other array may be null
+         *
+         * @param count number of keys, which are distinct and in ascending order
+         * @return the postings of each key, null for keys that are not stored
+         */
+        default Postings[] getAll(long[] keys, Object[] objectKeys, int count) {
+            Postings[] postings = new Postings[count];
+            for (int i = 0; i < count; i++) {
+                postings[i] = get(keys == null ? 0 : keys[i], objectKeys == null ? null : objectKeys[i]);
+            }
+            return postings;
+        }
+
+        /**
+         * @return postings for the keys between from and to in key order
+         */
+        Iterator<Postings> values(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo);
+
+        /**
+         * @return postings for the keys between from and to in no particular order,
+         * stores made of independent parts read them in parallel
+         */
+        default Iterator<Postings> parallelValues(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return values(from, objectFrom, includeFrom, to, objectTo, includeTo);
+        }
+
+        /**
+         * @return postings of all keys, in key order unless the store only keeps it for ranges
+         */
+        default Iterator<Postings> values() {
+            return values(Long.MIN_VALUE, null, true, Long.MAX_VALUE, null, true);
+        }
+
+        /**
+         * splits the keys into disjoint partitions of about the same number of keys, that can be read in parallel
+         *
+         * @param count wanted number of partitions, stores may return fewer if they have few keys, or a few more
+         * @return postings of the keys of each partition, together those of {@link #values()}
+         */
+        default List<Iterator<Postings>> partitions(int count) {
+            return Collections.singletonList(values());
+        }
+
+        /**
+         * @return a cursor over the keys between from and to in key order
+         */
+        Cursor cursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo);
+
+        /**
+         * @return a cursor over the keys between from and to in descending key order, starting at to
+         */
+        Cursor descendingCursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo);
+
+        /**
+         * @return a cursor over all keys in key order, stores that only keep it for ranges sort their keys for it
+         */
+        default Cursor cursor() {
+            return cursor(Long.MIN_VALUE, null, true, Long.MAX_VALUE, null, true);
+        }
+
+        /**
+         * @return a cursor over all keys in no particular order, for walks that don't depend on the key order
+         */
+        default Cursor unorderedCursor() {
+            return cursor();
+        }
+
+        /**
+         * @return number of keys
+         */
+        int size();
+
+        /**
+         * @return number of node-ids over all keys
+         */
+        long entries();
+
+        /**
+         * @return estimated bytes on the java heap, about 48 per key for its map entry and postings
+         * and 8 per node-id, not counting key objects
+         */
+        default long heapBytes() {
+            return size() * 48L + entries() * 8L;
+        }
+
+        /**
+         * @return bytes outside of the java heap
+         */
+        default long offHeapBytes() {
+            return 0;
+        }
+    }
+
+    /**
+     * Walk over keys in ascending order with their node-ids. Call next() before accessing the first entry.
+     */
+    interface Cursor {
+        boolean next();
+
+        long key();
+
+        Object objectKey();
+
+        Postings postings();
+    }
+}
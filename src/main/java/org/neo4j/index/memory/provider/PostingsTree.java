@@ -0,0 +1,752 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sorted map from keys to the node-ids having them, implemented as a B+tree with sorted key arrays per node.
+ * Subclasses define the key arrays, keys are passed as a (long, Object) pair of which each subclass only uses
+ * its own half, so primitive keys are never boxed.
+ *
+ * Leaves store a key's node-id inline as long as it is the only one, {@link Postings} only for more.
+ * Inner nodes keep the lowest key of each child, the first one is only a lower bound.
+ *
+ * Nodes and postings are copied on write. Each of them carries the write version that created it and only
+ * those of the current version are updated in place, all others are copied together with the path leading to them.
+ * A snapshot captures the root and starts a new version, so it is taken in O(1) and never changes afterwards.
+ * Versions that are no longer referenced by a snapshot are reclaimed by the garbage collector.
+ *
+ * Updates and {@link #snapshot()} must not run concurrently, reading a snapshot needs no synchronization.
+ */
+abstract class PostingsTree implements PostingsStore {
+    static final int NODE_SIZE = 64;
+    private static final int MIN_FILL = NODE_SIZE / 4;
+    private static final int LOAD_FILL = NODE_SIZE * 3 / 4;
+
+    private Node root;
+    private int size;
+    private long entries;
+    private int height = 1;
+    private long version = 1;
+    private volatile boolean dirty = true;
+    private volatile TreeSnapshot snapshot;
+
+    PostingsTree() {
+        root = new Leaf(newKeys(), version);
+    }
+
+    /**
+     * @return a key array for NODE_SIZE + 1 keys
+     */
+    abstract Object newKeys();
+
+    /**
+     * @return the index of the key within the first count keys, or (-(insertion point) - 1) like Arrays.binarySearch
+     */
+    abstract int search(Object keys, int count, long key, Object objectKey);
+
+    /**
+     * @return a negative, zero or positive value if keys[idx] is less, equal or greater than the key
+     */
+    abstract int compare(Object keys, int idx, long key, Object objectKey);
+
+    abstract void setKey(Object keys, int idx, long key, Object objectKey);
+
+    abstract long longKey(Object keys, int idx);
+
+    abstract Object objectKey(Object keys, int idx);
+
+    /**
+     * @return true if the key stands for an open range bound
+     */
+    abstract boolean open(Object objectKey);
+
+    /**
+     * releases references held by unused key slots
+     */
+    void clearKeys(Object keys, int from, int to) {
+    }
+
+    abstract static class Node {
+        final Object keys;
+        final long version;
+        int count;
+
+        Node(Object keys, long version) {
+            this.keys = keys;
+            this.version = version;
+        }
+    }
+
+    /**
+     * postings[i] == null means ids[i] is the only node-id for keys[i]
+     */
+    static final class Leaf extends Node {
+        final long[] ids = new long[NODE_SIZE + 1];
+        final Postings[] postings = new Postings[NODE_SIZE + 1];
+
+        Leaf(Object keys, long version) {
+            super(keys, version);
+        }
+
+        Postings postings(int idx) {
+            return postings[idx] == null ? Postings.of(ids[idx]) : postings[idx];
+        }
+    }
+
+    static final class Inner extends Node {
+        final Node[] children = new Node[NODE_SIZE + 1];
+
+        Inner(Object keys, long version) {
+            super(keys, version);
+        }
+    }
+
+    /**
+     * @return number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of node-ids over all keys
+     */
+    public long entries() {
+        return entries;
+    }
+
+    @Override
+    public void clear() {
+        dirty = true;
+        root = new Leaf(newKeys(), version);
+        size = 0;
+        entries = 0;
+        height = 1;
+    }
+
+    /**
+     * Builds the tree bottom up, nodes are filled to 3/4 so that later inserts don't split them right away.
+     * The tree keeps the postings of the cursor, so they must not be used elsewhere.
+     */
+    @Override
+    public void load(PostingsStore.Cursor cursor) {
+        clear();
+        List<Node> nodes = new ArrayList<>();
+        Leaf leaf = null;
+        while (cursor.next()) {
+            Postings postings = cursor.postings();
+            int count = postings.size();
+            if (count == 0) continue;
+            if (leaf == null || leaf.count == LOAD_FILL) {
+                leaf = new Leaf(newKeys(), version);
+                nodes.add(leaf);
+            }
+            int idx = leaf.count++;
+            setKey(leaf.keys, idx, cursor.key(), cursor.objectKey());
+            if (count == 1) leaf.ids[idx] = postings.iterator().next();
+            else setPostings(leaf, idx, postings);
+            size++;
+            entries += count;
+        }
+        while (nodes.size() > 1) {
+            List<Node> parents = new ArrayList<>(nodes.size() / LOAD_FILL + 1);
+            Inner inner = null;
+            for (Node child : nodes) {
+                if (inner == null || inner.count == LOAD_FILL) {
+                    inner = new Inner(newKeys(), version);
+                    parents.add(inner);
+                }
+                System.arraycopy(child.keys, 0, inner.keys, inner.count, 1);
+                inner.children[inner.count++] = child;
+            }
+            nodes = parents;
+            height++;
+        }
+        if (!nodes.isEmpty()) root = nodes.get(0);
+    }
+
+    @Override
+    public TreeSnapshot snapshot() {
+        if (dirty) {
+            snapshot = new TreeSnapshot(root, height, size, entries);
+            version++;
+            dirty = false;
+        }
+        return snapshot;
+    }
+
+    @Override
+    public TreeSnapshot published() {
+        return dirty ? null : snapshot;
+    }
+
+    /**
+     * @return the node-ids of the key in the current version or null
+     */
+    @Override
+    public Postings get(long key, Object objectKey) {
+        return get(root, key, objectKey);
+    }
+
+    private Postings get(Node node, long key, Object objectKey) {
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[childIndex(node, key, objectKey)];
+        }
+        Leaf leaf = (Leaf) node;
+        int idx = search(leaf.keys, leaf.count, key, objectKey);
+        return idx < 0 ? null : leaf.postings(idx);
+    }
+
+    private boolean get(Node node, long key, Object objectKey, PostingsCursor cursor) {
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[childIndex(node, key, objectKey)];
+        }
+        Leaf leaf = (Leaf) node;
+        int idx = search(leaf.keys, leaf.count, key, objectKey);
+        if (idx < 0) {
+            cursor.clear();
+            return false;
+        }
+        if (leaf.postings[idx] == null) cursor.reset(leaf.ids[idx]);
+        else cursor.reset(leaf.postings[idx]);
+        return true;
+    }
+
+    @Override
+    public boolean add(long key, Object objectKey, long id) {
+        dirty = true;
+        Node node = root = writable(root);
+        boolean added = insert(node, key, objectKey, id);
+        if (node.count > NODE_SIZE) {
+            Inner newRoot = new Inner(newKeys(), version);
+            System.arraycopy(node.keys, 0, newRoot.keys, 0, 1);
+            newRoot.children[0] = node;
+            newRoot.count = 1;
+            split(newRoot, 0);
+            root = newRoot;
+            height++;
+        }
+        if (added) entries++;
+        return added;
+    }
+
+    @Override
+    public boolean remove(long key, Object objectKey, long id) {
+        dirty = true;
+        Node node = root = writable(root);
+        boolean removed = delete(node, key, objectKey, id);
+        if (node instanceof Inner && node.count == 1) {
+            root = ((Inner) node).children[0];
+            height--;
+        }
+        if (removed) entries--;
+        return removed;
+    }
+
+    @Override
+    public long update(long key, Object objectKey, long[] add, long[] remove) {
+        dirty = true;
+        Node node = root = writable(root);
+        long delta = update(node, key, objectKey, add, remove);
+        if (node.count > NODE_SIZE) {
+            Inner newRoot = new Inner(newKeys(), version);
+            System.arraycopy(node.keys, 0, newRoot.keys, 0, 1);
+            newRoot.children[0] = node;
+            newRoot.count = 1;
+            split(newRoot, 0);
+            root = newRoot;
+            height++;
+        } else if (node instanceof Inner && node.count == 1) {
+            root = ((Inner) node).children[0];
+            height--;
+        }
+        entries += delta;
+        return delta;
+    }
+
+    /**
+     * @return the node itself if it belongs to the current version, otherwise a copy that does
+     */
+    private Node writable(Node node) {
+        if (node.version == version) return node;
+        Node copy;
+        if (node instanceof Leaf) {
+            Leaf leaf = new Leaf(newKeys(), version);
+            System.arraycopy(((Leaf) node).ids, 0, leaf.ids, 0, node.count);
+            System.arraycopy(((Leaf) node).postings, 0, leaf.postings, 0, node.count);
+            copy = leaf;
+        } else {
+            Inner inner = new Inner(newKeys(), version);
+            System.arraycopy(((Inner) node).children, 0, inner.children, 0, node.count);
+            copy = inner;
+        }
+        System.arraycopy(node.keys, 0, copy.keys, 0, node.count);
+        copy.count = node.count;
+        return copy;
+    }
+
+    /**
+     * @return the postings itself if they belong to the current version, otherwise a copy that does
+     */
+    private Postings writable(Postings postings) {
+        if (postings.version == version) return postings;
+        Postings copy = postings.copy();
+        copy.version = version;
+        return copy;
+    }
+
+    private boolean insert(Node node, long key, Object objectKey, long id) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int idx = search(leaf.keys, leaf.count, key, objectKey);
+            if (idx >= 0) {
+                Postings postings = leaf.postings[idx];
+                if (postings == null) {
+                    if (leaf.ids[idx] == id) return false;
+                    postings = Postings.of(leaf.ids[idx], id);
+                } else {
+                    if (postings.contains(id)) return false;
+                    postings = writable(postings).add(id);
+                }
+                postings.version = version;
+                leaf.postings[idx] = postings;
+                return true;
+            }
+            idx = -idx - 1;
+            int move = leaf.count - idx;
+            System.arraycopy(leaf.keys, idx, leaf.keys, idx + 1, move);
+            System.arraycopy(leaf.ids, idx, leaf.ids, idx + 1, move);
+            System.arraycopy(leaf.postings, idx, leaf.postings, idx + 1, move);
+            setKey(leaf.keys, idx, key, objectKey);
+            leaf.ids[idx] = id;
+            leaf.postings[idx] = null;
+            leaf.count++;
+            size++;
+            return true;
+        }
+        Inner inner = (Inner) node;
+        int idx = childIndex(inner, key, objectKey);
+        if (compare(inner.keys, 0, key, objectKey) > 0) setKey(inner.keys, 0, key, objectKey);
+        Node child = inner.children[idx] = writable(inner.children[idx]);
+        boolean added = insert(child, key, objectKey, id);
+        if (child.count > NODE_SIZE) split(inner, idx);
+        return added;
+    }
+
+    private boolean delete(Node node, long key, Object objectKey, long id) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int idx = search(leaf.keys, leaf.count, key, objectKey);
+            if (idx < 0) return false;
+            Postings postings = leaf.postings[idx];
+            if (postings != null) {
+                if (!postings.contains(id)) return false;
+                setPostings(leaf, idx, writable(postings).remove(id));
+                return true;
+            }
+            if (leaf.ids[idx] != id) return false;
+            int move = leaf.count - idx - 1;
+            System.arraycopy(leaf.keys, idx + 1, leaf.keys, idx, move);
+            System.arraycopy(leaf.ids, idx + 1, leaf.ids, idx, move);
+            System.arraycopy(leaf.postings, idx + 1, leaf.postings, idx, move);
+            leaf.count--;
+            leaf.postings[leaf.count] = null;
+            clearKeys(leaf.keys, leaf.count, leaf.count + 1);
+            size--;
+            return true;
+        }
+        Inner inner = (Inner) node;
+        int idx = childIndex(inner, key, objectKey);
+        Node child = inner.children[idx] = writable(inner.children[idx]);
+        boolean removed = delete(child, key, objectKey, id);
+        if (removed && child.count < MIN_FILL) rebalance(inner, idx);
+        return removed;
+    }
+
+    /**
+     * applies all changes of one key in a single descent, the key is inserted or dropped at most once
+     *
+     * @return the change of the number of node-ids
+     */
+    private long update(Node node, long key, Object objectKey, long[] add, long[] remove) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int idx = search(leaf.keys, leaf.count, key, objectKey);
+            if (idx < 0) {
+                if (add.length == 0) return 0;
+                idx = -idx - 1;
+                int move = leaf.count - idx;
+                System.arraycopy(leaf.keys, idx, leaf.keys, idx + 1, move);
+                System.arraycopy(leaf.ids, idx, leaf.ids, idx + 1, move);
+                System.arraycopy(leaf.postings, idx, leaf.postings, idx + 1, move);
+                setKey(leaf.keys, idx, key, objectKey);
+                leaf.count++;
+                size++;
+                setPostings(leaf, idx, Postings.of(add));
+                return add.length;
+            }
+            Postings postings = leaf.postings[idx];
+            postings = postings == null ? Postings.of(leaf.ids[idx]) : writable(postings);
+            int before = postings.size();
+            postings = postings.update(add, remove);
+            if (postings != null) {
+                setPostings(leaf, idx, postings);
+                return postings.size() - before;
+            }
+            int move = leaf.count - idx - 1;
+            System.arraycopy(leaf.keys, idx + 1, leaf.keys, idx, move);
+            System.arraycopy(leaf.ids, idx + 1, leaf.ids, idx, move);
+            System.arraycopy(leaf.postings, idx + 1, leaf.postings, idx, move);
+            leaf.count--;
+            leaf.postings[leaf.count] = null;
+            clearKeys(leaf.keys, leaf.count, leaf.count + 1);
+            size--;
+            return -before;
+        }
+        Inner inner = (Inner) node;
+        int idx = childIndex(inner, key, objectKey);
+        if (add.length > 0 && compare(inner.keys, 0, key, objectKey) > 0) setKey(inner.keys, 0, key, objectKey);
+        Node child = inner.children[idx] = writable(inner.children[idx]);
+        int count = child.count;
+        long delta = update(child, key, objectKey, add, remove);
+        if (child.count > NODE_SIZE) split(inner, idx);
+        else if (child.count < count && child.count < MIN_FILL) rebalance(inner, idx);
+        return delta;
+    }
+
+    /**
+     * stores non-empty postings of the current version, inlining single node-ids
+     */
+    private void setPostings(Leaf leaf, int idx, Postings postings) {
+        if (postings instanceof SinglePosting) {
+            leaf.ids[idx] = ((SinglePosting) postings).id;
+            leaf.postings[idx] = null;
+        } else {
+            postings.version = version;
+            leaf.postings[idx] = postings;
+        }
+    }
+
+    @Override
+    public void removeAll(PrimitiveLongSet nodeIds) {
+        dirty = true;
+        Node node = root = deleteAll(root, nodeIds);
+        if (node instanceof Inner && node.count == 0) {
+            root = new Leaf(newKeys(), version);
+            height = 1;
+        }
+        while (root instanceof Inner && root.count == 1) {
+            root = ((Inner) root).children[0];
+            height--;
+        }
+    }
+
+    /**
+     * @return the node without the node-ids, copied only if any of them were found below it
+     */
+    private Node deleteAll(Node node, PrimitiveLongSet nodeIds) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            if (!containsAny(leaf, nodeIds)) return node;
+            leaf = (Leaf) writable(leaf);
+            int kept = 0;
+            for (int i = 0; i < leaf.count; i++) {
+                Postings postings = leaf.postings[i];
+                if (postings == null) {
+                    if (nodeIds.contains(leaf.ids[i])) {
+                        entries--;
+                        continue;
+                    }
+                } else if (postings.containsAny(nodeIds)) {
+                    int before = postings.size();
+                    postings = writable(postings).removeAll(nodeIds);
+                    entries -= before - (postings == null ? 0 : postings.size());
+                    if (postings == null) continue;
+                    setPostings(leaf, i, postings);
+                }
+                System.arraycopy(leaf.keys, i, leaf.keys, kept, 1);
+                leaf.ids[kept] = leaf.ids[i];
+                leaf.postings[kept] = leaf.postings[i];
+                kept++;
+            }
+            Arrays.fill(leaf.postings, kept, leaf.count, null);
+            clearKeys(leaf.keys, kept, leaf.count);
+            size -= leaf.count - kept;
+            leaf.count = kept;
+            return leaf;
+        }
+        Inner inner = (Inner) node;
+        for (int i = 0; i < inner.count; i++) {
+            long before = entries;
+            Node child = deleteAll(inner.children[i], nodeIds);
+            if (entries == before) continue;
+            inner = (Inner) writable(inner);
+            inner.children[i] = child;
+        }
+        for (int i = inner.count - 1; i >= 0 && inner.version == version; i--) {
+            if (i < inner.count && inner.children[i].count < MIN_FILL) rebalance(inner, i);
+        }
+        return inner;
+    }
+
+    private static boolean containsAny(Leaf leaf, PrimitiveLongSet nodeIds) {
+        for (int i = 0; i < leaf.count; i++) {
+            Postings postings = leaf.postings[i];
+            if (postings == null ? nodeIds.contains(leaf.ids[i]) : postings.containsAny(nodeIds)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * splits the overflowing child at idx into two halves, the right half is inserted after it
+     */
+    private void split(Inner parent, int idx) {
+        Node child = parent.children[idx];
+        int half = child.count / 2;
+        int moved = child.count - half;
+        Node right;
+        if (child instanceof Leaf) {
+            Leaf leaf = new Leaf(newKeys(), version);
+            System.arraycopy(((Leaf) child).ids, half, leaf.ids, 0, moved);
+            System.arraycopy(((Leaf) child).postings, half, leaf.postings, 0, moved);
+            Arrays.fill(((Leaf) child).postings, half, child.count, null);
+            right = leaf;
+        } else {
+            Inner inner = new Inner(newKeys(), version);
+            System.arraycopy(((Inner) child).children, half, inner.children, 0, moved);
+            Arrays.fill(((Inner) child).children, half, child.count, null);
+            right = inner;
+        }
+        System.arraycopy(child.keys, half, right.keys, 0, moved);
+        clearKeys(child.keys, half, child.count);
+        right.count = moved;
+        child.count = half;
+        insertChild(parent, idx + 1, right);
+    }
+
+    /**
+     * merges an underfilled child with a neighbour, or drops it when it became empty
+     */
+    private void rebalance(Inner parent, int idx) {
+        Node child = parent.children[idx];
+        if (child.count == 0) {
+            removeChild(parent, idx);
+            return;
+        }
+        int left = idx > 0 ? idx - 1 : idx;
+        if (left + 1 >= parent.count) return;
+        Node b = parent.children[left + 1];
+        if (parent.children[left].count + b.count > NODE_SIZE) return;
+        Node a = parent.children[left] = writable(parent.children[left]);
+        System.arraycopy(b.keys, 0, a.keys, a.count, b.count);
+        if (a instanceof Leaf) {
+            System.arraycopy(((Leaf) b).ids, 0, ((Leaf) a).ids, a.count, b.count);
+            System.arraycopy(((Leaf) b).postings, 0, ((Leaf) a).postings, a.count, b.count);
+        } else {
+            System.arraycopy(((Inner) b).children, 0, ((Inner) a).children, a.count, b.count);
+            // the first key of an inner node is only a lower bound, the parent's separator is exact
+            System.arraycopy(parent.keys, left + 1, a.keys, a.count, 1);
+        }
+        a.count += b.count;
+        removeChild(parent, left + 1);
+    }
+
+    private static void insertChild(Inner parent, int idx, Node child) {
+        int move = parent.count - idx;
+        System.arraycopy(parent.keys, idx, parent.keys, idx + 1, move);
+        System.arraycopy(parent.children, idx, parent.children, idx + 1, move);
+        System.arraycopy(child.keys, 0, parent.keys, idx, 1);
+        parent.children[idx] = child;
+        parent.count++;
+    }
+
+    private void removeChild(Inner parent, int idx) {
+        int move = parent.count - idx - 1;
+        System.arraycopy(parent.keys, idx + 1, parent.keys, idx, move);
+        System.arraycopy(parent.children, idx + 1, parent.children, idx, move);
+        parent.count--;
+        parent.children[parent.count] = null;
+        clearKeys(parent.keys, parent.count, parent.count + 1);
+    }
+
+    private int childIndex(Node node, long key, Object objectKey) {
+        int idx = search(node.keys, node.count, key, objectKey);
+        if (idx >= 0) return idx;
+        idx = -idx - 2;
+        return idx < 0 ? 0 : idx;
+    }
+
+    /**
+     * Immutable view of the tree at the time it was taken, safe to read concurrently with updates.
+     */
+    final class TreeSnapshot implements PostingsStore.Snapshot {
+        private final Node root;
+        private final int height;
+        private final int size;
+        private final long entries;
+
+        private TreeSnapshot(Node root, int height, int size, long entries) {
+            this.root = root;
+            this.height = height;
+            this.size = size;
+            this.entries = entries;
+        }
+
+        @Override
+        public Postings get(long key, Object objectKey) {
+            return PostingsTree.this.get(root, key, objectKey);
+        }
+
+        @Override
+        public boolean get(long key, Object objectKey, PostingsCursor cursor) {
+            return PostingsTree.this.get(root, key, objectKey, cursor);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long entries() {
+            return entries;
+        }
+
+        @Override
+        public Iterator<Postings> values(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return PostingsStore.values(cursor(from, objectFrom, includeFrom, to, objectTo, includeTo));
+        }
+
+        @Override
+        public Cursor cursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return new Cursor(root, height, from, objectFrom, includeFrom, to, objectTo, includeTo, false);
+        }
+
+        @Override
+        public Cursor descendingCursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return new Cursor(root, height, from, objectFrom, includeFrom, to, objectTo, includeTo, true);
+        }
+    }
+
+    /**
+     * Walk over the leaves of a snapshot in ascending or descending order, keeps the path from the root as a stack.
+     * Call next() before accessing the first entry.
+     */
+    class Cursor implements PostingsStore.Cursor {
+        private final Node[] path;
+        private final int[] positions;
+        private final boolean descending;
+        /**
+         * the bound the walk ends at, the upper one when ascending, the lower one when descending
+         */
+        private final long end;
+        private final Object objectEnd;
+        private final boolean includeEnd, bounded;
+        private Leaf leaf;
+        private int pos;
+
+        private Cursor(Node root, int height, long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo, boolean descending) {
+            this.path = new Node[height];
+            this.positions = new int[height];
+            this.descending = descending;
+            long start = descending ? to : from;
+            Object objectStart = descending ? objectTo : objectFrom;
+            boolean includeStart = descending ? includeTo : includeFrom;
+            this.end = descending ? from : to;
+            this.objectEnd = descending ? objectFrom : objectTo;
+            this.includeEnd = descending ? includeFrom : includeTo;
+            this.bounded = !open(objectEnd);
+            boolean fromEdge = open(objectStart);
+            Node node = root;
+            int depth = 0;
+            while (node instanceof Inner) {
+                int idx = !fromEdge ? childIndex(node, start, objectStart) : descending ? node.count - 1 : 0;
+                path[depth] = node;
+                positions[depth++] = idx;
+                node = ((Inner) node).children[idx];
+            }
+            leaf = (Leaf) node;
+            if (fromEdge) {
+                pos = descending ? leaf.count : -1;
+            } else {
+                int idx = search(leaf.keys, leaf.count, start, objectStart);
+                if (descending) pos = (idx >= 0 ? (includeStart ? idx : idx - 1) : -idx - 2) + 1;
+                else pos = (idx >= 0 ? (includeStart ? idx : idx + 1) : -idx - 1) - 1;
+            }
+        }
+
+        @Override
+        public boolean next() {
+            if (leaf == null) return false;
+            if (descending ? --pos < 0 && !previousLeaf() : ++pos >= leaf.count && !nextLeaf()) return false;
+            if (bounded) {
+                int cmp = compare(leaf.keys, pos, end, objectEnd);
+                if ((descending ? cmp < 0 : cmp > 0) || cmp == 0 && !includeEnd) {
+                    leaf = null;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean previousLeaf() {
+            int depth = path.length - 1;
+            while (--depth >= 0) {
+                if (--positions[depth] >= 0) break;
+            }
+            if (depth < 0) {
+                leaf = null;
+                return false;
+            }
+            Node node = ((Inner) path[depth]).children[positions[depth]];
+            while (node instanceof Inner) {
+                path[++depth] = node;
+                positions[depth] = node.count - 1;
+                node = ((Inner) node).children[node.count - 1];
+            }
+            leaf = (Leaf) node;
+            pos = leaf.count - 1;
+            return leaf.count > 0;
+        }
+
+        private boolean nextLeaf() {
+            int depth = path.length - 1;
+            while (--depth >= 0) {
+                if (++positions[depth] < path[depth].count) break;
+            }
+            if (depth < 0) {
+                leaf = null;
+                return false;
+            }
+            Node node = ((Inner) path[depth]).children[positions[depth]];
+            while (node instanceof Inner) {
+                path[++depth] = node;
+                positions[depth] = 0;
+                node = ((Inner) node).children[0];
+            }
+            leaf = (Leaf) node;
+            pos = 0;
+            return leaf.count > 0;
+        }
+
+        @Override
+        public long key() {
+            return longKey(leaf.keys, pos);
+        }
+
+        @Override
+        public Object objectKey() {
+            return PostingsTree.this.objectKey(leaf.keys, pos);
+        }
+
+        @Override
+        public Postings postings() {
+            return leaf.postings(pos);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+/**
+ * Immutable sorted map from keys to node-ids stored in {@link PagedArray}s, so it only takes a few objects
+ * on the heap no matter how many keys it has. Built once from keys in ascending order by a {@link Builder}.
+ * Lookups are binary searches over flat arrays of fixed size entries, scans read them sequentially.
+ *
+ * Each key has a fixed size entry of its key word, its postings word, its node-id count and its key length.
+ * A single node-id is stored inline as postings word, more are stored as sorted int[] or long[] in the ids array,
+ * the postings word is then their offset, with the sign bit set for long[].
+ */
+abstract class Segment {
+    private static final int ENTRY_SIZE = 24;
+    private static final long WIDE = Long.MIN_VALUE;
+
+    final boolean direct;
+    final PagedArray entries;
+    final PagedArray ids;
+    private int size;
+    private long idCount;
+
+    /**
+     * @param direct true to keep the arrays outside of the java heap
+     */
+    Segment(boolean direct) {
+        this.direct = direct;
+        this.entries = new PagedArray(direct);
+        this.ids = new PagedArray(direct);
+    }
+
+    /**
+     * @return an empty segment of the same key type
+     */
+    abstract Segment newSegment();
+
+    /**
+     * @return a negative, zero or positive value if the key of the entry is less, equal or greater than the key
+     */
+    abstract int compare(int entry, long key, Object objectKey);
+
+    abstract long longKey(int entry);
+
+    abstract Object objectKey(int entry);
+
+    /**
+     * @return true if the key stands for an open range bound
+     */
+    abstract boolean open(Object objectKey);
+
+    /**
+     * @return the key word and sets the key length of the entry
+     */
+    abstract long writeKey(long entry, long key, Object objectKey);
+
+    /**
+     * @return number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of node-ids over all keys
+     */
+    long entries() {
+        return idCount;
+    }
+
+    /**
+     * @return bytes of the arrays of the segment, which are outside of the java heap if it is direct
+     */
+    long bytes() {
+        return entries.capacity() + ids.capacity();
+    }
+
+    long keyWord(int entry) {
+        return entries.getLong((long) entry * ENTRY_SIZE);
+    }
+
+    int keyLength(int entry) {
+        return entries.getInt((long) entry * ENTRY_SIZE + 20);
+    }
+
+    int count(int entry) {
+        return entries.getInt((long) entry * ENTRY_SIZE + 16);
+    }
+
+    /**
+     * @return the index of the entry with the key, or (-(insertion point) - 1) like Arrays.binarySearch
+     */
+    int search(long key, Object objectKey) {
+        return search(0, size - 1, key, objectKey);
+    }
+
+    /**
+     * searches the key among the entries from the given one on, for keys looked up in ascending order,
+     * each search is narrowed by the position of the previous key
+     *
+     * @return the entry, or -(insertion point + 1) if the key is not stored
+     */
+    int search(int from, long key, Object objectKey) {
+        return search(from, size - 1, key, objectKey);
+    }
+
+    private int search(int low, int high, long key, Object objectKey) {
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, key, objectKey);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the first entry within the lower bound
+     */
+    int lowerBound(long from, Object objectFrom, boolean includeFrom) {
+        if (open(objectFrom)) return 0;
+        int idx = search(from, objectFrom);
+        return idx >= 0 ? (includeFrom ? idx : idx + 1) : -idx - 1;
+    }
+
+    /**
+     * @return the entry after the last one within the upper bound
+     */
+    int upperBound(long to, Object objectTo, boolean includeTo) {
+        if (open(objectTo)) return size;
+        int idx = search(to, objectTo);
+        return idx >= 0 ? (includeTo ? idx + 1 : idx) : -idx - 1;
+    }
+
+    Postings get(long key, Object objectKey) {
+        int entry = search(key, objectKey);
+        return entry < 0 ? null : postings(entry);
+    }
+
+    Postings postings(int entry) {
+        long word = entries.getLong((long) entry * ENTRY_SIZE + 8);
+        int count = count(entry);
+        if (count == 1) return Postings.of(word);
+        return new SegmentPostings(ids, word & ~WIDE, count, word < 0);
+    }
+
+    boolean contains(int entry, long id) {
+        long word = entries.getLong((long) entry * ENTRY_SIZE + 8);
+        int count = count(entry);
+        if (count == 1) return word == id;
+        return SegmentPostings.search(ids, word & ~WIDE, count, word < 0, id) >= 0;
+    }
+
+    Builder builder() {
+        return new Builder(newSegment());
+    }
+
+    /**
+     * releases unused capacity once the segment is built
+     */
+    void trim() {
+        entries.trim();
+        ids.trim();
+    }
+
+    /**
+     * Appends keys in ascending order with their node-ids.
+     */
+    static final class Builder {
+        private final Segment segment;
+
+        private Builder(Segment segment) {
+            this.segment = segment;
+        }
+
+        void add(long key, Object objectKey, Postings postings) {
+            int count = postings.size();
+            if (count == 0) return;
+            long entry = segment.entries.allocate(ENTRY_SIZE, Long.BYTES);
+            segment.entries.putLong(entry, segment.writeKey(entry, key, objectKey));
+            segment.entries.putLong(entry + 8, count == 1 ? postings.iterator().next() : writeIds(postings, count));
+            segment.entries.putInt(entry + 16, count);
+            segment.size++;
+            segment.idCount += count;
+        }
+
+        /**
+         * writes the ids as int[] until one does not fit, then continues with a long[] copy
+         */
+        private long writeIds(Postings postings, int count) {
+            PagedArray ids = segment.ids;
+            PrimitiveLongIterator it = postings.iterator();
+            long offset = ids.allocate((long) count * Integer.BYTES, Integer.BYTES);
+            int written = 0;
+            while (it.hasNext()) {
+                long id = it.next();
+                if (!IntArrayPostings.fits(id)) {
+                    long wide = ids.allocate((long) count * Long.BYTES, Long.BYTES);
+                    for (int i = 0; i < written; i++) {
+                        ids.putLong(wide + (long) i * Long.BYTES, ids.getInt(offset + (long) i * Integer.BYTES));
+                    }
+                    ids.putLong(wide + (long) written++ * Long.BYTES, id);
+                    while (it.hasNext()) {
+                        ids.putLong(wide + (long) written++ * Long.BYTES, it.next());
+                    }
+                    return wide | WIDE;
+                }
+                ids.putInt(offset + (long) written++ * Integer.BYTES, (int) id);
+            }
+            return offset;
+        }
+
+        Segment build() {
+            segment.trim();
+            return segment;
+        }
+    }
+
+    /**
+     * Segment with primitive long keys stored in the key word.
+     */
+    static final class Longs extends Segment {
+        Longs(boolean direct) {
+            super(direct);
+        }
+
+        @Override
+        Segment newSegment() {
+            return new Longs(direct);
+        }
+
+        @Override
+        int compare(int entry, long key, Object objectKey) {
+            return Long.compare(keyWord(entry), key);
+        }
+
+        @Override
+        long longKey(int entry) {
+            return keyWord(entry);
+        }
+
+        @Override
+        Object objectKey(int entry) {
+            return null;
+        }
+
+        @Override
+        boolean open(Object objectKey) {
+            return false;
+        }
+
+        @Override
+        long writeKey(long entry, long key, Object objectKey) {
+            return key;
+        }
+    }
+
+    /**
+     * Segment with String keys, front coded in blocks of {@link #BLOCK} keys: the first key of a block is stored
+     * in full, the others only with the length of the prefix they share with it and their remaining chars.
+     * Chars are stored in a separate array, one byte each if all of them are Latin-1, two bytes otherwise.
+     * So keys with long common prefixes like e-mail addresses, URLs or SKUs take little more than their distinct
+     * suffixes, while each char stays accessible in O(1) for the binary search.
+     *
+     * The key word holds the shared prefix length in the upper 16 bits, then a flag for single byte chars,
+     * then the offset of the remaining chars.
+     */
+    static final class Strings extends Segment {
+        static final int BLOCK = 16;
+        private static final int MAX_PREFIX = 0xFFFF;
+        private static final long LATIN1 = 1L << 47;
+        private static final long OFFSET = LATIN1 - 1;
+
+        private final PagedArray chars;
+        /**
+         * first key of the current block while the segment is built
+         */
+        private String restart;
+
+        Strings(boolean direct) {
+            super(direct);
+            this.chars = new PagedArray(direct);
+        }
+
+        @Override
+        Segment newSegment() {
+            return new Strings(direct);
+        }
+
+        @Override
+        long bytes() {
+            return super.bytes() + chars.capacity();
+        }
+
+        @Override
+        int compare(int entry, long key, Object objectKey) {
+            String value = (String) objectKey;
+            long word = keyWord(entry);
+            long restart = restartWord(entry, word);
+            int length = keyLength(entry);
+            int common = Math.min(length, value.length());
+            for (int i = 0; i < common; i++) {
+                int cmp = charAt(restart, word, i) - value.charAt(i);
+                if (cmp != 0) return cmp;
+            }
+            return length - value.length();
+        }
+
+        private long restartWord(int entry, long word) {
+            return word >>> 48 == 0 ? word : keyWord(entry & -BLOCK);
+        }
+
+        /**
+         * @return the char at index i of the key with the given key word, whose block starts with the restart word
+         */
+        private char charAt(long restart, long word, int i) {
+            int prefix = (int) (word >>> 48);
+            return i < prefix ? charAt(restart, i) : charAt(word, i - prefix);
+        }
+
+        private char charAt(long word, int i) {
+            long offset = word & OFFSET;
+            if ((word & LATIN1) != 0) return (char) (chars.getByte(offset + i) & 0xFF);
+            return chars.getChar(offset + (long) i * Character.BYTES);
+        }
+
+        @Override
+        long longKey(int entry) {
+            return 0;
+        }
+
+        @Override
+        Object objectKey(int entry) {
+            long word = keyWord(entry);
+            long restart = restartWord(entry, word);
+            char[] value = new char[keyLength(entry)];
+            for (int i = 0; i < value.length; i++) {
+                value[i] = charAt(restart, word, i);
+            }
+            return new String(value);
+        }
+
+        @Override
+        boolean open(Object objectKey) {
+            return objectKey == null;
+        }
+
+        @Override
+        long writeKey(long entry, long key, Object objectKey) {
+            String value = (String) objectKey;
+            int prefix = 0;
+            if (size() % BLOCK == 0) {
+                restart = value;
+            } else {
+                int max = Math.min(MAX_PREFIX, Math.min(restart.length(), value.length()));
+                while (prefix < max && restart.charAt(prefix) == value.charAt(prefix)) prefix++;
+            }
+            entries.putInt(entry + 20, value.length());
+            return (long) prefix << 48 | writeChars(value, prefix);
+        }
+
+        /**
+         * @return the offset of the chars from start on, with the {@link #LATIN1} flag if they are stored as bytes
+         */
+        private long writeChars(String value, int start) {
+            boolean latin1 = true;
+            for (int i = start; i < value.length() && latin1; i++) {
+                latin1 = value.charAt(i) <= 0xFF;
+            }
+            int length = value.length() - start;
+            if (latin1) {
+                long offset = chars.allocate(length, 1);
+                for (int i = 0; i < length; i++) {
+                    chars.putByte(offset + i, (byte) value.charAt(start + i));
+                }
+                return offset | LATIN1;
+            }
+            long offset = chars.allocate((long) length * Character.BYTES, Character.BYTES);
+            for (int i = 0; i < length; i++) {
+                chars.putChar(offset + (long) i * Character.BYTES, value.charAt(start + i));
+            }
+            return offset;
+        }
+
+        @Override
+        void trim() {
+            super.trim();
+            chars.trim();
+            restart = null;
+        }
+    }
+}
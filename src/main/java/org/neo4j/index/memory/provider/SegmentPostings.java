@@ -0,0 +1,104 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view of the sorted node-ids of a {@link Segment} entry, stored as int[] or long[] in off-heap memory.
+ */
+final class SegmentPostings extends Postings {
+    private final PagedArray ids;
+    private final long offset;
+    private final int size;
+    private final boolean wide;
+
+    SegmentPostings(PagedArray ids, long offset, int size, boolean wide) {
+        this.ids = ids;
+        this.offset = offset;
+        this.size = size;
+        this.wide = wide;
+    }
+
+    static long id(PagedArray ids, long offset, int idx, boolean wide) {
+        return wide ? ids.getLong(offset + (long) idx * Long.BYTES) : ids.getInt(offset + (long) idx * Integer.BYTES);
+    }
+
+    /**
+     * @return the index of the id, or (-(insertion point) - 1) like Arrays.binarySearch
+     */
+    static int search(PagedArray ids, long offset, int size, boolean wide, long id) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = id(ids, offset, mid, wide);
+            if (value < id) low = mid + 1;
+            else if (value > id) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return search(ids, offset, size, wide, id) >= 0;
+    }
+
+    @Override
+    long next(long from) {
+        int idx = search(ids, offset, size, wide, from);
+        if (idx < 0) idx = -idx - 1;
+        return idx < size ? id(ids, offset, idx, wide) : -1;
+    }
+
+    @Override
+    int read(long from, long[] buffer) {
+        int idx = search(ids, offset, size, wide, from);
+        if (idx < 0) idx = -idx - 1;
+        int count = Math.min(buffer.length, size - idx);
+        for (int i = 0; i < count; i++) {
+            buffer[i] = id(ids, offset, idx + i, wide);
+        }
+        return count;
+    }
+
+    @Override
+    public PrimitiveLongIterator iterator() {
+        return new PrimitiveLongIterator() {
+            int pos = 0;
+
+            public boolean hasNext() {
+                return pos < size;
+            }
+
+            public long next() {
+                if (pos >= size) throw new NoSuchElementException();
+                return id(ids, offset, pos++, wide);
+            }
+        };
+    }
+
+    @Override
+    Postings copy() {
+        long[] copy = new long[size];
+        for (int i = 0; i < size; i++) {
+            copy[i] = id(ids, offset, i, wide);
+        }
+        return new LongArrayPostings(copy, size);
+    }
+
+    @Override
+    Postings add(long id) {
+        return copy().add(id);
+    }
+
+    @Override
+    Postings remove(long id) {
+        return copy().remove(id);
+    }
+}
@@ -0,0 +1,399 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Log structured store that keeps the bulk of its keys and node-ids in an immutable, flat {@link Segment},
+ * on or off the java heap. Updates go to two small trees of node-ids added to and removed from the segment.
+ * So the garbage collector never has to trace the segment contents, and lookups and scans run over sorted arrays.
+ *
+ * When the trees grow beyond a fraction of the segment, a background thread merges a snapshot of them into
+ * a new segment while updates continue. The new segment is installed by the next update or snapshot:
+ * node-ids of the merged snapshot are taken out of the trees again, unless they were updated since, then they
+ * turn into the opposite change relative to the new segment. Writers only wait for a merge when the trees
+ * grew far beyond the threshold meanwhile.
+ *
+ * Snapshots combine the segment with snapshots of both trees, segments are released when no snapshot uses them.
+ */
+final class SegmentedPostingsStore implements PostingsStore {
+    private static final int MIN_MERGE = 1 << 16;
+    private static final int MAX_MERGE = 1 << 22;
+
+    private static final Executor MERGES = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "memory-index-merge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PostingsTree added, removed;
+    private Segment base;
+    private Merge merge;
+    /**
+     * number of keys with node-ids, kept when a merge is installed as that doesn't change the contents
+     */
+    private int size;
+    private volatile boolean dirty = true;
+    private volatile StoreSnapshot snapshot;
+
+    /**
+     * @param added   empty tree for the added node-ids
+     * @param removed empty tree for the removed node-ids, of the same key type
+     * @param base    empty segment of the same key type
+     */
+    SegmentedPostingsStore(PostingsTree added, PostingsTree removed, Segment base) {
+        this.added = added;
+        this.removed = removed;
+        this.base = base;
+    }
+
+    @Override
+    public boolean add(long key, Object objectKey, long id) {
+        dirty = true;
+        boolean result;
+        if (removed.remove(key, objectKey, id)) result = true;
+        else if (baseContains(key, objectKey, id)) result = false;
+        else result = added.add(key, objectKey, id);
+        if (result && count(key, objectKey) == 1) size++;
+        mergeIfNeeded();
+        return result;
+    }
+
+    @Override
+    public boolean remove(long key, Object objectKey, long id) {
+        dirty = true;
+        boolean result;
+        if (added.remove(key, objectKey, id)) result = true;
+        else result = baseContains(key, objectKey, id) && removed.add(key, objectKey, id);
+        if (result && count(key, objectKey) == 0) size--;
+        mergeIfNeeded();
+        return result;
+    }
+
+    private boolean baseContains(long key, Object objectKey, long id) {
+        int entry = base.search(key, objectKey);
+        return entry >= 0 && base.contains(entry, id);
+    }
+
+    @Override
+    public Postings get(long key, Object objectKey) {
+        Postings postings = base.get(key, objectKey);
+        return MergedPostings.of(postings, added.get(key, objectKey), postings == null ? null : removed.get(key, objectKey));
+    }
+
+    /**
+     * @return the number of node-ids of the key
+     */
+    private int count(long key, Object objectKey) {
+        int entry = base.search(key, objectKey);
+        Postings fromAdded = added.get(key, objectKey), fromRemoved = removed.get(key, objectKey);
+        return (entry < 0 ? 0 : base.count(entry)) + (fromAdded == null ? 0 : fromAdded.size())
+                - (fromRemoved == null ? 0 : fromRemoved.size());
+    }
+
+    @Override
+    public void removeAll(PrimitiveLongSet nodeIds) {
+        dirty = true;
+        added.removeAll(nodeIds);
+        for (int entry = 0; entry < base.size(); entry++) {
+            for (PrimitiveLongIterator it = nodeIds.iterator(); it.hasNext(); ) {
+                long id = it.next();
+                if (base.contains(entry, id)) removed.add(base.longKey(entry), base.objectKey(entry), id);
+            }
+        }
+        size = 0;
+        for (Cursor cursor = new StoreSnapshot(base, added.snapshot(), removed.snapshot(), 0).cursor(); cursor.next(); ) {
+            size++;
+        }
+        mergeIfNeeded();
+    }
+
+    @Override
+    public void clear() {
+        dirty = true;
+        merge = null;
+        base = base.newSegment();
+        size = 0;
+        added.clear();
+        removed.clear();
+    }
+
+    @Override
+    public void load(Cursor entries) {
+        dirty = true;
+        merge = null;
+        Segment.Builder builder = base.builder();
+        while (entries.next()) {
+            builder.add(entries.key(), entries.objectKey(), entries.postings());
+        }
+        base = builder.build();
+        size = base.size();
+        added.clear();
+        removed.clear();
+    }
+
+    @Override
+    public StoreSnapshot snapshot() {
+        if (merge != null && merge.result.isDone()) install();
+        if (dirty) {
+            snapshot = new StoreSnapshot(base, added.snapshot(), removed.snapshot(), size);
+            dirty = false;
+        }
+        return snapshot;
+    }
+
+    @Override
+    public StoreSnapshot published() {
+        return dirty ? null : snapshot;
+    }
+
+    private void mergeIfNeeded() {
+        if (merge != null) {
+            if (!merge.result.isDone() && updates() <= 4 * threshold()) return;
+            install();
+        }
+        if (updates() > threshold()) startMerge();
+    }
+
+    private long updates() {
+        return added.entries() + removed.entries();
+    }
+
+    private long threshold() {
+        return Math.max(MIN_MERGE, Math.min(MAX_MERGE, base.entries() / 8));
+    }
+
+    /**
+     * merges a snapshot of the current state into a new segment on the merge thread
+     */
+    private void startMerge() {
+        StoreSnapshot merged = new StoreSnapshot(base, added.snapshot(), removed.snapshot(), size);
+        Merge merge = new Merge(merged);
+        MERGES.execute(() -> {
+            try {
+                Segment.Builder builder = merged.base.builder();
+                for (Cursor cursor = merged.cursor(); cursor.next(); ) {
+                    builder.add(cursor.key(), cursor.objectKey(), cursor.postings());
+                }
+                merge.result.complete(builder.build());
+            } catch (Throwable e) {
+                merge.result.completeExceptionally(e);
+            }
+            // the next reader takes a snapshot, which installs the segment
+            dirty = true;
+        });
+        this.merge = merge;
+    }
+
+    /**
+     * replaces the segment by the merged one, the trees keep the updates since the merge started.
+     * If the merge failed it is repeated synchronously.
+     */
+    private void install() {
+        Merge merge = this.merge;
+        this.merge = null;
+        Segment merged;
+        try {
+            merged = merge.result.join();
+        } catch (CompletionException e) {
+            load(new StoreSnapshot(base, added.snapshot(), removed.snapshot(), size).cursor());
+            return;
+        }
+        dirty = true;
+        for (Cursor cursor = merge.snapshot.added.cursor(); cursor.next(); ) {
+            for (PrimitiveLongIterator it = cursor.postings().iterator(); it.hasNext(); ) {
+                long id = it.next();
+                if (!added.remove(cursor.key(), cursor.objectKey(), id)) removed.add(cursor.key(), cursor.objectKey(), id);
+            }
+        }
+        for (Cursor cursor = merge.snapshot.removed.cursor(); cursor.next(); ) {
+            for (PrimitiveLongIterator it = cursor.postings().iterator(); it.hasNext(); ) {
+                long id = it.next();
+                if (!removed.remove(cursor.key(), cursor.objectKey(), id)) added.add(cursor.key(), cursor.objectKey(), id);
+            }
+        }
+        base = merged;
+    }
+
+    /**
+     * Merge of a snapshot running in the background.
+     */
+    private static final class Merge {
+        final StoreSnapshot snapshot;
+        final CompletableFuture<Segment> result = new CompletableFuture<>();
+
+        Merge(StoreSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+
+    final class StoreSnapshot implements PostingsStore.Snapshot {
+        private final Segment base;
+        private final PostingsTree.TreeSnapshot added, removed;
+        private final int size;
+
+        private StoreSnapshot(Segment base, PostingsTree.TreeSnapshot added, PostingsTree.TreeSnapshot removed, int size) {
+            this.base = base;
+            this.added = added;
+            this.removed = removed;
+            this.size = size;
+        }
+
+        @Override
+        public Postings get(long key, Object objectKey) {
+            Postings postings = base.get(key, objectKey);
+            return MergedPostings.of(postings, added.get(key, objectKey), postings == null ? null : removed.get(key, objectKey));
+        }
+
+        /**
+         * searches the segment in one forward pass
+         */
+        @Override
+        public Postings[] getAll(long[] keys, Object[] objectKeys, int count) {
+            Postings[] result = new Postings[count];
+            int from = 0;
+            for (int i = 0; i < count; i++) {
+                long key = keys == null ? 0 : keys[i];
+                Object objectKey = objectKeys == null ? null : objectKeys[i];
+                int entry = base.search(from, key, objectKey);
+                Postings postings = entry < 0 ? null : base.postings(entry);
+                from = entry < 0 ? -entry - 1 : entry + 1;
+                result[i] = MergedPostings.of(postings, added.get(key, objectKey), postings == null ? null : removed.get(key, objectKey));
+            }
+            return result;
+        }
+
+        @Override
+        public Iterator<Postings> values(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return PostingsStore.values(cursor(from, objectFrom, includeFrom, to, objectTo, includeTo));
+        }
+
+        /**
+         * splits at evenly spaced keys of the base segment, before the first merge all keys are in one partition
+         */
+        @Override
+        public List<Iterator<Postings>> partitions(int count) {
+            int bounds = Math.max(0, Math.min(count, base.size()) - 1);
+            long[] keys = new long[bounds];
+            Object[] objectKeys = new Object[bounds];
+            for (int i = 0; i < bounds; i++) {
+                int entry = (int) ((i + 1L) * base.size() / (bounds + 1));
+                keys[i] = base.longKey(entry);
+                objectKeys[i] = base.objectKey(entry);
+            }
+            return PostingsStore.partitions(this, keys, objectKeys, bounds);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long entries() {
+            return base.entries() + added.entries() - removed.entries();
+        }
+
+        @Override
+        public long heapBytes() {
+            return added.heapBytes() + removed.heapBytes() + (base.direct ? 0 : base.bytes());
+        }
+
+        @Override
+        public long offHeapBytes() {
+            return base.direct ? base.bytes() : 0;
+        }
+
+        @Override
+        public MergeCursor cursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return new MergeCursor(this, from, objectFrom, includeFrom, to, objectTo, includeTo, false);
+        }
+
+        @Override
+        public MergeCursor descendingCursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return new MergeCursor(this, from, objectFrom, includeFrom, to, objectTo, includeTo, true);
+        }
+    }
+
+    /**
+     * Walks the segment entries and the added keys in ascending or descending key order, merging the postings of equal keys.
+     * Keys whose node-ids were all removed are skipped. Call next() before accessing the first entry.
+     * Keys of segment entries are only read when asked for, as Strings have to be copied onto the heap.
+     */
+    private static final class MergeCursor implements PostingsStore.Cursor {
+        private final StoreSnapshot snapshot;
+        private final PostingsTree.Cursor added;
+        /**
+         * 1 when ascending, -1 when descending
+         */
+        private final int step;
+        private final int end;
+        private int entry;
+        private boolean addedReady;
+        private int baseEntry;
+        private long key;
+        private Object objectKey;
+        private Postings postings;
+
+        MergeCursor(StoreSnapshot snapshot, long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo, boolean descending) {
+            this.snapshot = snapshot;
+            Segment base = snapshot.base;
+            int first = base.lowerBound(from, objectFrom, includeFrom);
+            int last = Math.max(first, base.upperBound(to, objectTo, includeTo));
+            this.step = descending ? -1 : 1;
+            this.entry = descending ? last - 1 : first;
+            this.end = descending ? first - 1 : last;
+            this.added = descending ? snapshot.added.descendingCursor(from, objectFrom, includeFrom, to, objectTo, includeTo)
+                    : snapshot.added.cursor(from, objectFrom, includeFrom, to, objectTo, includeTo);
+            this.addedReady = added.next();
+        }
+
+        @Override
+        public boolean next() {
+            Segment base = snapshot.base;
+            while (entry != end || addedReady) {
+                // negative if the segment entry comes first in the direction of the walk
+                int cmp = entry == end ? 1 : !addedReady ? -1 : step * base.compare(entry, added.key(), added.objectKey());
+                Postings fromBase = null, fromAdded = null;
+                baseEntry = -1;
+                if (cmp <= 0) {
+                    baseEntry = entry;
+                    fromBase = base.postings(entry);
+                    entry += step;
+                }
+                if (cmp >= 0) {
+                    key = added.key();
+                    objectKey = added.objectKey();
+                    fromAdded = added.postings();
+                    addedReady = added.next();
+                }
+                Postings fromRemoved = fromBase == null || snapshot.removed.entries() == 0 ? null : snapshot.removed.get(key(), objectKey());
+                postings = MergedPostings.of(fromBase, fromAdded, fromRemoved);
+                if (postings != null) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public long key() {
+            return baseEntry < 0 ? key : snapshot.base.longKey(baseEntry);
+        }
+
+        @Override
+        public Object objectKey() {
+            return baseEntry < 0 ? objectKey : snapshot.base.objectKey(baseEntry);
+        }
+
+        @Override
+        public Postings postings() {
+            return postings;
+        }
+    }
+}
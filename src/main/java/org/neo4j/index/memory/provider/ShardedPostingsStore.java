@@ -0,0 +1,501 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Store split into shards of disjoint key ranges, each of them a store of its own with its own monitor, so that
+ * point updates of different shards run concurrently, see {@link #concurrent()}. Bulk operations are called exclusively.
+ *
+ * A store starts with a single shard. Once it holds enough node-ids, and whenever a shard holds more than twice its
+ * share after enough updates since the last time, {@link #rebalance()} rebuilds the shards from a snapshot with
+ * boundaries at the same number of node-ids each, with the monitor of the sub-index held exclusively.
+ *
+ * Snapshots combine snapshots of the shards in key order, ranges over several shards are read in parallel by
+ * {@link Snapshot#parallelValues}.
+ */
+final class ShardedPostingsStore implements PostingsStore {
+    /**
+     * node-ids per shard before a store is split
+     */
+    static final int MIN_SHARD_ENTRIES = 1 << 12;
+
+    private final Supplier<PostingsStore> stores;
+    private final boolean objectKeys;
+    private final int count;
+    private volatile Layout layout;
+    /**
+     * node-ids at the last rebalance, a shard has to see a share of that in updates before the next one
+     */
+    private volatile long balanced;
+    private volatile ShardedSnapshot snapshot;
+
+    /**
+     * @param stores     creates the empty store of a shard
+     * @param objectKeys true if the stores are keyed by objects, false if by primitive longs
+     * @param count      number of shards to split into
+     */
+    ShardedPostingsStore(Supplier<PostingsStore> stores, boolean objectKeys, int count) {
+        this.stores = stores;
+        this.objectKeys = objectKeys;
+        this.count = count;
+        this.layout = new Layout(new Shard[]{new Shard(stores.get())}, new long[0], new Object[0]);
+    }
+
+    /**
+     * Shards with the first key of every shard but the first, replaced as a whole by a rebalance.
+     */
+    private static final class Layout {
+        final Shard[] shards;
+        final long[] keys;
+        final Object[] objectKeys;
+
+        Layout(Shard[] shards, long[] keys, Object[] objectKeys) {
+            this.shards = shards;
+            this.keys = keys;
+            this.objectKeys = objectKeys;
+        }
+    }
+
+    /**
+     * Store of a key range, updated while holding its monitor.
+     */
+    private static final class Shard {
+        final PostingsStore store;
+        volatile long entries;
+        volatile long updates;
+
+        Shard(PostingsStore store) {
+            this.store = store;
+        }
+
+        void changed(long delta) {
+            entries += delta;
+            updates++;
+        }
+    }
+
+    private int compare(long key, Object objectKey, long otherKey, Object otherObjectKey) {
+        @SuppressWarnings("unchecked")
+        int cmp = objectKeys ? ((Comparable<Object>) objectKey).compareTo(otherObjectKey) : Long.compare(key, otherKey);
+        return cmp;
+    }
+
+    private boolean open(Object objectKey) {
+        return objectKeys && objectKey == null;
+    }
+
+    /**
+     * @return index of the shard holding the key
+     */
+    private int shardOf(Layout layout, long key, Object objectKey) {
+        int low = 0, high = layout.keys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(layout.keys[mid], layout.objectKeys[mid], key, objectKey);
+            if (cmp <= 0) low = mid + 1;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    private Shard shard(long key, Object objectKey) {
+        Layout layout = this.layout;
+        return layout.shards[shardOf(layout, key, objectKey)];
+    }
+
+    @Override
+    public boolean concurrent() {
+        return true;
+    }
+
+    @Override
+    public boolean add(long key, Object objectKey, long id) {
+        Shard shard = shard(key, objectKey);
+        synchronized (shard) {
+            boolean added = shard.store.add(key, objectKey, id);
+            if (added) shard.changed(1);
+            return added;
+        }
+    }
+
+    @Override
+    public boolean remove(long key, Object objectKey, long id) {
+        Shard shard = shard(key, objectKey);
+        synchronized (shard) {
+            boolean removed = shard.store.remove(key, objectKey, id);
+            if (removed) shard.changed(-1);
+            return removed;
+        }
+    }
+
+    @Override
+    public Postings get(long key, Object objectKey) {
+        Shard shard = shard(key, objectKey);
+        synchronized (shard) {
+            return shard.store.get(key, objectKey);
+        }
+    }
+
+    @Override
+    public long addUnique(long key, Object objectKey, long id) {
+        Shard shard = shard(key, objectKey);
+        synchronized (shard) {
+            long other = shard.store.addUnique(key, objectKey, id);
+            if (other == -1) shard.changed(1);
+            return other;
+        }
+    }
+
+    @Override
+    public long update(long key, Object objectKey, long[] add, long[] remove) {
+        Shard shard = shard(key, objectKey);
+        synchronized (shard) {
+            long delta = shard.store.update(key, objectKey, add, remove);
+            shard.changed(delta);
+            return delta;
+        }
+    }
+
+    @Override
+    public void removeAll(PrimitiveLongSet nodeIds) {
+        for (Shard shard : layout.shards) {
+            shard.store.removeAll(nodeIds);
+            shard.entries = shard.store.snapshot().entries();
+        }
+    }
+
+    @Override
+    public void clear() {
+        layout = new Layout(new Shard[]{new Shard(stores.get())}, new long[0], new Object[0]);
+        balanced = 0;
+    }
+
+    /**
+     * loads all entries into a single shard and splits it, if it holds enough node-ids
+     */
+    @Override
+    public void load(Cursor entries) {
+        Shard shard = new Shard(stores.get());
+        shard.store.load(entries);
+        shard.entries = shard.store.snapshot().entries();
+        layout = new Layout(new Shard[]{shard}, new long[0], new Object[0]);
+        balanced = 0;
+        if (unbalanced()) rebalance();
+    }
+
+    /**
+     * @return true if the store holds enough node-ids to split it, but has fewer shards than wanted or one of them
+     * with more than twice its share, and saw enough updates since the last rebalance; cheap and safe to call concurrently
+     */
+    @Override
+    public boolean unbalanced() {
+        Shard[] shards = layout.shards;
+        long total = 0, max = 0, updates = 0;
+        for (Shard shard : shards) {
+            long entries = shard.entries;
+            total += entries;
+            max = Math.max(max, entries);
+            updates += shard.updates;
+        }
+        if (total < (long) MIN_SHARD_ENTRIES * count || updates < balanced / count) return false;
+        return shards.length < count || max > 2 * total / count;
+    }
+
+    /**
+     * rebuilds the shards from a snapshot, each of them with about the same number of node-ids,
+     * only keys with many node-ids make shards uneven
+     */
+    @Override
+    public void rebalance() {
+        ShardedSnapshot snapshot = snapshot();
+        long total = snapshot.entries();
+        Slices slices = new Slices(snapshot.cursor());
+        List<Shard> shards = new ArrayList<>(count);
+        long[] keys = new long[count - 1];
+        Object[] objectKeys = new Object[count - 1];
+        for (int i = 0; i < count && (i == 0 || slices.pending); i++) {
+            if (i > 0) {
+                keys[i - 1] = slices.all.key();
+                objectKeys[i - 1] = slices.all.objectKey();
+            }
+            Shard shard = new Shard(stores.get());
+            shard.store.load(slices.next(i == count - 1 ? Long.MAX_VALUE : (i + 1) * total / count));
+            shard.entries = shard.store.snapshot().entries();
+            shards.add(shard);
+        }
+        int bounds = shards.size() - 1;
+        layout = new Layout(shards.toArray(new Shard[shards.size()]), Arrays.copyOf(keys, bounds), Arrays.copyOf(objectKeys, bounds));
+        balanced = total;
+    }
+
+    /**
+     * Splits a cursor into consecutive cursors that end once a number of node-ids was read in total.
+     */
+    private static final class Slices {
+        final Cursor all;
+        boolean pending;
+        long read;
+
+        Slices(Cursor all) {
+            this.all = all;
+            this.pending = all.next();
+        }
+
+        /**
+         * @return cursor from the pending entry on, up to the entry that reaches the total, but at least one entry
+         */
+        Cursor next(long total) {
+            return new Cursor() {
+                boolean first = true;
+
+                public boolean next() {
+                    if (!first) {
+                        read += all.postings().size();
+                        pending = all.next();
+                    } else if (!pending) {
+                        return false;
+                    }
+                    boolean next = pending && (first || read < total);
+                    first = false;
+                    return next;
+                }
+
+                public long key() {
+                    return all.key();
+                }
+
+                public Object objectKey() {
+                    return all.objectKey();
+                }
+
+                /**
+                 * copied, as stores may update the postings they are loaded with, which snapshots still share
+                 */
+                public Postings postings() {
+                    return all.postings().copy();
+                }
+            };
+        }
+    }
+
+    /**
+     * takes snapshots of the shards one at a time, holding the monitor of each
+     */
+    @Override
+    public ShardedSnapshot snapshot() {
+        ShardedSnapshot published = published();
+        if (published != null) return published;
+        Layout layout = this.layout;
+        PostingsStore.Snapshot[] parts = new PostingsStore.Snapshot[layout.shards.length];
+        for (int i = 0; i < parts.length; i++) {
+            Shard shard = layout.shards[i];
+            synchronized (shard) {
+                parts[i] = shard.store.snapshot();
+            }
+        }
+        ShardedSnapshot snapshot = new ShardedSnapshot(layout, parts);
+        this.snapshot = snapshot;
+        return snapshot;
+    }
+
+    @Override
+    public ShardedSnapshot published() {
+        ShardedSnapshot snapshot = this.snapshot;
+        if (snapshot == null || snapshot.layout != layout) return null;
+        for (int i = 0; i < snapshot.parts.length; i++) {
+            if (snapshot.layout.shards[i].store.published() != snapshot.parts[i]) return null;
+        }
+        return snapshot;
+    }
+
+    final class ShardedSnapshot implements PostingsStore.Snapshot {
+        private final Layout layout;
+        private final PostingsStore.Snapshot[] parts;
+
+        private ShardedSnapshot(Layout layout, PostingsStore.Snapshot[] parts) {
+            this.layout = layout;
+            this.parts = parts;
+        }
+
+        @Override
+        public Postings get(long key, Object objectKey) {
+            return parts[shardOf(layout, key, objectKey)].get(key, objectKey);
+        }
+
+        @Override
+        public boolean get(long key, Object objectKey, PostingsCursor cursor) {
+            return parts[shardOf(layout, key, objectKey)].get(key, objectKey, cursor);
+        }
+
+        /**
+         * looks up the sorted keys of each shard in one call
+         */
+        @Override
+        public Postings[] getAll(long[] keys, Object[] objectKeys, int count) {
+            Postings[] postings = new Postings[count];
+            int from = 0;
+            while (from < count) {
+                int shard = shardOf(layout, keys == null ? 0 : keys[from], objectKeys == null ? null : objectKeys[from]);
+                int to = from + 1;
+                while (to < count && shardOf(layout, keys == null ? 0 : keys[to], objectKeys == null ? null : objectKeys[to]) == shard) {
+                    to++;
+                }
+                Postings[] found = parts[shard].getAll(keys == null ? null : Arrays.copyOfRange(keys, from, to),
+                        objectKeys == null ? null : Arrays.copyOfRange(objectKeys, from, to), to - from);
+                System.arraycopy(found, 0, postings, from, to - from);
+                from = to;
+            }
+            return postings;
+        }
+
+        private int first(long from, Object objectFrom) {
+            return open(objectFrom) ? 0 : shardOf(layout, from, objectFrom);
+        }
+
+        private int last(long to, Object objectTo) {
+            return open(objectTo) ? parts.length - 1 : shardOf(layout, to, objectTo);
+        }
+
+        @Override
+        public Iterator<Postings> values(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            return PostingsStore.values(cursor(from, objectFrom, includeFrom, to, objectTo, includeTo));
+        }
+
+        /**
+         * reads the range of every shard it covers in parallel
+         */
+        @Override
+        public Iterator<Postings> parallelValues(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            int first = first(from, objectFrom), last = last(to, objectTo);
+            if (first >= last) return values(from, objectFrom, includeFrom, to, objectTo, includeTo);
+            List<Cursor> cursors = new ArrayList<>(last - first + 1);
+            for (int i = first; i <= last; i++) {
+                cursors.add(parts[i].cursor(from, objectFrom, includeFrom, to, objectTo, includeTo));
+            }
+            return new FanOutIterator(cursors);
+        }
+
+        @Override
+        public Cursor cursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            int first = first(from, objectFrom), last = last(to, objectTo);
+            if (first >= last) return parts[Math.min(first, last)].cursor(from, objectFrom, includeFrom, to, objectTo, includeTo);
+            Cursor[] cursors = new Cursor[last - first + 1];
+            for (int i = first; i <= last; i++) {
+                cursors[i - first] = parts[i].cursor(from, objectFrom, includeFrom, to, objectTo, includeTo);
+            }
+            return concat(cursors);
+        }
+
+        /**
+         * @return postings of all shards one after the other, each in the order of {@link #unorderedCursor()}
+         */
+        @Override
+        public Iterator<Postings> values() {
+            return PostingsStore.values(unorderedCursor());
+        }
+
+        @Override
+        public Cursor unorderedCursor() {
+            Cursor[] cursors = new Cursor[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                cursors[i] = parts[i].unorderedCursor();
+            }
+            return concat(cursors);
+        }
+
+        /**
+         * walks the shards from the last one in the range backwards
+         */
+        @Override
+        public Cursor descendingCursor(long from, Object objectFrom, boolean includeFrom, long to, Object objectTo, boolean includeTo) {
+            int first = first(from, objectFrom), last = last(to, objectTo);
+            if (first >= last) return parts[Math.min(first, last)].descendingCursor(from, objectFrom, includeFrom, to, objectTo, includeTo);
+            Cursor[] cursors = new Cursor[last - first + 1];
+            for (int i = last; i >= first; i--) {
+                cursors[last - i] = parts[i].descendingCursor(from, objectFrom, includeFrom, to, objectTo, includeTo);
+            }
+            return concat(cursors);
+        }
+
+        private Cursor concat(Cursor[] cursors) {
+            return new Cursor() {
+                int current;
+
+                public boolean next() {
+                    while (current < cursors.length) {
+                        if (cursors[current].next()) return true;
+                        current++;
+                    }
+                    return false;
+                }
+
+                public long key() {
+                    return cursors[current].key();
+                }
+
+                public Object objectKey() {
+                    return cursors[current].objectKey();
+                }
+
+                public Postings postings() {
+                    return cursors[current].postings();
+                }
+            };
+        }
+
+        /**
+         * splits the shards into partitions in proportion to their node-ids
+         */
+        @Override
+        public List<Iterator<Postings>> partitions(int count) {
+            long entries = Math.max(1, entries());
+            List<Iterator<Postings>> partitions = new ArrayList<>(count + parts.length);
+            for (PostingsStore.Snapshot part : parts) {
+                partitions.addAll(part.partitions((int) Math.max(1, count * part.entries() / entries)));
+            }
+            return partitions;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (PostingsStore.Snapshot part : parts) {
+                size += part.size();
+            }
+            return size;
+        }
+
+        @Override
+        public long entries() {
+            long entries = 0;
+            for (PostingsStore.Snapshot part : parts) {
+                entries += part.entries();
+            }
+            return entries;
+        }
+
+        @Override
+        public long heapBytes() {
+            long bytes = 0;
+            for (PostingsStore.Snapshot part : parts) {
+                bytes += part.heapBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public long offHeapBytes() {
+            long bytes = 0;
+            for (PostingsStore.Snapshot part : parts) {
+                bytes += part.offHeapBytes();
+            }
+            return bytes;
+        }
+    }
+}
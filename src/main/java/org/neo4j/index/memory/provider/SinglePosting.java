@@ -0,0 +1,54 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+final class SinglePosting extends Postings {
+    final long id;
+
+    SinglePosting(long id) {
+        this.id = id;
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return this.id == id;
+    }
+
+    @Override
+    public PrimitiveLongIterator iterator() {
+        return PrimitiveLongCollections.singleton(id);
+    }
+
+    @Override
+    long next(long from) {
+        return id >= from ? id : -1;
+    }
+
+    @Override
+    int read(long from, long[] buffer) {
+        if (id < from) return 0;
+        buffer[0] = id;
+        return 1;
+    }
+
+    @Override
+    Postings copy() {
+        return this;
+    }
+
+    @Override
+    Postings add(long id) {
+        return this.id == id ? this : of(this.id, id);
+    }
+
+    @Override
+    Postings remove(long id) {
+        return this.id == id ? null : this;
+    }
+}
@@ -0,0 +1,181 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.io.fs.StoreChannel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * File format of the index snapshots written at checkpoints and loaded on startup.
+ *
+ * The header holds the number of the first journal whose updates are not contained, followed by the value types
+ * in the index. Then each sub-index with its entries in key order, so they are loaded without any sorting.
+ * An entry is its node-id count, its key and the node-ids as var-long deltas, a zero count ends the sub-index.
+ * Number keys are var-long deltas to the previous key, other keys are tagged values.
+ * The file ends with a trailer that repeats the journal number, files without it are incomplete and ignored.
+ */
+final class SnapshotFormat {
+    private static final int MAGIC = 0x4D454D58;
+    private static final int VERSION = 1;
+    private static final byte END = 0, LONGS = 1, DOUBLES = 2, OTHERS = 3;
+    private static final int TRAILER = 1 + Long.BYTES + Integer.BYTES;
+
+    private SnapshotFormat() {
+    }
+
+    static void write(ChannelOutput out, ValueIndexes.Snapshot snapshot, Set<Class> types, long journal) throws IOException {
+        out.putInt(MAGIC).putInt(VERSION).putLong(journal);
+        Class[] typeArray = types.toArray(new Class[0]);
+        out.putVarLong(typeArray.length);
+        for (Class type : typeArray) {
+            out.putString(type.getName());
+        }
+        if (snapshot.longs() != null) writeEntries(out.putByte(LONGS), snapshot.longs(), true);
+        if (snapshot.doubles() != null) writeEntries(out.putByte(DOUBLES), snapshot.doubles(), true);
+        for (Map.Entry<Class<?>, ComparableValueIndex.ComparableSnapshot> entry : snapshot.others().entrySet()) {
+            writeEntries(out.putByte(OTHERS).putString(entry.getKey().getName()), entry.getValue(), false);
+        }
+        out.putByte(END).putLong(journal).putInt(MAGIC);
+    }
+
+    private static void writeEntries(ChannelOutput out, ValueIndex.Snapshot snapshot, boolean numeric) throws IOException {
+        PostingsStore.Cursor cursor = snapshot.cursor();
+        long previousKey = 0;
+        while (cursor.next()) {
+            Postings postings = cursor.postings();
+            out.putVarLong(postings.size());
+            if (numeric) {
+                out.putVarLong(cursor.key() - previousKey);
+                previousKey = cursor.key();
+            } else {
+                out.putValue(cursor.objectKey());
+            }
+            long previousId = 0;
+            for (PrimitiveLongIterator it = postings.iterator(); it.hasNext(); ) {
+                long id = it.next();
+                out.putVarLong(id - previousId);
+                previousId = id;
+            }
+        }
+        out.putVarLong(0);
+    }
+
+    /**
+     * @return the journal number of a complete snapshot file, or -1 if it is incomplete
+     */
+    static long journal(StoreChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < Integer.BYTES * 2 + Long.BYTES + TRAILER) return -1;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 2 + Long.BYTES);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+        readFully(channel, header, 0);
+        readFully(channel, trailer, size - TRAILER);
+        if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != VERSION) return -1;
+        long journal = header.getLong(Integer.BYTES * 2);
+        if (trailer.get(0) != END || trailer.getLong(1) != journal || trailer.getInt(1 + Long.BYTES) != MAGIC) return -1;
+        return journal;
+    }
+
+    private static void readFully(StoreChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) break;
+        }
+    }
+
+    /**
+     * loads the snapshot into the empty sub-indexes and adds its value types
+     *
+     * @return the number of the first journal to replay on top of it
+     */
+    static long read(ChannelInput in, ValueIndexes target, Set<Class> types) throws IOException {
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) throw new IOException("Not an index snapshot of version " + VERSION);
+        long journal = in.getLong();
+        for (long i = in.getVarLong(); i > 0; i--) {
+            types.add(type(in.getString()));
+        }
+        for (byte kind = in.getByte(); kind != END; kind = in.getByte()) {
+            ValueIndex index;
+            switch (kind) {
+                case LONGS:
+                    index = target.longs();
+                    break;
+                case DOUBLES:
+                    index = target.doubles();
+                    break;
+                case OTHERS:
+                    index = target.others(type(in.getString()));
+                    break;
+                default:
+                    throw new IOException("Unknown sub-index kind " + kind + " at " + (in.position() - 1));
+            }
+            try {
+                index.load(new EntryCursor(in, kind != OTHERS));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return journal;
+    }
+
+    private static Class<?> type(String name) throws IOException {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown value type " + name, e);
+        }
+    }
+
+    /**
+     * Reads the entries of one sub-index.
+     */
+    private static final class EntryCursor implements PostingsStore.Cursor {
+        private final ChannelInput in;
+        private final boolean numeric;
+        private long key;
+        private Object objectKey;
+        private Postings postings;
+
+        EntryCursor(ChannelInput in, boolean numeric) {
+            this.in = in;
+            this.numeric = numeric;
+        }
+
+        @Override
+        public boolean next() {
+            try {
+                int count = (int) in.getVarLong();
+                if (count == 0) return false;
+                if (numeric) key += in.getVarLong();
+                else objectKey = in.getValue();
+                long[] ids = new long[count];
+                long id = 0;
+                for (int i = 0; i < count; i++) {
+                    ids[i] = id += in.getVarLong();
+                }
+                postings = Postings.of(ids);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+
+        @Override
+        public Object objectKey() {
+            return objectKey;
+        }
+
+        @Override
+        public Postings postings() {
+            return postings;
+        }
+    }
+}
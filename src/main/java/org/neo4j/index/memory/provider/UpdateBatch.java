@@ -0,0 +1,106 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects updates of one updater grouped by sub-index and key. For every node-id only the last update counts,
+ * so adding and removing the same entry cancel out. On {@link #apply} each key is visited once in key order
+ * with its net change, instead of one tree descent and array copy per update.
+ *
+ * Applying is idempotent, the changes only state which node-ids are present for a key afterwards.
+ */
+final class UpdateBatch {
+    private final Map<ValueIndex, Map<Object, Change>> changes = new IdentityHashMap<>();
+    private int size;
+
+    /**
+     * Called for every key after its change was applied.
+     */
+    interface Listener {
+        /**
+         * @param value  one of the values of the key
+         * @param delta  change of the number of node-ids of the key
+         */
+        void applied(Object value, long[] added, long[] removed, long delta) throws IOException;
+    }
+
+    void added(ValueIndex index, Object value, long nodeId) {
+        change(index, value).added(nodeId);
+    }
+
+    void removed(ValueIndex index, Object value, long nodeId) {
+        change(index, value).removed(nodeId);
+    }
+
+    private Change change(ValueIndex index, Object value) {
+        size++;
+        return changes.computeIfAbsent(index, i -> new HashMap<>()).computeIfAbsent(index.storeKey(value), k -> new Change(value));
+    }
+
+    /**
+     * @return number of updates collected since the last apply
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * applies the net changes per key in key order and empties the batch
+     */
+    @SuppressWarnings("unchecked")
+    void apply(Listener listener) throws IOException {
+        for (Map.Entry<ValueIndex, Map<Object, Change>> entry : changes.entrySet()) {
+            ValueIndex index = entry.getKey();
+            List<Object> keys = new ArrayList<>(entry.getValue().keySet());
+            keys.sort((a, b) -> ((Comparable<Object>) a).compareTo(b));
+            for (Object key : keys) {
+                Change change = entry.getValue().get(key);
+                long[] added = change.added.isEmpty() ? PrimitiveLongCollections.EMPTY_LONG_ARRAY : sorted(change.added);
+                long[] removed = change.removed.isEmpty() ? PrimitiveLongCollections.EMPTY_LONG_ARRAY : sorted(change.removed);
+                long delta = index.update(key, added, removed);
+                listener.applied(change.value, added, removed, delta);
+            }
+        }
+        changes.clear();
+        size = 0;
+    }
+
+    private static long[] sorted(PrimitiveLongSet ids) {
+        long[] sorted = PrimitiveLongCollections.asArray(ids.iterator());
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Node-ids added to and removed from a key, disjoint.
+     */
+    private static final class Change {
+        final Object value;
+        final PrimitiveLongSet added = Primitive.longSet();
+        final PrimitiveLongSet removed = Primitive.longSet();
+
+        Change(Object value) {
+            this.value = value;
+        }
+
+        void added(long nodeId) {
+            removed.remove(nodeId);
+            added.add(nodeId);
+        }
+
+        void removed(long nodeId) {
+            added.remove(nodeId);
+            removed.add(nodeId);
+        }
+    }
+}
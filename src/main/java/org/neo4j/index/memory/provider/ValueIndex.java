@@ -0,0 +1,376 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Sub-index for one family of value types, maps each property value to the node-ids having it.
+ *
+ * Every sub-index has its own lock for writers, so writers of different value types don't block each other.
+ * Writers of a {@link PostingsStore#concurrent() concurrent} store share the lock for point updates,
+ * and only take it exclusively for bulk updates and to rebalance the store.
+ * Readers work on {@link Snapshot snapshots} of the {@link PostingsStore}. A snapshot is taken in O(1) and never changes,
+ * so long scans neither see half-applied updates nor block writers. Snapshots are only taken when a reader asks for one
+ * after the store changed, as the next write to a key copies the path and the postings a snapshot shares:
+ * the reader takes it itself if the lock is free, otherwise the writer holding it takes it for the reader before
+ * releasing the lock, and the reader only waits for that writer. Readers share the lock with the writers of concurrent stores.
+ */
+abstract class ValueIndex {
+    private final StampedLock lock = new StampedLock();
+    final PostingsStore store;
+    private final boolean objectKeys;
+    /**
+     * true if a reader waits for the writer holding the lock to take a snapshot
+     */
+    private volatile boolean snapshotRequested;
+    private volatile PopulationBuffer population;
+
+    /**
+     * @param objectKeys true if the store is keyed by objects, false if by primitive longs
+     */
+    ValueIndex(PostingsStore store, boolean objectKeys) {
+        this.store = store;
+        this.objectKeys = objectKeys;
+    }
+
+    /**
+     * @return true if the node-id was not yet stored for the value, called with the write lock
+     */
+    abstract boolean insert(Object value, long nodeId);
+
+    /**
+     * @return the id of another node having the value, then the node-id was not stored, otherwise -1,
+     * called with the write lock
+     */
+    abstract long insertUnique(Object value, long nodeId);
+
+    /**
+     * @return true if the node-id was stored for the value, called with the write lock
+     */
+    abstract boolean delete(Object value, long nodeId);
+
+    /**
+     * buffers the entry for the bulk load at the end of population, safe to call from several threads
+     */
+    abstract void buffer(Object value, long nodeId);
+
+    /**
+     * @return the key of the value in the store as an object, values with equal keys share an entry
+     */
+    abstract Object storeKey(Object value);
+
+    /**
+     * applies the net change of a key returned by storeKey(), called with the write lock
+     *
+     * @return the change of the number of node-ids
+     */
+    abstract long change(Object storeKey, long[] add, long[] remove);
+
+    /**
+     * @return the node-ids for the value in the snapshot or null
+     */
+    abstract Postings get(PostingsStore.Snapshot data, Object value);
+
+    /**
+     * resets the cursor to the node-ids for the value in the snapshot
+     *
+     * @return false if the value is not indexed
+     */
+    abstract boolean get(PostingsStore.Snapshot data, Object value, PostingsCursor cursor);
+
+    /**
+     * @param values values of this sub-index in any order, possibly with duplicates
+     * @return the postings of the indexed values, looked up in key order
+     */
+    abstract List<Postings> getAll(PostingsStore.Snapshot data, List<Object> values);
+
+    /**
+     * @return the postings that are not null
+     */
+    static List<Postings> found(Postings[] postings) {
+        List<Postings> found = new ArrayList<>(postings.length);
+        for (Postings p : postings) {
+            if (p != null) found.add(p);
+        }
+        return found;
+    }
+
+    /**
+     * @return the property value of a key of the store, numbers are returned in the type they are keyed by
+     */
+    abstract Object value(long key, Object objectKey);
+
+    /**
+     * @return true if the node-id was not yet stored for the value
+     */
+    final boolean add(Object value, long nodeId) {
+        long stamp = lockForUpdate();
+        try {
+            return insert(value, nodeId);
+        } finally {
+            unlockUpdate(stamp);
+            rebalanceIfNeeded();
+        }
+    }
+
+    /**
+     * adds the node-id unless the value is stored for another node, concurrent adds of a value are serialized
+     * by the write lock, so only one of them succeeds
+     *
+     * @return the id of another node having the value, then the node-id was not added, otherwise -1
+     */
+    final long addUnique(Object value, long nodeId) {
+        long stamp = lockForUpdate();
+        try {
+            return insertUnique(value, nodeId);
+        } finally {
+            unlockUpdate(stamp);
+            rebalanceIfNeeded();
+        }
+    }
+
+    /**
+     * @return true if the node-id was stored for the value
+     */
+    final boolean remove(Object value, long nodeId) {
+        long stamp = lockForUpdate();
+        try {
+            return delete(value, nodeId);
+        } finally {
+            unlockUpdate(stamp);
+            rebalanceIfNeeded();
+        }
+    }
+
+    /**
+     * @param add    node-ids to add in ascending order
+     * @param remove node-ids to remove in ascending order, none of them in add
+     * @return the change of the number of node-ids
+     */
+    final long update(Object storeKey, long[] add, long[] remove) {
+        long stamp = lockForUpdate();
+        try {
+            return change(storeKey, add, remove);
+        } finally {
+            unlockUpdate(stamp);
+            rebalanceIfNeeded();
+        }
+    }
+
+    /**
+     * @return stamp of the lock, shared for concurrent stores
+     */
+    private long lockForUpdate() {
+        return store.concurrent() ? lock.readLock() : lock.writeLock();
+    }
+
+    /**
+     * releases the lock taken by {@link #lockForUpdate()}
+     */
+    private void unlockUpdate(long stamp) {
+        if (store.concurrent()) lock.unlockRead(stamp);
+        else unlockWrite(stamp);
+    }
+
+    /**
+     * takes a snapshot before releasing the exclusive lock if a reader requested one
+     */
+    private void unlockWrite(long stamp) {
+        try {
+            if (snapshotRequested) {
+                snapshotRequested = false;
+                store.snapshot();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void rebalanceIfNeeded() {
+        if (!store.unbalanced()) return;
+        long stamp = lock.writeLock();
+        try {
+            if (store.unbalanced()) store.rebalance();
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * removes the given node-ids from all entries, drops entries that become empty
+     */
+    final void removeAll(PrimitiveLongSet nodeIds) {
+        long stamp = lock.writeLock();
+        try {
+            store.removeAll(nodeIds);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    final PopulationBuffer population() {
+        PopulationBuffer population = this.population;
+        if (population != null) return population;
+        synchronized (this) {
+            if (this.population == null) this.population = new PopulationBuffer(objectKeys);
+            return this.population;
+        }
+    }
+
+    /**
+     * loads the entries buffered during population into the store, called once all of them are added
+     */
+    final void loadPopulation() {
+        PopulationBuffer population = this.population;
+        if (population == null) return;
+        this.population = null;
+        load(population.sorted());
+    }
+
+    /**
+     * replaces the contents by the entries of the cursor, which come in ascending key order
+     */
+    final void load(PostingsStore.Cursor entries) {
+        long stamp = lock.writeLock();
+        try {
+            store.load(entries);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    final void clear() {
+        long stamp = lock.writeLock();
+        try {
+            store.clear();
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the current state of the store, with all completed updates. A new snapshot is only taken if the store
+     * changed since the last one, for stores that are not concurrent by the reader if the lock is free,
+     * otherwise by the writer holding it
+     */
+    final PostingsStore.Snapshot data() {
+        PostingsStore.Snapshot data = store.published();
+        if (data != null) return data;
+        if (store.concurrent()) {
+            long stamp = lock.readLock();
+            try {
+                return store.snapshot();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        while (true) {
+            long stamp = lock.tryWriteLock();
+            if (stamp != 0) {
+                try {
+                    return store.snapshot();
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+            snapshotRequested = true;
+            // waits for the writer, which took the snapshot unless it checked for the request before it was made
+            stamp = lock.readLock();
+            try {
+                data = store.published();
+                if (data != null) return data;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Point-in-time view of the sub-index.
+     */
+    class Snapshot {
+        final PostingsStore.Snapshot data;
+
+        Snapshot(PostingsStore.Snapshot data) {
+            this.data = data;
+        }
+
+        Postings get(Object value) {
+            return ValueIndex.this.get(data, value);
+        }
+
+        boolean get(Object value, PostingsCursor cursor) {
+            return ValueIndex.this.get(data, value, cursor);
+        }
+
+        /**
+         * @return the postings of the indexed values, see {@link ValueIndex#getAll(PostingsStore.Snapshot, List)}
+         */
+        List<Postings> getAll(List<Object> values) {
+            return ValueIndex.this.getAll(data, values);
+        }
+
+        int count(Object value) {
+            Postings postings = get(value);
+            return postings == null ? 0 : postings.size();
+        }
+
+        /**
+         * @return postings of all entries in key order
+         */
+        Iterator<Postings> values() {
+            return data.values();
+        }
+
+        /**
+         * @return postings of all entries split into about count partitions of keys, see {@link PostingsStore.Snapshot#partitions(int)}
+         */
+        List<Iterator<Postings>> partitions(int count) {
+            return data.partitions(count);
+        }
+
+        /**
+         * @return number of distinct keys
+         */
+        int keys() {
+            return data.size();
+        }
+
+        /**
+         * @return number of node-ids over all entries
+         */
+        long entries() {
+            return data.entries();
+        }
+
+        long heapBytes() {
+            return data.heapBytes();
+        }
+
+        long offHeapBytes() {
+            return data.offHeapBytes();
+        }
+
+        /**
+         * @return cursor over all entries in key order
+         */
+        PostingsStore.Cursor cursor() {
+            return data.cursor();
+        }
+
+        /**
+         * @return cursor over all entries in no particular order, which spares hash stores sorting their keys
+         */
+        PostingsStore.Cursor unorderedCursor() {
+            return data.unorderedCursor();
+        }
+
+        Object value(PostingsStore.Cursor cursor) {
+            return ValueIndex.this.value(cursor.key(), cursor.objectKey());
+        }
+    }
+}
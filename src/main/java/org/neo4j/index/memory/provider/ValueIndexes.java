@@ -0,0 +1,305 @@
+package org.neo4j.index.memory.provider;
+
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.helpers.collection.Iterables;
+import org.neo4j.register.Register;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Routes property values to a sub-index per value type, which is created on the first add of that type.
+ * Integral numbers and doubles get primitive long keyed stores, every other type its own store in natural order.
+ * The {@link IndexStorage} decides whether numbers and Strings are kept on or off the heap.
+ * Sub-indexes are created concurrently safe, each of them guards its own data.
+ * Readers work on a {@link Snapshot} that combines snapshots of all sub-indexes.
+ */
+class ValueIndexes {
+    private volatile LongValueIndex longs;
+    private volatile DoubleValueIndex doubles;
+    private final Map<Class<?>, ComparableValueIndex> others = new ConcurrentHashMap<>();
+    private final IndexStorage storage;
+    private final int shards;
+    private final boolean ngrams;
+
+    ValueIndexes(IndexStorage storage) {
+        this(storage, 1, false);
+    }
+
+    /**
+     * @param shards number of key ranges each sub-index is split into once it is large enough, 1 for none
+     * @param ngrams true to keep a trigram index of the Strings for substring and suffix seeks
+     */
+    ValueIndexes(IndexStorage storage, int shards, boolean ngrams) {
+        this.storage = storage;
+        this.shards = shards;
+        this.ngrams = ngrams;
+    }
+
+    /**
+     * @return the sub-index holding the given value or null if there is none for its type yet
+     */
+    ValueIndex get(Object value) {
+        if (value instanceof Number) {
+            return LongValueIndex.accepts((Number) value) ? longs : doubles;
+        }
+        return others.get(value.getClass());
+    }
+
+    ValueIndex getOrCreate(Object value) {
+        if (value instanceof Number) {
+            return LongValueIndex.accepts((Number) value) ? longs() : doubles();
+        }
+        return others(value.getClass());
+    }
+
+    LongValueIndex longs() {
+        LongValueIndex index = longs;
+        return index != null ? index : createLongs();
+    }
+
+    DoubleValueIndex doubles() {
+        DoubleValueIndex index = doubles;
+        return index != null ? index : createDoubles();
+    }
+
+    /**
+     * @return the sub-index for the non-numeric type, created if there is none yet
+     */
+    ComparableValueIndex others(Class<?> type) {
+        return others.computeIfAbsent(type, t -> new ComparableValueIndex(comparableStore(t)));
+    }
+
+    private synchronized LongValueIndex createLongs() {
+        if (longs == null) longs = new LongValueIndex(numberStore());
+        return longs;
+    }
+
+    private synchronized DoubleValueIndex createDoubles() {
+        if (doubles == null) doubles = new DoubleValueIndex(numberStore());
+        return doubles;
+    }
+
+    private PostingsStore numberStore() {
+        return sharded(false, () -> {
+            if (storage != IndexStorage.heap) {
+                return new SegmentedPostingsStore(new LongPostingsTree(), new LongPostingsTree(), new Segment.Longs(storage == IndexStorage.off_heap));
+            }
+            return new HashPostingsStore.Longs();
+        });
+    }
+
+    private PostingsStore comparableStore(Class<?> type) {
+        PostingsStore store = sharded(true, () -> {
+            if (storage != IndexStorage.heap && type == String.class) {
+                return new SegmentedPostingsStore(new ComparablePostingsTree(), new ComparablePostingsTree(), new Segment.Strings(storage == IndexStorage.off_heap));
+            }
+            return new HashPostingsStore.Comparables();
+        });
+        return ngrams && type == String.class ? new NgramPostingsStore(store) : store;
+    }
+
+    private PostingsStore sharded(boolean objectKeys, Supplier<PostingsStore> stores) {
+        return shards > 1 ? new ShardedPostingsStore(stores, objectKeys, shards) : stores.get();
+    }
+
+    /**
+     * @return a point-in-time view of all sub-indexes, each of them is taken in O(1)
+     */
+    Snapshot snapshot() {
+        LongValueIndex longs = this.longs;
+        DoubleValueIndex doubles = this.doubles;
+        Map<Class<?>, ComparableValueIndex.ComparableSnapshot> others = new HashMap<>();
+        for (Map.Entry<Class<?>, ComparableValueIndex> entry : this.others.entrySet()) {
+            others.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(longs == null ? null : longs.snapshot(), doubles == null ? null : doubles.snapshot(), others);
+    }
+
+    /**
+     * loads the entries buffered during population into the sub-indexes, in parallel on the fork/join pool
+     */
+    void loadPopulation() {
+        all().parallelStream().forEach(ValueIndex::loadPopulation);
+    }
+
+    void removeAll(PrimitiveLongSet nodeIds) {
+        for (ValueIndex index : all()) {
+            index.removeAll(nodeIds);
+        }
+    }
+
+    synchronized void clear() {
+        longs = null;
+        doubles = null;
+        others.clear();
+    }
+
+    private List<ValueIndex> all() {
+        List<ValueIndex> all = new ArrayList<>(others.size() + 2);
+        LongValueIndex longs = this.longs;
+        DoubleValueIndex doubles = this.doubles;
+        if (longs != null) all.add(longs);
+        if (doubles != null) all.add(doubles);
+        all.addAll(others.values());
+        return all;
+    }
+
+    /**
+     * Point-in-time view of all sub-indexes, taken one after another.
+     */
+    static final class Snapshot {
+        private final NumberValueIndex.NumberSnapshot longs, doubles;
+        private final Map<Class<?>, ComparableValueIndex.ComparableSnapshot> others;
+
+        private Snapshot(NumberValueIndex.NumberSnapshot longs, NumberValueIndex.NumberSnapshot doubles,
+                         Map<Class<?>, ComparableValueIndex.ComparableSnapshot> others) {
+            this.longs = longs;
+            this.doubles = doubles;
+            this.others = others;
+        }
+
+        /**
+         * @return the snapshot of the sub-index holding the given value or null if there is none for its type
+         */
+        ValueIndex.Snapshot get(Object value) {
+            if (value instanceof Number) {
+                return LongValueIndex.accepts((Number) value) ? longs : doubles;
+            }
+            return others.get(value.getClass());
+        }
+
+        ComparableValueIndex.ComparableSnapshot strings() {
+            return others.get(String.class);
+        }
+
+        NumberValueIndex.NumberSnapshot longs() {
+            return longs;
+        }
+
+        NumberValueIndex.NumberSnapshot doubles() {
+            return doubles;
+        }
+
+        /**
+         * @return snapshots of the sub-indexes of non-numeric types by type
+         */
+        Map<Class<?>, ComparableValueIndex.ComparableSnapshot> others() {
+            return others;
+        }
+
+        Iterator<Postings> numberRange(Number lower, Number upper) {
+            List<Iterator<Postings>> ranges = new ArrayList<>(2);
+            if (longs != null) ranges.add(longs.range(lower, upper));
+            if (doubles != null) ranges.add(doubles.range(lower, upper));
+            return Iterables.concat(ranges.iterator());
+        }
+
+        /**
+         * @return the postings of the indexed values, each sub-index is searched once with its values in key order
+         */
+        List<Postings> getAll(Iterable<?> values) {
+            Map<ValueIndex.Snapshot, List<Object>> bySubIndex = new HashMap<>();
+            for (Object value : values) {
+                ValueIndex.Snapshot index = get(value);
+                if (index != null) bySubIndex.computeIfAbsent(index, k -> new ArrayList<>()).add(value);
+            }
+            List<Postings> postings = new ArrayList<>();
+            for (Map.Entry<ValueIndex.Snapshot, List<Object>> entry : bySubIndex.entrySet()) {
+                postings.addAll(entry.getKey().getAll(entry.getValue()));
+            }
+            return postings;
+        }
+
+        Iterator<Postings> values() {
+            List<Iterator<Postings>> values = new ArrayList<>();
+            for (ValueIndex.Snapshot snapshot : all()) {
+                values.add(snapshot.values());
+            }
+            return Iterables.concat(values.iterator());
+        }
+
+        /**
+         * splits the sub-indexes into partitions in proportion to their entries, every sub-index gets at least one
+         *
+         * @return postings of all entries in about count partitions
+         */
+        List<Iterator<Postings>> partitions(int count) {
+            List<ValueIndex.Snapshot> all = all();
+            long entries = Math.max(1, entries());
+            List<Iterator<Postings>> partitions = new ArrayList<>(count + all.size());
+            for (ValueIndex.Snapshot snapshot : all) {
+                partitions.addAll(snapshot.partitions((int) Math.max(1, count * snapshot.entries() / entries)));
+            }
+            return partitions;
+        }
+
+        /**
+         * @return number of distinct keys over all sub-indexes
+         */
+        long keys() {
+            long keys = 0;
+            for (ValueIndex.Snapshot snapshot : all()) {
+                keys += snapshot.keys();
+            }
+            return keys;
+        }
+
+        /**
+         * writes the exact number of distinct values and of entries as the index sample
+         *
+         * @return the number of entries
+         */
+        long sample(Register.DoubleLong.Out out) {
+            long entries = entries();
+            out.write(keys(), entries);
+            return entries;
+        }
+
+        /**
+         * @return number of node-ids over all entries
+         */
+        long entries() {
+            long entries = 0;
+            for (ValueIndex.Snapshot snapshot : all()) {
+                entries += snapshot.entries();
+            }
+            return entries;
+        }
+
+        /**
+         * @return estimated bytes of all sub-indexes on the java heap
+         */
+        long heapBytes() {
+            long bytes = 0;
+            for (ValueIndex.Snapshot snapshot : all()) {
+                bytes += snapshot.heapBytes();
+            }
+            return bytes;
+        }
+
+        /**
+         * @return bytes of all sub-indexes outside of the java heap
+         */
+        long offHeapBytes() {
+            long bytes = 0;
+            for (ValueIndex.Snapshot snapshot : all()) {
+                bytes += snapshot.offHeapBytes();
+            }
+            return bytes;
+        }
+
+        List<ValueIndex.Snapshot> all() {
+            List<ValueIndex.Snapshot> all = new ArrayList<>(others.size() + 2);
+            if (longs != null) all.add(longs);
+            if (doubles != null) all.add(doubles);
+            all.addAll(others.values());
+            return all;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.neo4j.index.memory.provider;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Property value encoded into bytes whose unsigned lexicographic order is the order of the values,
+ * so keys are compared like memcmp without decoding and can be kept in flat buffers.
+ * Used for array values, which are neither comparable nor have value based equality as java objects.
+ *
+ * Each element is encoded with a type tag followed by:
+ * <ul>
+ * <li>booleans: one byte</li>
+ * <li>numbers of any width: the bits of the nearest double, arranged to sort like the numbers, and two bytes for the
+ * difference of a long to that double, so ints, longs and doubles of equal value get equal keys</li>
+ * <li>chars: two bytes</li>
+ * <li>Strings: their chars with zero bytes escaped as 0x00 0xFF, terminated by 0x00 0x00</li>
+ * </ul>
+ * Arrays are their elements terminated by a zero byte, which sorts a prefix before the longer arrays.
+ */
+final class ValueKey implements Comparable<ValueKey> {
+    private static final byte END = 0, BOOLEAN = 0x10, NUMBER = 0x20, CHAR = 0x30, STRING = 0x40, ARRAY = 0x50;
+    private static final int NUMBER_BYTES = Long.BYTES + Short.BYTES;
+
+    private final byte[] bytes;
+    private int hash;
+
+    ValueKey(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the value itself, or its key if it is an array
+     */
+    static Object indexed(Object value) {
+        return value.getClass().isArray() ? of(value) : value;
+    }
+
+    static ValueKey of(Object value) {
+        Encoder encoder = new Encoder();
+        encoder.add(value);
+        return new ValueKey(encoder.bytes());
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the array type of the encoded value, numbers of any width are reported as Number[]
+     */
+    Class<?> type() {
+        if (bytes[0] != ARRAY) return Object.class;
+        switch (bytes[1]) {
+            case BOOLEAN:
+                return boolean[].class;
+            case NUMBER:
+                return Number[].class;
+            case CHAR:
+                return char[].class;
+            case STRING:
+                return String[].class;
+            default:
+                return Object[].class;
+        }
+    }
+
+    @Override
+    public int compareTo(ValueKey other) {
+        byte[] a = bytes, b = other.bytes;
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) return (a[i] & 0xFF) - (b[i] & 0xFF);
+        }
+        return a.length - b.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof ValueKey && Arrays.equals(bytes, ((ValueKey) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = this.hash;
+        if (hash == 0) this.hash = hash = Arrays.hashCode(bytes);
+        return hash;
+    }
+
+    /**
+     * @return the decoded value, e.g. [1, 2.5, 3] for an array of numbers
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        decode(0, result);
+        return result.toString();
+    }
+
+    private int decode(int pos, StringBuilder result) {
+        switch (bytes[pos++]) {
+            case BOOLEAN:
+                result.append(bytes[pos] != 0);
+                return pos + 1;
+            case NUMBER:
+                result.append(number(pos));
+                return pos + NUMBER_BYTES;
+            case CHAR:
+                result.append((char) ((bytes[pos] & 0xFF) << 8 | bytes[pos + 1] & 0xFF));
+                return pos + 2;
+            case STRING:
+                while (bytes[pos] != 0 || bytes[pos + 1] != 0) {
+                    int high = bytes[pos] & 0xFF;
+                    pos += high == 0 ? 2 : 1;
+                    int low = bytes[pos] & 0xFF;
+                    pos += low == 0 ? 2 : 1;
+                    result.append((char) (high << 8 | low));
+                }
+                return pos + 2;
+            case ARRAY:
+                result.append('[');
+                for (boolean first = true; bytes[pos] != END; first = false) {
+                    if (!first) result.append(", ");
+                    pos = decode(pos, result);
+                }
+                result.append(']');
+                return pos + 1;
+            default:
+                throw new IllegalStateException("Unknown tag " + bytes[pos - 1] + " at " + (pos - 1));
+        }
+    }
+
+    private Number number(int pos) {
+        long bits = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            bits = bits << 8 | bytes[pos + i] & 0xFF;
+        }
+        bits ^= Long.MIN_VALUE;
+        double value = Double.longBitsToDouble(bits ^ ((bits >> 63) & Long.MAX_VALUE));
+        int difference = ((bytes[pos + Long.BYTES] & 0xFF) << 8 | bytes[pos + Long.BYTES + 1] & 0xFF) - 0x8000;
+        if (value != Math.rint(value) || Math.abs(value) > 0x1p63 || value == 0x1p63 && difference == 0) return value;
+        // a long that rounds to 2^63 is below it, the sum wraps around into the long range
+        return (value == 0x1p63 ? Long.MIN_VALUE : (long) value) + difference;
+    }
+
+    /**
+     * Appends encoded values to a growing byte array.
+     */
+    private static final class Encoder {
+        private byte[] bytes = new byte[32];
+        private int size;
+
+        void add(Object value) {
+            if (value.getClass().isArray()) {
+                put(ARRAY);
+                for (int i = 0, length = Array.getLength(value); i < length; i++) {
+                    add(Array.get(value, i));
+                }
+                put(END);
+            } else if (value instanceof Number) {
+                addNumber((Number) value);
+            } else if (value instanceof Boolean) {
+                put(BOOLEAN);
+                put((Boolean) value ? 1 : 0);
+            } else if (value instanceof Character) {
+                char c = (Character) value;
+                put(CHAR);
+                put(c >>> 8);
+                put(c);
+            } else if (value instanceof String) {
+                String string = (String) value;
+                put(STRING);
+                for (int i = 0; i < string.length(); i++) {
+                    char c = string.charAt(i);
+                    putEscaped(c >>> 8);
+                    putEscaped(c & 0xFF);
+                }
+                put(END);
+                put(END);
+            } else {
+                throw new IllegalArgumentException("Unsupported property value type " + value.getClass().getName());
+            }
+        }
+
+        /**
+         * longs are keyed by the double they round to and their difference to it, which is at most 1024
+         */
+        private void addNumber(Number value) {
+            long bits;
+            int difference = 0;
+            if (LongValueIndex.accepts(value)) {
+                long longValue = value.longValue();
+                double rounded = (double) longValue;
+                bits = DoubleValueIndex.sortableBits(rounded);
+                difference = (int) (rounded == 0x1p63 ? longValue - Long.MAX_VALUE - 1 : longValue - (long) rounded);
+            } else {
+                bits = DoubleValueIndex.sortableBits(value.doubleValue());
+            }
+            put(NUMBER);
+            bits ^= Long.MIN_VALUE;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                put((int) (bits >>> shift));
+            }
+            put((difference + 0x8000) >>> 8);
+            put(difference + 0x8000);
+        }
+
+        private void putEscaped(int b) {
+            put(b);
+            if ((b & 0xFF) == 0) put(0xFF);
+        }
+
+        private void put(int b) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) b;
+        }
+
+        byte[] bytes() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
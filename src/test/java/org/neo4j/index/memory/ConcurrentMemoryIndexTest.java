@@ -0,0 +1,85 @@
+package org.neo4j.index.memory;
+
+import org.junit.Test;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.index.memory.provider.MemoryIndex;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentMemoryIndexTest {
+
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int NODES_PER_WRITER = 50_000;
+
+    @Test
+    public void testConcurrentReadersAndWriters() throws Exception {
+        final MemoryIndex index = new MemoryIndex();
+        index.create();
+        index.close(true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = 0; i < NODES_PER_WRITER; i++) {
+                        long nodeId = writer * NODES_PER_WRITER + i;
+                        index.process(NodePropertyUpdate.add(nodeId, 0, value(i), new long[0]));
+                        if (i % 10 == 9) {
+                            index.process(NodePropertyUpdate.change(nodeId, 0, value(i), new long[0], value(i + 1), new long[0]));
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        List<Future<Long>> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    long seen = 0;
+                    while (writing.get()) {
+                        IndexReader reader = index.newReader();
+                        seen += count(reader.rangeSeekByNumberInclusive(10, 500));
+                        seen += count(reader.rangeSeekByPrefix("1"));
+                        seen += count(reader.seek(42));
+                        seen += reader.countIndexedNodes(0, "7");
+                        seen += count(reader.scan());
+                        reader.close();
+                    }
+                    return seen;
+                }
+            }));
+        }
+        for (Future<?> writer : writers) writer.get(1, TimeUnit.MINUTES);
+        writing.set(false);
+        for (Future<Long> reader : readers) assertTrue(reader.get(1, TimeUnit.MINUTES) >= 0);
+        executor.shutdown();
+
+        IndexReader reader = index.newReader();
+        assertEquals(WRITERS * NODES_PER_WRITER, count(reader.scan()));
+        // nodes 10..18 keep their values, node 9 changed to 10 and node 19 to "20"
+        assertEquals(WRITERS * 10, count(reader.rangeSeekByNumberInclusive(10, 19)));
+        assertEquals(WRITERS * 2, count(reader.seek("20")));
+    }
+
+    private static Object value(int i) {
+        return i % 20 == 0 ? String.valueOf(i) : i % 3 == 0 ? (Object) (i + 0.5) : (Object) i;
+    }
+
+    private static int count(PrimitiveLongIterator it) {
+        return PrimitiveLongCollections.count(it);
+    }
+}
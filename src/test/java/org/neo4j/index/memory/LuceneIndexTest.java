@@ -1,15 +1,31 @@
 package org.neo4j.index.memory;
 
+import org.junit.After;
 import org.junit.Before;
 
 import java.io.IOException;
 
 public class LuceneIndexTest extends BasicIndexTest {
+    private int priority;
+
     @Override
     @Before
     public void setUp() throws IOException {
+        priority = MemorySchemaIndexProvider.PRIORITY;
         MemorySchemaIndexProvider.PRIORITY = 0;
         super.setUp();
     }
-}
 
+    /**
+     * restores the priority, so databases of later tests use the memory index again
+     */
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        try {
+            super.tearDown();
+        } finally {
+            MemorySchemaIndexProvider.PRIORITY = priority;
+        }
+    }
+}
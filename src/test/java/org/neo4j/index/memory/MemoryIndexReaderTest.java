@@ -0,0 +1,1016 @@
+package org.neo4j.index.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.helpers.collection.Iterables;
+import org.neo4j.index.memory.provider.IndexMetrics;
+import org.neo4j.index.memory.provider.IndexOptions;
+import org.neo4j.index.memory.provider.IndexStorage;
+import org.neo4j.index.memory.provider.MemoryBudget;
+import org.neo4j.index.memory.provider.MemoryIndex;
+import org.neo4j.index.memory.provider.MemoryIndexReader;
+import org.neo4j.index.memory.provider.OrderedCursor;
+import org.neo4j.index.memory.provider.PostingsCursor;
+import org.neo4j.kernel.api.direct.BoundedIterable;
+import org.neo4j.kernel.api.exceptions.index.IndexCapacityExceededException;
+import org.neo4j.kernel.api.properties.Property;
+import org.neo4j.kernel.api.index.IndexEntryConflictException;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.InternalIndexState;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.api.index.PreexistingIndexEntryConflictException;
+import org.neo4j.kernel.api.index.PropertyAccessor;
+import org.neo4j.kernel.api.index.Reservation;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+import org.neo4j.register.Register.DoubleLongRegister;
+import org.neo4j.register.Registers;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(Parameterized.class)
+public class MemoryIndexReaderTest {
+
+    @Parameterized.Parameters(name = "{0} node values {1}")
+    public static Collection<Object[]> storages() {
+        return Arrays.asList(new Object[][]{{IndexStorage.heap, true}, {IndexStorage.segments, true}, {IndexStorage.off_heap, true}, {IndexStorage.heap, false}});
+    }
+
+    @Parameterized.Parameter
+    public IndexStorage storage;
+
+    @Parameterized.Parameter(1)
+    public boolean nodeValues;
+
+    private MemoryIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new MemoryIndex(options());
+        index.create();
+    }
+
+    private IndexOptions options() {
+        return new IndexOptions().storage(storage).nodeValues(nodeValues);
+    }
+
+    @Test
+    public void testSeekAcrossNumberTypes() throws Exception {
+        index.add(1, 42);
+        index.add(2, 42L);
+        index.add(3, 42.0d);
+        index.add(4, 42.5d);
+        index.add(5, "42");
+        index.close(true);
+
+        IndexReader reader = index.newReader();
+        assertArrayEquals(new long[]{1, 2, 3}, sorted(reader.seek((short) 42)));
+        assertArrayEquals(new long[]{4}, sorted(reader.seek(42.5f)));
+        assertArrayEquals(new long[]{5}, sorted(reader.seek("42")));
+        assertEquals(0, reader.countIndexedNodes(0, 43));
+    }
+
+    @Test
+    public void testNumberRangeIsInclusiveAndSpansTypes() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            index.add(i, i);
+            index.add(10_000 + i, i + 0.5d);
+        }
+        index.close(true);
+
+        IndexReader reader = index.newReader();
+        assertArrayEquals(new long[]{10, 11, 12, 10_010, 10_011}, sorted(reader.rangeSeekByNumberInclusive(10, 12)));
+        assertArrayEquals(new long[]{11, 12, 10_010, 10_011}, sorted(reader.rangeSeekByNumberInclusive(10.2, 12L)));
+        assertArrayEquals(new long[]{998, 999, 10_998, 10_999}, sorted(reader.rangeSeekByNumberInclusive(998, null)));
+        assertArrayEquals(new long[]{0, 10_000}, sorted(reader.rangeSeekByNumberInclusive(null, 0.5)));
+        assertEquals(2000, PrimitiveLongCollections.count(reader.scan()));
+    }
+
+    @Test
+    public void testStringRangeAndPrefix() throws Exception {
+        index.add(1, "apple");
+        index.add(2, "banana");
+        index.add(3, "bandana");
+        index.add(4, "cherry");
+        index.add(5, 1);
+        index.close(true);
+
+        IndexReader reader = index.newReader();
+        assertArrayEquals(new long[]{2, 3}, sorted(reader.rangeSeekByPrefix("ban")));
+        assertArrayEquals(new long[]{2, 3, 4}, sorted(reader.rangeSeekByString("banana", true, "cherry", true)));
+        assertArrayEquals(new long[]{3}, sorted(reader.rangeSeekByString("banana", false, "cherry", false)));
+        assertArrayEquals(new long[]{1, 2}, sorted(reader.rangeSeekByString(null, false, "bandana", false)));
+    }
+
+    @Test
+    public void testPrefixesEndingWithHighestChar() throws Exception {
+        index.add(1, "a\uffff");
+        index.add(2, "a\uffffb");
+        index.add(3, "b");
+        index.add(4, "\uffff\uffff");
+        index.add(5, "");
+        index.close(true);
+
+        IndexReader reader = index.newReader();
+        assertArrayEquals(new long[]{1, 2}, sorted(reader.rangeSeekByPrefix("a\uffff")));
+        assertArrayEquals(new long[]{1, 2}, sorted(reader.rangeSeekByPrefix("a")));
+        assertArrayEquals(new long[]{4}, sorted(reader.rangeSeekByPrefix("\uffff")));
+        assertArrayEquals(new long[]{1, 2, 3, 4, 5}, sorted(reader.rangeSeekByPrefix("")));
+    }
+
+    @Test
+    public void testKeysWithSharedPrefixes() throws Exception {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            keys.add("user" + i + "@example.com");
+            keys.add("https://example.com/products/" + (i % 100) + "/sku-" + i);
+            keys.add("\u00fcber-" + i + (i % 3 == 0 ? "-\u4e2d\u6587" : ""));
+        }
+        keys.add("");
+        keys.add("user");
+        for (int i = 0; i < keys.size(); i++) {
+            index.add(i, keys.get(i));
+        }
+        index.close(true);
+
+        IndexReader reader = index.newReader();
+        for (int i = 0; i < keys.size(); i += 7) {
+            assertArrayEquals(new long[]{i}, sorted(reader.seek(keys.get(i))));
+        }
+        assertEquals(0, PrimitiveLongCollections.count(reader.seek("user1@example.co")));
+        assertEquals(1 + 10 + 100 + 1000, PrimitiveLongCollections.count(reader.rangeSeekByPrefix("user1")));
+        assertEquals(20, PrimitiveLongCollections.count(reader.rangeSeekByPrefix("https://example.com/products/42/")));
+        assertEquals(2_000, PrimitiveLongCollections.count(reader.rangeSeekByPrefix("\u00fcber-")));
+        assertArrayEquals(new long[]{3 * 999 + 2}, sorted(reader.seek("\u00fcber-999-\u4e2d\u6587")));
+        assertEquals(2_000 + 1, PrimitiveLongCollections.count(reader.rangeSeekByString("user", true, "user:", false)));
+    }
+
+    @Test
+    public void testRemoveNodes() throws Exception {
+        for (int i = 0; i < 10_000; i++) {
+            index.add(i, i % 100);
+        }
+        index.close(true);
+        index.remove(PrimitiveLongCollections.setOf(5, 105, 7));
+
+        IndexReader reader = index.newReader();
+        assertArrayEquals(new long[]{205}, Arrays.copyOf(sorted(reader.seek(5)), 1));
+        assertEquals(98, reader.countIndexedNodes(0, 5));
+        assertEquals(99, reader.countIndexedNodes(0, 7));
+        assertEquals(10_000 - 3, PrimitiveLongCollections.count(reader.scan()));
+    }
+
+    @Test
+    public void testLowCardinalityPostingsStaySortedAndComplete() throws Exception {
+        for (int i = 0; i < 200_000; i++) {
+            index.add(i, i % 3 == 0 ? "DE" : "US");
+        }
+        index.add(1L << 40, "DE");
+        index.close(true);
+        for (int i = 0; i < 200_000; i += 6) {
+            index.process(NodePropertyUpdate.remove(i, 0, "DE", new long[0]));
+        }
+
+        IndexReader reader = index.newReader();
+        long[] de = PrimitiveLongCollections.asArray(reader.seek("DE"));
+        assertEquals(200_000 / 6 + 1, de.length);
+        assertEquals(3, de[0]);
+        assertEquals(1L << 40, de[de.length - 1]);
+        long[] copy = de.clone();
+        Arrays.sort(copy);
+        assertArrayEquals(copy, de);
+        assertEquals(200_000 - 200_000 / 3 - 1, reader.countIndexedNodes(0, "US"));
+    }
+
+    @Test
+    public void testReadersSeeSnapshotAtCreation() throws Exception {
+        for (int i = 0; i < 10_000; i++) {
+            index.add(i, i % 2 == 0 ? "even" : "odd");
+            index.add(i, i);
+        }
+        index.close(true);
+
+        IndexReader reader = index.newReader();
+        BoundedIterable<Long> allEntries = index.newAllEntriesReader();
+        for (int i = 0; i < 10_000; i += 2) {
+            index.process(NodePropertyUpdate.change(i, 0, "even", new long[0], "odd", new long[0]));
+            index.process(NodePropertyUpdate.remove(i, 0, i, new long[0]));
+        }
+        index.add(20_000, "even");
+        index.remove(PrimitiveLongCollections.setOf(1, 3));
+
+        assertEquals(5_000, reader.countIndexedNodes(0, "even"));
+        assertEquals(5_000, PrimitiveLongCollections.count(reader.seek("odd")));
+        assertArrayEquals(new long[]{0, 1, 2, 3}, sorted(reader.rangeSeekByNumberInclusive(0, 3)));
+        assertEquals(20_000, PrimitiveLongCollections.count(reader.scan()));
+        assertEquals(20_000, allEntries.maxCount());
+        assertEquals(20_000, Iterables.count(allEntries));
+
+        IndexReader current = index.newReader();
+        assertArrayEquals(new long[]{20_000}, sorted(current.seek("even")));
+        assertEquals(9_998, current.countIndexedNodes(0, "odd"));
+        assertEquals(4_998, PrimitiveLongCollections.count(current.rangeSeekByNumberInclusive(null, null)));
+    }
+
+    @Test
+    public void testPopulateFromSeveralThreadsWithConcurrentUpdates() throws Exception {
+        IndexUpdater updater = index.newPopulatingUpdater(null);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = thread; i < 100_000; i += 4) {
+                    index.add(i, i % 1000);
+                    index.add(i, "value" + (i % 100));
+                    index.add(i, "value" + (i % 100));
+                }
+                return null;
+            }));
+        }
+        updater.process(NodePropertyUpdate.change(0, 0, 0, new long[0], 4711, new long[0]));
+        updater.process(NodePropertyUpdate.add(200_000, 0, "value1", new long[0]));
+        updater.remove(PrimitiveLongCollections.setOf(1, 2));
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        index.close(true);
+
+        IndexReader reader = index.newReader();
+        assertEquals(99, PrimitiveLongCollections.count(reader.seek(0)));
+        assertArrayEquals(new long[]{0}, sorted(reader.seek(4711)));
+        assertEquals(100, PrimitiveLongCollections.count(reader.seek(999)));
+        assertArrayEquals(new long[]{101, 201, 301}, Arrays.copyOf(sorted(reader.seek("value1")), 3));
+        assertEquals(1000, PrimitiveLongCollections.count(reader.seek("value1")));
+        assertEquals(999, PrimitiveLongCollections.count(reader.seek("value2")));
+        assertEquals(4_997, PrimitiveLongCollections.count(reader.rangeSeekByNumberInclusive(0, 49)));
+        assertEquals(2 * 100_000 - 4 + 1, index.newAllEntriesReader().maxCount());
+    }
+
+    @Test
+    public void testBatchedUpdatesMatchOnlineUpdates() throws Exception {
+        MemoryIndex online = new MemoryIndex(options());
+        online.create();
+        for (int i = 0; i < 10_000; i++) {
+            index.add(i, i % 50);
+            online.add(i, i % 50);
+        }
+        index.close(true);
+        online.close(true);
+
+        Random random = new Random(42);
+        try (IndexUpdater batched = index.newUpdater(IndexUpdateMode.BATCHED);
+             IndexUpdater immediate = online.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (int i = 0; i < 50_000; i++) {
+                long nodeId = random.nextInt(20_000);
+                Object before = random.nextInt(60), after = random.nextBoolean() ? random.nextInt(60) : "value" + random.nextInt(5);
+                NodePropertyUpdate update;
+                switch (random.nextInt(3)) {
+                    case 0: update = NodePropertyUpdate.add(nodeId, 0, after, new long[0]); break;
+                    case 1: update = NodePropertyUpdate.change(nodeId, 0, before, new long[0], after, new long[0]); break;
+                    default: update = NodePropertyUpdate.remove(nodeId, 0, before, new long[0]);
+                }
+                batched.process(update);
+                immediate.process(update);
+                if (i % 10_000 == 0) {
+                    PrimitiveLongSet removed = PrimitiveLongCollections.setOf(random.nextInt(20_000), random.nextInt(20_000));
+                    batched.remove(removed);
+                    immediate.remove(removed);
+                }
+            }
+        }
+
+        IndexReader expected = online.newReader(), actual = index.newReader();
+        for (int value = 0; value < 60; value++) {
+            assertArrayEquals(sorted(expected.seek(value)), sorted(actual.seek(value)));
+        }
+        for (int value = 0; value < 5; value++) {
+            assertArrayEquals(sorted(expected.seek("value" + value)), sorted(actual.seek("value" + value)));
+        }
+        assertEquals(online.newAllEntriesReader().maxCount(), index.newAllEntriesReader().maxCount());
+    }
+
+    @Test
+    public void testReadersSeeUpdatesDuringSegmentMerges() throws Exception {
+        MemoryIndex heap = new MemoryIndex(options().storage(IndexStorage.heap));
+        heap.create();
+        heap.close(true);
+        index.close(true);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE);
+             IndexUpdater expected = heap.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (int i = 0; i < 300_000; i++) {
+                NodePropertyUpdate update = i % 3 == 2 ? NodePropertyUpdate.remove(i - 2, 0, (i - 2) % 1_000, new long[0])
+                        : NodePropertyUpdate.add(i, 0, i % 1_000, new long[0]);
+                updater.process(update);
+                expected.process(update);
+                if (i % 20_000 == 0) {
+                    assertEquals(heap.newReader().countIndexedNodes(i, i % 1_000), index.newReader().countIndexedNodes(i, i % 1_000));
+                }
+            }
+        }
+        IndexReader expected = heap.newReader(), actual = index.newReader();
+        for (int value = 0; value < 1_000; value += 7) {
+            assertArrayEquals(sorted(expected.seek(value)), sorted(actual.seek(value)));
+        }
+        assertEquals(PrimitiveLongCollections.count(expected.rangeSeekByNumberInclusive(100, 200)),
+                PrimitiveLongCollections.count(actual.rangeSeekByNumberInclusive(100, 200)));
+        assertEquals(heap.newAllEntriesReader().maxCount(), index.newAllEntriesReader().maxCount());
+        DoubleLongRegister expectedSample = Registers.newDoubleLongRegister(), actualSample = Registers.newDoubleLongRegister();
+        assertEquals(heap.sampleResult(expectedSample), index.sampleResult(actualSample));
+        assertEquals(expectedSample.readFirst(), actualSample.readFirst());
+    }
+
+    @Test
+    public void testArrayValuesAreEqualByContent() throws Exception {
+        index.add(1, new int[]{1, 2, 3});
+        index.add(2, new long[]{1, 2, 3});
+        index.add(3, new double[]{1, 2, 3});
+        index.add(4, new double[]{1, 2, 3.5});
+        index.add(5, new long[]{Long.MAX_VALUE, Long.MAX_VALUE - 1});
+        index.add(6, new String[]{"a", "b"});
+        index.add(7, new String[]{"a\u0000", "b"});
+        index.add(8, new String[0]);
+        index.add(9, new boolean[]{true});
+        index.add(10, new char[]{'a', 'b'});
+        index.close(true);
+        index.process(NodePropertyUpdate.remove(2, 0, new long[]{1, 2, 3}, new long[0]));
+        index.process(NodePropertyUpdate.change(9, 0, new boolean[]{true}, new long[0], new boolean[]{false, true}, new long[0]));
+
+        IndexReader reader = index.newReader();
+        assertArrayEquals(new long[]{1, 3}, sorted(reader.seek(new short[]{1, 2, 3})));
+        assertEquals(1, reader.countIndexedNodes(4, new float[]{1, 2, 3.5f}));
+        assertArrayEquals(new long[]{5}, sorted(reader.seek(new long[]{Long.MAX_VALUE, Long.MAX_VALUE - 1})));
+        assertEquals(0, PrimitiveLongCollections.count(reader.seek(new long[]{Long.MAX_VALUE, Long.MAX_VALUE})));
+        assertArrayEquals(new long[]{6}, sorted(reader.seek(new String[]{"a", "b"})));
+        assertArrayEquals(new long[]{7}, sorted(reader.seek(new String[]{"a\u0000", "b"})));
+        assertArrayEquals(new long[]{8}, sorted(reader.seek(new String[0])));
+        assertEquals(0, PrimitiveLongCollections.count(reader.seek(new boolean[]{true})));
+        assertArrayEquals(new long[]{9}, sorted(reader.seek(new boolean[]{false, true})));
+        assertArrayEquals(new long[]{10}, sorted(reader.seek(new char[]{'a', 'b'})));
+        assertEquals(0, PrimitiveLongCollections.count(reader.seek(new String[]{"a"})));
+
+        index.remove(PrimitiveLongCollections.setOf(1, 6));
+        reader = index.newReader();
+        assertArrayEquals(new long[]{3}, sorted(reader.seek(new int[]{1, 2, 3})));
+        assertEquals(0, PrimitiveLongCollections.count(reader.seek(new String[]{"a", "b"})));
+        assertEquals(7, index.newAllEntriesReader().maxCount());
+    }
+
+    @Test
+    public void testSampleCountsDistinctValuesExactly() throws Exception {
+        for (int i = 0; i < 1_000; i++) {
+            index.add(i, i % 10);
+            index.add(i, "value" + (i % 100));
+        }
+        index.close(true);
+        DoubleLongRegister sample = Registers.newDoubleLongRegister();
+        assertEquals(2_000, index.sampleResult(sample));
+        assertEquals(110, sample.readFirst());
+        assertEquals(2_000, sample.readSecond());
+
+        for (int i = 0; i < 10; i++) {
+            index.process(NodePropertyUpdate.remove(i * 100 + 99, 0, "value99", new long[0]));
+        }
+        index.process(NodePropertyUpdate.change(3, 0, 3, new long[0], 3.5, new long[0]));
+        index.process(NodePropertyUpdate.add(5_000, 0, 3.5, new long[0]));
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.BATCHED)) {
+            updater.process(NodePropertyUpdate.add(5_001, 0, "new", new long[0]));
+            updater.remove(PrimitiveLongCollections.setOf(0, 10, 20));
+        }
+        IndexReader reader = index.newReader();
+        assertEquals(2_000 - 10 + 2 - 6, reader.sampleIndex(sample));
+        assertEquals(110 - 1 + 1 + 1, sample.readFirst());
+        assertEquals(2_000 - 10 + 2 - 6, sample.readSecond());
+    }
+
+    @Test
+    public void testSeekAllMatchesSingleSeeks() throws Exception {
+        for (int i = 0; i < 20_000; i++) {
+            index.add(i, i % 5_000);
+            index.add(i, "value" + (i % 7_000));
+        }
+        index.add(30_000, 2.5);
+        index.add(30_001, new int[]{1, 2});
+        index.close(true);
+        // online updates stay in the trees on top of the segments
+        index.process(NodePropertyUpdate.add(30_002, 0, 123, new long[0]));
+        index.process(NodePropertyUpdate.remove(3, 0, 3, new long[0]));
+
+        Random random = new Random(42);
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            values.add(random.nextInt(6_000));
+            values.add("value" + random.nextInt(8_000));
+        }
+        values.addAll(Arrays.asList(2.5, new int[]{1, 2}, 3L, 3.0, 123, "missing"));
+        MemoryIndexReader reader = index.newReader();
+        PrimitiveLongSet expected = Primitive.longSet();
+        for (Object value : values) {
+            expected.addAll(reader.seek(value));
+        }
+        long[] sorted = PrimitiveLongCollections.asArray(reader.seekAll(values, true));
+        assertEquals(expected.size(), sorted.length);
+        for (int i = 0; i < sorted.length; i++) {
+            assertTrue(expected.contains(sorted[i]));
+            if (i > 0) assertTrue(sorted[i - 1] < sorted[i]);
+        }
+        assertEquals(expected, PrimitiveLongCollections.asSetAllowDuplicates(reader.seekAll(values, false)));
+        assertFalse(reader.seekAll(Arrays.asList("missing", 10_000), true).hasNext());
+    }
+
+    @Test
+    public void testPartitionsCoverScanAndAllEntriesInNodeIdOrder() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            index.add(i, random.nextInt(20_000));
+            if (i % 3 == 0) index.add(100_000 + i, "value" + random.nextInt(10_000));
+        }
+        index.add(200_000, 2.5);
+        index.close(true);
+        index.process(NodePropertyUpdate.add(200_001, 0, 123, new long[0]));
+
+        MemoryIndexReader reader = index.newReader();
+        long[] expected = sorted(reader.scan());
+        assertEquals(50_000 + 16_667 + 2, expected.length);
+        List<PrimitiveLongIterator> partitions = reader.partitions(16);
+        assertTrue(partitions.size() > 1);
+        List<Long> ids = new ArrayList<>();
+        for (PrimitiveLongIterator partition : partitions) {
+            while (partition.hasNext()) ids.add(partition.next());
+        }
+        assertArrayEquals(expected, ids.stream().mapToLong(Long::longValue).sorted().toArray());
+        assertArrayEquals(expected, StreamSupport.longStream(reader.spliterator(), true).sorted().toArray());
+
+        BoundedIterable<Long> all = index.newAllEntriesReader(true);
+        assertEquals(expected.length, all.maxCount());
+        ids.clear();
+        all.forEach(ids::add);
+        assertArrayEquals(expected, ids.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    @Test
+    public void testReusedCursorMatchesIteratorsAndSeeksWithoutAllocating() throws Exception {
+        for (int i = 0; i < 20_000; i++) {
+            index.add(i, i % 1000);
+            index.add(100_000 + i, "value" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            index.add(200_000 + i * 3, 5000);
+        }
+        index.add(Integer.MAX_VALUE + 1L, 17);
+        index.close(true);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(300_000, 0, 17, new long[0]));
+            updater.process(NodePropertyUpdate.remove(200_003, 0, 5000, new long[0]));
+        }
+
+        MemoryIndexReader reader = index.newReader();
+        PostingsCursor cursor = new PostingsCursor();
+        for (Object value : new Object[]{17, 999L, 5000, 1.5, "value42", "none"}) {
+            assertArrayEquals(sorted(reader.seek(value)), sorted(reader.seek(value, cursor)));
+        }
+        assertEquals(10_000 - 1, PrimitiveLongCollections.count(reader.seek(5000, cursor)));
+        assertArrayEquals(sorted(reader.rangeSeekByNumberInclusive(10, 20)), sorted(reader.rangeSeekByNumberInclusive(10, 20, cursor)));
+        assertArrayEquals(sorted(reader.rangeSeekByPrefix("value1")), sorted(reader.rangeSeekByPrefix("value1", cursor)));
+        long[] all = sorted(reader.scan());
+        assertArrayEquals(all, sorted(reader.scan(cursor)));
+        assertArrayEquals(Arrays.stream(all).distinct().toArray(), PrimitiveLongCollections.asArray(index.allEntries(true, cursor)));
+
+        // segments create views of their off-heap node-ids for each lookup
+        if (storage != IndexStorage.heap) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Object[] values = new Object[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 2 == 0 ? (Object) (long) i : "value" + i;
+        }
+        long found = 0;
+        for (int round = 0; round < 100; round++) {
+            for (Object value : values) {
+                found += PrimitiveLongCollections.count(reader.seek(value, cursor));
+            }
+        }
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int round = 0; round < 100; round++) {
+            for (Object value : values) {
+                for (PostingsCursor ids = reader.seek(value, cursor); ids.hasNext(); ) {
+                    found += ids.next();
+                }
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue(found > 0);
+        assertTrue("allocated " + allocated + " bytes for 100k seeks", allocated < 100_000);
+    }
+
+    @Test
+    public void testContainsAndEndsWithMatchCheckOfEveryString() throws Exception {
+        MemoryIndex ngrams = new MemoryIndex(options().ngrams(true));
+        ngrams.create();
+        Random random = new Random(42);
+        String[] values = new String[5000];
+        for (int i = 0; i < values.length; i++) {
+            StringBuilder value = new StringBuilder();
+            for (int c = random.nextInt(8); c > 0; c--) {
+                value.append((char) ('a' + random.nextInt(6)));
+            }
+            values[i] = value.toString();
+            index.add(i, values[i]);
+            ngrams.add(i, values[i]);
+        }
+        ngrams.add(10_000, 42);
+        index.close(true);
+        ngrams.close(true);
+        MemoryIndexReader before = ngrams.newReader();
+        String[] populated = values.clone();
+        for (int i = 0; i < 1000; i++) {
+            int nodeId = random.nextInt(values.length);
+            String value = "x" + values[random.nextInt(values.length)];
+            for (MemoryIndex each : Arrays.asList(index, ngrams)) {
+                each.process(NodePropertyUpdate.change(nodeId, 0, values[nodeId], new long[0], value, new long[0]));
+            }
+            values[nodeId] = value;
+        }
+        for (MemoryIndex each : Arrays.asList(index, ngrams)) {
+            try (IndexUpdater updater = each.newUpdater(IndexUpdateMode.ONLINE)) {
+                updater.remove(PrimitiveLongCollections.setOf(0, 1, 2));
+            }
+        }
+        values[0] = values[1] = values[2] = null;
+
+        MemoryIndexReader plain = index.newReader(), reader = ngrams.newReader();
+        for (String part : new String[]{"", "a", "ab", "abc", "cab", "fff", "xab", "abcdef", "q", "b\uffff"}) {
+            long[] containing = matching(values, value -> value.contains(part));
+            assertArrayEquals(part, containing, sorted(reader.containsString(part)));
+            assertArrayEquals(part, containing, sorted(plain.containsString(part)));
+            long[] ending = matching(values, value -> value.endsWith(part));
+            assertArrayEquals(part, ending, sorted(reader.endsWith(part)));
+            assertArrayEquals(part, ending, sorted(plain.endsWith(part)));
+            assertArrayEquals(part, matching(populated, value -> value.contains(part)), sorted(before.containsString(part)));
+        }
+    }
+
+    private static long[] matching(String[] values, Predicate<String> check) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && check.test(values[i])) ids.add((long) i);
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Test
+    public void testOrderedRangesReturnFirstEntriesAndPagesInValueOrder() throws Exception {
+        MemoryIndex sharded = new MemoryIndex(options().shards(4));
+        sharded.create();
+        Map<Long, Object> values = new HashMap<>();
+        for (long i = 0; i < 30_000; i++) {
+            values.put(i, i % 3 == 2 ? (i % 5000) + 0.5d : (Object) (i % 5000));
+            values.put(100_000 + i, String.format("s%04d", i % 3000));
+        }
+        for (MemoryIndex each : Arrays.asList(index, sharded)) {
+            for (Map.Entry<Long, Object> entry : values.entrySet()) {
+                each.add(entry.getKey(), entry.getValue());
+            }
+            each.close(true);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long nodeId = random.nextInt(30_000), stringId = 100_000 + random.nextInt(30_000);
+            Object number = random.nextBoolean() ? (Object) (long) random.nextInt(6000) : random.nextInt(6000) + 0.25d;
+            String string = String.format("t%04d", random.nextInt(3000));
+            for (MemoryIndex each : Arrays.asList(index, sharded)) {
+                each.process(NodePropertyUpdate.change(nodeId, 0, values.get(nodeId), new long[0], number, new long[0]));
+                each.process(NodePropertyUpdate.change(stringId, 0, values.get(stringId), new long[0], string, new long[0]));
+            }
+            values.put(nodeId, number);
+            values.put(stringId, string);
+        }
+
+        for (MemoryIndex each : Arrays.asList(index, sharded)) {
+            MemoryIndexReader reader = each.newReader();
+            for (boolean descending : new boolean[]{false, true}) {
+                List<String> numbers = expected(values, value -> value instanceof Number
+                        && ((Number) value).doubleValue() >= 100 && ((Number) value).doubleValue() <= 4000.5, descending);
+                assertEquals(numbers.subList(0, 50), entries(reader.rangeSeekByNumberOrdered(100, 4000.5, descending, 50)));
+                assertEquals(numbers, entries(reader.rangeSeekByNumberOrdered(100, 4000.5, descending, Integer.MAX_VALUE)));
+                List<String> pages = new ArrayList<>();
+                OrderedCursor page = reader.rangeSeekByNumberOrdered(100, 4000.5, descending, 997);
+                while (true) {
+                    List<String> entries = entries(page);
+                    if (entries.isEmpty()) break;
+                    pages.addAll(entries);
+                    page = reader.rangeSeekByNumberOrdered(100, 4000.5, descending, 997, (Number) page.value(), lastNodeId(entries));
+                }
+                assertEquals(numbers, pages);
+                List<String> after = expected(values, value -> value instanceof Number
+                        && (descending ? ((Number) value).doubleValue() < 4000 : ((Number) value).doubleValue() > 4000), descending);
+                assertEquals(after.subList(0, 10), entries(reader.rangeSeekByNumberOrdered(null, null, descending, 10, 4000, Long.MAX_VALUE)));
+
+                List<String> strings = expected(values, value -> value instanceof String
+                        && ((String) value).compareTo("s1000") > 0 && ((String) value).compareTo("t2000") <= 0, descending);
+                assertEquals(strings.subList(0, 25), entries(reader.rangeSeekByStringOrdered("s1000", false, "t2000", true, descending, 25)));
+                pages.clear();
+                page = reader.rangeSeekByStringOrdered("s1000", false, "t2000", true, descending, 333);
+                while (true) {
+                    List<String> entries = entries(page);
+                    if (entries.isEmpty()) break;
+                    pages.addAll(entries);
+                    page = reader.rangeSeekByStringOrdered("s1000", false, "t2000", true, descending, 333, (String) page.value(), lastNodeId(entries));
+                }
+                assertEquals(strings, pages);
+            }
+        }
+    }
+
+    /**
+     * @return value:node-id of the matching entries, ordered by value, numbers across types, and ascending node-ids
+     */
+    private static List<String> expected(Map<Long, Object> values, Predicate<Object> check, boolean descending) {
+        List<Map.Entry<Long, Object>> entries = new ArrayList<>();
+        for (Map.Entry<Long, Object> entry : values.entrySet()) {
+            if (check.test(entry.getValue())) entries.add(entry);
+        }
+        entries.sort((a, b) -> {
+            int cmp = a.getValue() instanceof String ? ((String) a.getValue()).compareTo((String) b.getValue())
+                    : Double.compare(((Number) a.getValue()).doubleValue(), ((Number) b.getValue()).doubleValue());
+            return cmp != 0 ? (descending ? -cmp : cmp) : Long.compare(a.getKey(), b.getKey());
+        });
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<Long, Object> entry : entries) {
+            result.add(entry.getValue() + ":" + entry.getKey());
+        }
+        return result;
+    }
+
+    private static List<String> entries(OrderedCursor cursor) {
+        List<String> result = new ArrayList<>();
+        while (cursor.hasNext()) {
+            long nodeId = cursor.next();
+            result.add(cursor.value() + ":" + nodeId);
+        }
+        return result;
+    }
+
+    private static long lastNodeId(List<String> entries) {
+        String last = entries.get(entries.size() - 1);
+        return Long.parseLong(last.substring(last.lastIndexOf(':') + 1));
+    }
+
+    @Test
+    public void testDuplicatesFailPopulationOfUniqueIndex() throws Exception {
+        index.unique();
+        index.add(1, "a");
+        index.add(2, "b");
+        index.add(3, "a");
+        try {
+            index.verifyDeferredConstraints(null);
+            fail("population should find the duplicate");
+        } catch (PreexistingIndexEntryConflictException e) {
+            assertEquals("a", e.getPropertyValue());
+            assertEquals(1, e.getExistingNodeId());
+            assertEquals(3, e.getAddedNodeId());
+        }
+    }
+
+    @Test
+    public void testPopulationConflictsReportThePropertyValues() throws Exception {
+        Map<Long, Object> properties = new HashMap<>();
+        properties.put(1L, 1.0);
+        properties.put(2L, 1L);
+        properties.put(3L, new long[]{1, 2});
+        properties.put(4L, new double[]{1, 2});
+        PropertyAccessor accessor = (nodeId, propertyKeyId) -> Property.property(propertyKeyId, properties.get(nodeId));
+
+        index.unique(0);
+        index.add(1, 1.0);
+        index.add(2, 1L);
+        try {
+            index.verifyDeferredConstraints(accessor);
+            fail("1.0 equals 1");
+        } catch (PreexistingIndexEntryConflictException e) {
+            assertEquals(1.0, e.getPropertyValue());
+            assertEquals(1, e.getExistingNodeId());
+            assertEquals(2, e.getAddedNodeId());
+        }
+
+        MemoryIndex arrays = new MemoryIndex(options());
+        arrays.create();
+        arrays.unique(0);
+        arrays.add(3, new long[]{1, 2});
+        arrays.add(4, new double[]{1, 2});
+        try {
+            arrays.verifyDeferredConstraints(accessor);
+            fail("arrays are equal by content");
+        } catch (PreexistingIndexEntryConflictException e) {
+            assertArrayEquals(new long[]{1, 2}, (long[]) e.getPropertyValue());
+        } finally {
+            arrays.drop();
+        }
+    }
+
+    @Test
+    public void testUniqueIndexRejectsSecondNodeWithValue() throws Exception {
+        index.unique();
+        index.add(1, "a");
+        index.add(2, "a");
+        index.add(3, 42);
+        IndexUpdater populating = index.newPopulatingUpdater(null);
+        // resolves the duplicate the scan saw before the verification
+        populating.process(NodePropertyUpdate.change(2, 0, "a", new long[0], "b", new long[0]));
+        index.verifyDeferredConstraints(null);
+        try {
+            populating.process(NodePropertyUpdate.add(4, 0, 42L, new long[0]));
+            fail("42L equals 42");
+        } catch (PreexistingIndexEntryConflictException e) {
+            assertEquals(3, e.getExistingNodeId());
+            assertEquals(4, e.getAddedNodeId());
+        }
+        index.close(true);
+
+        IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE);
+        try {
+            updater.process(NodePropertyUpdate.add(5, 0, 42.0, new long[0]));
+            fail("42.0 equals 42");
+        } catch (IndexEntryConflictException e) {
+            assertEquals(42.0, e.getPropertyValue());
+        }
+        try {
+            updater.process(NodePropertyUpdate.change(1, 0, "a", new long[0], "b", new long[0]));
+            fail("b is indexed for node 2");
+        } catch (IndexEntryConflictException e) {
+            // expected
+        }
+        updater.process(NodePropertyUpdate.add(6, 0, new String[]{"x", "y"}, new long[0]));
+        try {
+            updater.process(NodePropertyUpdate.add(7, 0, new String[]{"x", "y"}, new long[0]));
+            fail("arrays are equal by content");
+        } catch (IndexEntryConflictException e) {
+            assertArrayEquals(new String[]{"x", "y"}, (String[]) e.getPropertyValue());
+        }
+        IndexReader reader = index.newReader();
+        assertEquals(1, reader.countIndexedNodes(0, "a"));
+        assertArrayEquals(new long[]{1}, PrimitiveLongCollections.asArray(reader.seek("a")));
+        assertArrayEquals(new long[]{3}, PrimitiveLongCollections.asArray(reader.seek(42)));
+
+        updater.process(NodePropertyUpdate.change(1, 0, "a", new long[0], "c", new long[0]));
+        updater.process(NodePropertyUpdate.add(8, 0, "a", new long[0]));
+        assertArrayEquals(new long[]{8}, PrimitiveLongCollections.asArray(index.newReader().seek("a")));
+    }
+
+    @Test
+    public void testOnlyOneOfConcurrentAddsOfUniqueValueSucceeds() throws Exception {
+        index.unique();
+        index.close(true);
+        final int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 200; round++) {
+                final String value = "value" + round;
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    final long nodeId = round * threads + t;
+                    results.add(pool.submit(() -> {
+                        try {
+                            index.newUpdater(IndexUpdateMode.ONLINE).process(NodePropertyUpdate.add(nodeId, 0, value, new long[0]));
+                            return true;
+                        } catch (IndexEntryConflictException e) {
+                            return false;
+                        }
+                    }));
+                }
+                int added = 0;
+                for (Future<Boolean> result : results) {
+                    if (result.get()) added++;
+                }
+                assertEquals(1, added);
+                assertEquals(1, index.newReader().countIndexedNodes(0, value));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testShardedIndexMatchesUnshardedUnderConcurrentSkewedUpdates() throws Exception {
+        MemoryIndex sharded = new MemoryIndex(options().shards(4));
+        sharded.create();
+        for (int i = 0; i < 40_000; i++) {
+            for (MemoryIndex each : Arrays.asList(index, sharded)) {
+                each.add(i, i % 20_000);
+                each.add(100_000 + i, "value" + (i % 10_000));
+            }
+        }
+        index.close(true);
+        sharded.close(true);
+
+        // all new values are above the populated ones, so the last shard grows until the shards are rebalanced
+        final int threads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(pool.submit(() -> {
+                    for (int i = thread; i < 40_000; i += threads) {
+                        for (MemoryIndex each : Arrays.asList(index, sharded)) {
+                            each.newUpdater(IndexUpdateMode.ONLINE).process(NodePropertyUpdate.add(200_000 + i, 0, 20_000 + i, new long[0]));
+                            if (i % 2 == 0) each.newUpdater(IndexUpdateMode.ONLINE).process(NodePropertyUpdate.remove(i, 0, i % 20_000, new long[0]));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        MemoryIndexReader expected = index.newReader(), actual = sharded.newReader();
+        assertArrayEquals(sorted(expected.scan()), sorted(actual.scan()));
+        assertArrayEquals(sorted(expected.rangeSeekByNumberInclusive(5_000, 50_000)), sorted(actual.rangeSeekByNumberInclusive(5_000, 50_000)));
+        assertArrayEquals(sorted(expected.rangeSeekByNumberInclusive(null, 19_999)), sorted(actual.rangeSeekByNumberInclusive(null, 19_999)));
+        assertArrayEquals(sorted(expected.rangeSeekByPrefix("value1")), sorted(actual.rangeSeekByPrefix("value1")));
+        assertArrayEquals(sorted(expected.rangeSeekByString("value2", false, "value7", true)), sorted(actual.rangeSeekByString("value2", false, "value7", true)));
+        for (int value : new int[]{0, 1, 19_999, 20_000, 45_000, 59_999, 60_000}) {
+            assertArrayEquals(sorted(expected.seek(value)), sorted(actual.seek(value)));
+        }
+        List<Object> values = Arrays.asList(3, 30_000, "value42", "value9999", 59_999);
+        assertArrayEquals(sorted(expected.seekAll(values, true)), PrimitiveLongCollections.asArray(actual.seekAll(values, true)));
+        assertEquals(index.newAllEntriesReader().maxCount(), sharded.newAllEntriesReader().maxCount());
+        assertEquals(expected.scan().hasNext() ? 4 : 0, Math.min(4, actual.partitions(4).size()));
+        sharded.drop();
+    }
+
+    @Test
+    public void testMemoryBudgetFailsPopulationAndRejectsTransactions() throws Exception {
+        MemoryBudget total = new MemoryBudget(1 << 20);
+        MemoryIndex failing = new MemoryIndex(options().budget(total.forIndex(0)));
+        failing.create();
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                failing.add(i, "value" + i);
+            }
+            fail("population should exceed the budget");
+        } catch (IndexCapacityExceededException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("limited to 1048576 bytes"));
+            failing.markAsFailed(e.getMessage());
+            failing.close(false);
+        }
+        assertEquals(InternalIndexState.FAILED, failing.getState());
+
+        // the failed index released its share of the total
+        index = new MemoryIndex(options().budget(total.forIndex(0)));
+        index.create();
+        for (int i = 0; i < 5_000; i++) {
+            index.add(i, i);
+        }
+        index.close(true);
+        List<NodePropertyUpdate> updates = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            updates.add(NodePropertyUpdate.add(10_000 + i, 0, i, new long[0]));
+        }
+        IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE);
+        try {
+            updater.validate(updates);
+            fail("transaction should exceed the budget");
+        } catch (IndexCapacityExceededException e) {
+            // rejected before any update is applied
+        }
+        assertEquals(5_000, index.metrics().getEntries());
+        Reservation reservation = updater.validate(updates.subList(0, 1_000));
+        for (NodePropertyUpdate update : updates.subList(0, 1_000)) {
+            updater.process(update);
+        }
+        reservation.release();
+        assertEquals(6_000, index.metrics().getEntries());
+    }
+
+    @Test
+    public void testMetricsCountCallsAndFootprint() throws Exception {
+        for (int i = 0; i < 10_000; i++) {
+            index.add(i, i % 100);
+            index.add(i, "value" + (i % 1000));
+        }
+        index.close(true);
+        IndexMetrics metrics = index.metrics();
+        assertEquals(1_100, metrics.getKeys());
+        assertEquals(20_000, metrics.getEntries());
+        assertEquals(storage == IndexStorage.off_heap, metrics.getOffHeapBytes() > 0);
+        assertTrue(metrics.getHeapBytes() + metrics.getOffHeapBytes() >= 20_000 * 4);
+
+        IndexReader reader = index.newReader();
+        for (int i = 0; i < 1_000; i++) {
+            reader.seek(i % 100);
+            reader.countIndexedNodes(0, "value" + i);
+        }
+        reader.rangeSeekByNumberInclusive(10, 20);
+        reader.rangeSeekByPrefix("value1");
+        reader.scan();
+        index.process(NodePropertyUpdate.change(1, 0, 1, new long[0], 2, new long[0]));
+        index.remove(PrimitiveLongCollections.setOf(2, 3));
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.BATCHED)) {
+            updater.process(NodePropertyUpdate.add(20_000, 0, 42, new long[0]));
+        }
+        assertEquals(2_000, metrics.getSeeks());
+        assertEquals(2, metrics.getRangeSeeks());
+        assertEquals(1, metrics.getScans());
+        assertEquals(2, metrics.getUpdates());
+        assertEquals(2, metrics.getRemovals());
+        assertEquals(20_000 - 4 + 1, metrics.getEntries());
+        assertEquals(storage.name(), metrics.getStorage());
+        assertEquals("ONLINE", metrics.getState());
+        assertTrue(metrics.getReadLatency99() >= metrics.getReadLatency50());
+        assertTrue(metrics.getReadLatencyMean() >= 0);
+    }
+
+    @Test
+    public void testRemoveNodesWithSeveralValues() throws Exception {
+        for (int i = 0; i < 1_000; i++) {
+            index.add(i, i % 10);
+            index.add(i, "value" + (i % 3));
+        }
+        index.close(true);
+        index.add(5_000, 3);
+        index.process(NodePropertyUpdate.change(3, 0, 3, new long[0], 4, new long[0]));
+        index.process(NodePropertyUpdate.remove(13, 0, "value1", new long[0]));
+
+        index.remove(PrimitiveLongCollections.setOf(3, 13, 23, 5_000, 10_000));
+
+        IndexReader reader = index.newReader();
+        assertEquals(97, PrimitiveLongCollections.count(reader.seek(3)));
+        assertEquals(100, PrimitiveLongCollections.count(reader.seek(4)));
+        assertEquals(0, PrimitiveLongCollections.count(reader.seek(5_000)));
+        assertEquals(333, PrimitiveLongCollections.count(reader.seek("value0")));
+        assertEquals(332, PrimitiveLongCollections.count(reader.seek("value1")));
+        assertEquals(332, PrimitiveLongCollections.count(reader.seek("value2")));
+        assertEquals(2_000 - 6, index.newAllEntriesReader().maxCount());
+    }
+
+    @Test
+    public void testRangesKeepWorkingAfterUpdates() throws Exception {
+        for (int i = 0; i < 1_000; i++) {
+            index.add(i, i);
+            index.add(i, "key" + i);
+        }
+        index.close(true);
+        IndexReader before = index.newReader();
+        assertEquals(11, PrimitiveLongCollections.count(before.rangeSeekByNumberInclusive(10, 20)));
+        assertEquals(111, PrimitiveLongCollections.count(before.rangeSeekByPrefix("key1")));
+
+        for (int i = 1_000; i < 2_000; i++) {
+            index.add(i, i - 1_000 + 0.5d);
+            index.add(i, "key" + i);
+        }
+        index.process(NodePropertyUpdate.remove(15, 0, 15, new long[0]));
+        index.process(NodePropertyUpdate.change(10, 0, "key10", new long[0], "other", new long[0]));
+        index.remove(PrimitiveLongCollections.setOf(11, 1_011));
+
+        IndexReader after = index.newReader();
+        assertArrayEquals(new long[]{10, 12, 13, 14, 16, 17, 18, 19, 20, 1_010, 1_012, 1_013, 1_014, 1_015, 1_016, 1_017, 1_018, 1_019},
+                sorted(after.rangeSeekByNumberInclusive(10, 20)));
+        assertEquals(111 - 2 + 1_000 - 1, PrimitiveLongCollections.count(after.rangeSeekByPrefix("key1")));
+        assertArrayEquals(new long[]{10}, sorted(after.rangeSeekByString("other", true, null, false)));
+        assertEquals(11, PrimitiveLongCollections.count(before.rangeSeekByNumberInclusive(10, 20)));
+        assertEquals(111, PrimitiveLongCollections.count(before.rangeSeekByPrefix("key1")));
+
+        index.add(3_000, 15);
+        index.process(NodePropertyUpdate.remove(12, 0, 12, new long[0]));
+        index.process(NodePropertyUpdate.remove(1, 0, "key1", new long[0]));
+        IndexReader latest = index.newReader();
+        assertArrayEquals(new long[]{10, 13, 14, 16, 17, 18, 19, 20, 1_010, 1_012, 1_013, 1_014, 1_015, 1_016, 1_017, 1_018, 1_019, 3_000},
+                sorted(latest.rangeSeekByNumberInclusive(10, 20)));
+        assertEquals(111 - 3 + 1_000 - 1, PrimitiveLongCollections.count(latest.rangeSeekByPrefix("key1")));
+    }
+
+    static long[] sorted(PrimitiveLongIterator it) {
+        long[] result = PrimitiveLongCollections.asArray(it);
+        Arrays.sort(result);
+        return result;
+    }
+}
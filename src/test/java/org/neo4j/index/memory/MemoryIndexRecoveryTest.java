@@ -0,0 +1,167 @@
+package org.neo4j.index.memory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.mockfs.EphemeralFileSystemAbstraction;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.index.memory.provider.IndexFiles;
+import org.neo4j.index.memory.provider.IndexOptions;
+import org.neo4j.index.memory.provider.IndexStorage;
+import org.neo4j.index.memory.provider.MemoryIndex;
+import org.neo4j.io.fs.DefaultFileSystemAbstraction;
+import org.neo4j.io.fs.FileSystemAbstraction;
+import org.neo4j.io.fs.StoreChannel;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.InternalIndexState;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class MemoryIndexRecoveryTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> storages() {
+        return Arrays.asList(new Object[][]{{IndexStorage.heap}, {IndexStorage.off_heap}});
+    }
+
+    @Parameterized.Parameter
+    public IndexStorage storage;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSystemAbstraction fs = new DefaultFileSystemAbstraction();
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(folder.getRoot(), "1");
+    }
+
+    private MemoryIndex newIndex() {
+        return new MemoryIndex(new IndexOptions().storage(storage).files(new IndexFiles(fs, directory)));
+    }
+
+    private MemoryIndex populate() throws Exception {
+        MemoryIndex index = newIndex();
+        index.create();
+        for (int i = 0; i < 1000; i++) {
+            index.add(i, i % 10);
+            index.add(i, "value" + (i % 7));
+        }
+        index.add(1000, 0.5d);
+        index.add(1001, true);
+        index.add(1002, new int[]{1, 2});
+        index.close(true);
+        return index;
+    }
+
+    @Test
+    public void testRecoverSnapshotAndJournal() throws Exception {
+        MemoryIndex index = populate();
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(2000, 0, 42L, new long[0]));
+            updater.process(NodePropertyUpdate.change(0, 0, 0, new long[0], "changed", new long[0]));
+            updater.process(NodePropertyUpdate.remove(1000, 0, 0.5d, new long[0]));
+            updater.process(NodePropertyUpdate.add(2001, 0, new String[]{"x", "y"}, new long[0]));
+            PrimitiveLongSet removed = Primitive.longSet();
+            removed.add(1);
+            removed.add(2);
+            updater.remove(removed);
+        }
+        assertEquals(1, PrimitiveLongCollections.count(index.newReader().seek(42)));
+        index.force();
+        index.close();
+
+        MemoryIndex recovered = newIndex();
+        assertTrue(recovered.recover());
+        assertEquals(InternalIndexState.ONLINE, recovered.getState());
+        IndexReader reader = recovered.newReader();
+        assertArrayEquals(new long[]{2000}, PrimitiveLongCollections.asArray(reader.seek(42)));
+        assertArrayEquals(new long[]{0}, PrimitiveLongCollections.asArray(reader.seek("changed")));
+        assertEquals(99, PrimitiveLongCollections.count(reader.seek(0)));
+        assertEquals(142, PrimitiveLongCollections.count(reader.seek("value1")));
+        assertEquals(0, PrimitiveLongCollections.count(reader.seek(0.5d)));
+        assertArrayEquals(new long[]{1001}, PrimitiveLongCollections.asArray(reader.seek(true)));
+        assertArrayEquals(new long[]{1002}, PrimitiveLongCollections.asArray(reader.seek(new long[]{1, 2})));
+        assertArrayEquals(new long[]{2001}, PrimitiveLongCollections.asArray(reader.seek(new String[]{"x", "y"})));
+        assertEquals(100, PrimitiveLongCollections.count(reader.seek(3)));
+        assertEquals(2003 + 2 - 1 - 4, recovered.newAllEntriesReader().maxCount());
+    }
+
+    @Test
+    public void testCheckpointReplacesFiles() throws Exception {
+        MemoryIndex index = populate();
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (int i = 0; i < 100_000; i++) {
+                updater.process(NodePropertyUpdate.add(10_000 + i, 0, "large journal " + i, new long[0]));
+            }
+        }
+        index.force();
+        try (ResourceIterator<File> files = index.snapshotFiles()) {
+            List<File> listed = IteratorUtil.asList(files);
+            assertEquals(Arrays.asList(new File(directory, "snapshot.1"), new File(directory, "journal.1")), listed);
+        }
+        index.close();
+
+        MemoryIndex recovered = newIndex();
+        assertTrue(recovered.recover());
+        assertArrayEquals(new long[]{10_000 + 4711}, PrimitiveLongCollections.asArray(recovered.newReader().seek("large journal 4711")));
+        assertEquals(2003 + 100_000, recovered.newAllEntriesReader().maxCount());
+    }
+
+    @Test
+    public void testIgnoreIncompleteSnapshotAndTornJournal() throws Exception {
+        MemoryIndex index = populate();
+        index.process(NodePropertyUpdate.add(2000, 0, 42L, new long[0]));
+        index.force();
+        index.close();
+        try (StoreChannel channel = fs.create(new File(directory, "snapshot.5"))) {
+            channel.writeAll(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        }
+        File journal = new File(directory, "journal.0");
+        fs.truncate(journal, fs.getFileSize(journal) - 1);
+
+        MemoryIndex recovered = newIndex();
+        assertTrue(recovered.recover());
+        IndexReader reader = recovered.newReader();
+        assertEquals(0, PrimitiveLongCollections.count(reader.seek(42)));
+        assertEquals(100, PrimitiveLongCollections.count(reader.seek(9)));
+    }
+
+    @Test
+    public void testNothingToRecoverWithoutSnapshot() throws Exception {
+        MemoryIndex index = newIndex();
+        index.create();
+        index.add(1, 1);
+        assertFalse(newIndex().recover());
+        index.close(false);
+        assertFalse(newIndex().recover());
+    }
+
+    @Test
+    public void testRecoverFromEphemeralFileSystem() throws Exception {
+        fs = new EphemeralFileSystemAbstraction();
+        populate().close();
+        MemoryIndex recovered = newIndex();
+        assertTrue(recovered.recover());
+        assertEquals(100, PrimitiveLongCollections.count(recovered.newReader().seek(5)));
+    }
+}
@@ -1,4 +1,57 @@
 package org.neo4j.index.memory;
 
+import org.junit.Test;
+import org.neo4j.graphdb.ConstraintViolationException;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.IteratorUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
 public class MemoryIndexTest extends BasicIndexTest {
+
+    @Test
+    public void testUniqueConstraint() throws Exception {
+        Label label = DynamicLabel.label("Unique");
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(label).setProperty(PROPERTY, "a");
+            db.createNode(label).setProperty(PROPERTY, "b");
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.schema().constraintFor(label).assertPropertyIsUnique(PROPERTY).create();
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(label).setProperty(PROPERTY, "a");
+            tx.success();
+            fail("a is taken");
+        } catch (ConstraintViolationException e) {
+            // expected
+        }
+        try (Transaction tx = db.beginTx()) {
+            assertEquals(1, IteratorUtil.count(db.findNodes(label, PROPERTY, "a")));
+            db.createNode(label).setProperty(PROPERTY, "c");
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testUniqueConstraintOverDuplicatesFails() throws Exception {
+        Label label = DynamicLabel.label("Duplicate");
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(label).setProperty(PROPERTY, "a");
+            db.createNode(label).setProperty(PROPERTY, "a");
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.schema().constraintFor(label).assertPropertyIsUnique(PROPERTY).create();
+            tx.success();
+            fail("a is not unique");
+        } catch (ConstraintViolationException e) {
+            // expected
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package org.neo4j.index.memory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class StoreScanPopulationTest {
+
+    private static final Label LABEL = DynamicLabel.label("Foo");
+    private static final Label UNIQUE = DynamicLabel.label("Unique");
+    private static final Label OTHER = DynamicLabel.label("Other");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIndexesWithoutSnapshotArePopulatedFromStoreAtStartup() throws Exception {
+        File dir = folder.newFolder("graph.db");
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(dir.getPath());
+        try (Transaction tx = db.beginTx()) {
+            db.schema().indexFor(LABEL).on("bar").create();
+            db.schema().constraintFor(UNIQUE).assertPropertyIsUnique("id").create();
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.schema().awaitIndexesOnline(10, TimeUnit.SECONDS);
+        }
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 20000; i++) {
+                Node node = db.createNode(LABEL, UNIQUE);
+                node.setProperty("bar", i % 100);
+                node.setProperty("id", "id" + i);
+                node.setProperty("other", i);
+            }
+            db.createNode(DynamicLabel.label("Other")).setProperty("bar", 42);
+            tx.success();
+        }
+        db.shutdown();
+
+        FileUtils.deleteRecursively(new File(dir, "schema/index/" + MemoryIndexProviderFactory.PROVIDER_DESCRIPTOR.getKey()));
+
+        db = new GraphDatabaseFactory().newEmbeddedDatabase(dir.getPath());
+        try (Transaction tx = db.beginTx()) {
+            for (IndexDefinition index : db.schema().getIndexes()) {
+                assertEquals(Schema.IndexState.ONLINE, db.schema().getIndexState(index));
+            }
+            assertEquals(200, IteratorUtil.count(db.findNodes(LABEL, "bar", 42)));
+            assertEquals(1, IteratorUtil.count(db.findNodes(UNIQUE, "id", "id4711")));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexFailingDuringStoreScanDoesNotFailTheOthers() throws Exception {
+        File dir = folder.newFolder("graph.db");
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(dir.getPath());
+        try (Transaction tx = db.beginTx()) {
+            db.schema().indexFor(LABEL).on("bar").create();
+            db.schema().indexFor(OTHER).on("name").create();
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.schema().awaitIndexesOnline(10, TimeUnit.SECONDS);
+        }
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 20000; i++) {
+                db.createNode(LABEL).setProperty("bar", i);
+            }
+            for (int i = 0; i < 100; i++) {
+                db.createNode(OTHER).setProperty("name", "name" + i % 10);
+            }
+            tx.success();
+        }
+        db.shutdown();
+
+        FileUtils.deleteRecursively(new File(dir, "schema/index/" + MemoryIndexProviderFactory.PROVIDER_DESCRIPTOR.getKey()));
+
+        // the index on bar exceeds its budget during the scan
+        db = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(dir.getPath())
+                .setConfig(MemoryIndexSettings.max_bytes, "100k").newGraphDatabase();
+        try (Transaction tx = db.beginTx()) {
+            IndexDefinition small = IteratorUtil.single(db.schema().getIndexes(OTHER));
+            IndexDefinition large = IteratorUtil.single(db.schema().getIndexes(LABEL));
+            assertEquals(Schema.IndexState.ONLINE, db.schema().getIndexState(small));
+            assertNotEquals(Schema.IndexState.ONLINE, db.schema().getIndexState(large));
+            assertEquals(10, IteratorUtil.count(db.findNodes(OTHER, "name", "name7")));
+        } finally {
+            db.shutdown();
+        }
+    }
+}
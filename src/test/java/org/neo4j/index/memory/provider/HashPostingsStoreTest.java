@@ -0,0 +1,91 @@
+package org.neo4j.index.memory.provider;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashPostingsStoreTest {
+
+    @Test
+    public void testOrderedSeeksMakeTheStoreMaintainItsKeyOrder() throws Exception {
+        for (boolean descending : new boolean[]{false, true}) {
+            HashPostingsStore store = new HashPostingsStore.Longs();
+            LongValueIndex index = new LongValueIndex(store);
+            for (long i = 0; i < 1000; i++) {
+                index.add(i, i);
+            }
+            assertFalse(store.ordered());
+
+            PostingsStore.Cursor cursor = index.snapshot().cursor(10, 20, descending);
+            assertTrue(cursor.next());
+            assertEquals(descending ? 20 : 10, cursor.key());
+            assertTrue(store.ordered());
+
+            index.add(15.0d, 1000);
+            cursor = index.snapshot().cursor(15, 15, descending);
+            assertTrue(cursor.next());
+            assertEquals(2, cursor.postings().size());
+        }
+    }
+
+    @Test
+    public void testFullWalksDontSortTheKeys() throws Exception {
+        HashPostingsStore store = new HashPostingsStore.Comparables();
+        ComparableValueIndex index = new ComparableValueIndex(store);
+        for (long i = 0; i < 1000; i++) {
+            index.add("value" + i, i);
+        }
+        ComparableValueIndex.ComparableSnapshot snapshot = index.snapshot();
+        int keys = 0;
+        for (PostingsStore.Cursor cursor = snapshot.unorderedCursor(); cursor.next(); ) {
+            keys++;
+        }
+        assertEquals(1000, keys);
+        assertEquals(111, count(snapshot.containing("value1")));
+        assertEquals(100, count(snapshot.endingWith("7")));
+        assertEquals(1000, count(snapshot.values()));
+        assertFalse(((HashPostingsStore.HashSnapshot) snapshot.data).sorted());
+        assertFalse(store.ordered());
+
+        String previous = null;
+        for (PostingsStore.Cursor cursor = snapshot.cursor(); cursor.next(); previous = (String) cursor.objectKey()) {
+            assertTrue(previous == null || previous.compareTo((String) cursor.objectKey()) < 0);
+        }
+        assertTrue(((HashPostingsStore.HashSnapshot) snapshot.data).sorted());
+    }
+
+    @Test
+    public void testUpdatesWithoutReadersDontCopyThePostings() throws Exception {
+        HashPostingsStore store = new HashPostingsStore.Longs();
+        LongValueIndex index = new LongValueIndex(store);
+        for (long i = 0; i < 4000; i++) {
+            index.add(42L, i * 100);
+        }
+        assertEquals(4000, index.snapshot().count(42L));
+        // the first update after a snapshot copies the path to the key and its postings
+        index.add(42L, 1);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (long i = 0; i < 1000; i++) {
+            index.add(42L, i * 100 + 3);
+            index.remove(42L, i * 100 + 3);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue("allocated " + allocated + " bytes for 2000 updates", allocated < 1_000_000);
+        assertEquals(4001, index.snapshot().count(42L));
+    }
+
+    private static int count(Iterator<Postings> postings) {
+        int count = 0;
+        while (postings.hasNext()) {
+            count += postings.next().size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+package org.neo4j.index.memory.provider;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedPostingsStoreTest {
+    /**
+     * node-id whose add blocks inside the store until it is released
+     */
+    private static final long BLOCKED = 1L << 40;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWritersOfDifferentShardsRunConcurrently() throws Exception {
+        ShardedPostingsStore store = new ShardedPostingsStore(() -> blocking(new HashPostingsStore.Longs()), false, 4);
+        LongValueIndex index = new LongValueIndex(store);
+        int keys = 5 * ShardedPostingsStore.MIN_SHARD_ENTRIES;
+        for (long key = 0; key < keys; key++) {
+            index.add(key, key);
+        }
+        assertFalse(store.unbalanced());
+
+        Future<Boolean> blocked = executor.submit(() -> index.add(0L, BLOCKED));
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        // the last key is in another shard than the first one, its writer doesn't wait for the blocked one
+        assertTrue(executor.submit(() -> index.add(keys - 1L, keys)).get(10, TimeUnit.SECONDS));
+        Future<Boolean> sameShard = executor.submit(() -> index.add(1L, keys));
+        assertWaiting(sameShard);
+
+        release.countDown();
+        assertTrue(blocked.get(10, TimeUnit.SECONDS));
+        assertTrue(sameShard.get(10, TimeUnit.SECONDS));
+        NumberValueIndex.NumberSnapshot snapshot = index.snapshot();
+        assertEquals(2, snapshot.count(0L));
+        assertEquals(2, snapshot.count(1L));
+        assertEquals(2, snapshot.count(keys - 1L));
+    }
+
+    @Test
+    public void testWritersOfAStoreWithoutShardsAreSerialized() throws Exception {
+        LongValueIndex index = new LongValueIndex(blocking(new HashPostingsStore.Longs()));
+        index.add(1L, 1);
+
+        Future<Boolean> blocked = executor.submit(() -> index.add(0L, BLOCKED));
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        Future<Boolean> other = executor.submit(() -> index.add(2L, 2));
+        assertWaiting(other);
+
+        release.countDown();
+        assertTrue(blocked.get(10, TimeUnit.SECONDS));
+        assertTrue(other.get(10, TimeUnit.SECONDS));
+    }
+
+    private static void assertWaiting(Future<?> writer) throws Exception {
+        try {
+            writer.get(200, TimeUnit.MILLISECONDS);
+            fail("writer should wait for the blocked one");
+        } catch (TimeoutException expected) {
+            // still waiting
+        }
+    }
+
+    /**
+     * @return the store, with adds of {@link #BLOCKED} waiting for the release
+     */
+    private PostingsStore blocking(PostingsStore store) {
+        return (PostingsStore) Proxy.newProxyInstance(PostingsStore.class.getClassLoader(), new Class<?>[]{PostingsStore.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("add") && (Long) args[2] == BLOCKED) {
+                        entered.countDown();
+                        release.await();
+                    }
+                    try {
+                        return method.invoke(store, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}